@@ -0,0 +1,7 @@
+package android.hardware.usb;
+
+/**
+ *   UsbDevice - stand-in for the Android class so the session pool compiles on a plain JVM
+ */
+public class UsbDevice {
+}
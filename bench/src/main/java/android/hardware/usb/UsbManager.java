@@ -0,0 +1,9 @@
+package android.hardware.usb;
+
+/**
+ *   UsbManager - stand-in for the Android class so the session pool compiles on a plain JVM
+ *
+ *   USB printers are not simulated.
+ */
+public class UsbManager {
+}
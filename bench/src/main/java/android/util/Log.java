@@ -0,0 +1,17 @@
+package android.util;
+
+/**
+ *   Log - stand-in for the Android logger when the plugin classes run on a plain JVM
+ *
+ *   Debug output is dropped, so benchmarks measure the plugin rather than the console.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+}
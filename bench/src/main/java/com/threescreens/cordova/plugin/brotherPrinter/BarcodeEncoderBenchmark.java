@@ -0,0 +1,46 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   BarcodeEncoderBenchmark - encoding the codes of a layout label, done for every record printed
+ *
+ *   The QR code holds a typical tracking URL; the Code 128 barcode a mixed text/number SKU.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BarcodeEncoderBenchmark {
+
+    @Param({ "L", "M", "H" })
+    public String level;
+
+    private final String url = "https://example.com/track/1Z999AA10123456784?ref=label";
+
+    private final String sku = "SKU-00012345678-A";
+
+    @Benchmark
+    public boolean[][] qrCode() {
+        return QrCode.encode(url, level.charAt(0));
+    }
+
+    @Benchmark
+    public boolean[] code128() {
+        return Code128.encode(sku);
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   Base64Benchmark - decoding of the base64 images sent from JS
+ *
+ *   android.util.Base64 is not available on the JVM, so the JDK decoder stands in for it; the
+ *   comparison of interest is decoding the whole string at once (printBitmapImage) against
+ *   decoding it chunk by chunk (appendImageChunk), which bounds the memory held per image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Base64Benchmark {
+
+    //encoded image size, in bytes
+    @Param({ "16384", "262144", "1048576" })
+    public int size;
+
+    //lines of 76 characters and a line break per chunk, about the 64KB chunks printImageChunked sends
+    static final int CHUNK_CHARS = 77 * 851;
+
+    private String encoded;
+    private String[] chunks;
+
+    @Setup
+    public void setup() {
+        encoded = SampleLabels.base64(size);
+        int count = (encoded.length() + CHUNK_CHARS - 1) / CHUNK_CHARS;
+        chunks = new String[count];
+        for( int i = 0; i < count; i++ ){
+            chunks[i] = encoded.substring(i * CHUNK_CHARS, Math.min(encoded.length(), (i + 1) * CHUNK_CHARS));
+        }
+    }
+
+    @Benchmark
+    public byte[] wholeString() {
+        return Base64.getMimeDecoder().decode(encoded);
+    }
+
+    @Benchmark
+    public long chunked() {
+        long total = 0;
+        for( String chunk : chunks ){
+            total += Base64.getMimeDecoder().decode(chunk).length;
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   DitherBenchmark - conversion of a 62x100mm label to black/white, per algorithm
+ *
+ *   Covers the per-pixel work of LabelBitmapProcessor; decoding and scaling the Bitmap are done by
+ *   Android and are not included. Every row is copied before it is converted in place.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DitherBenchmark {
+
+    @Param({ "threshold", "floyd-steinberg", "atkinson", "ordered" })
+    public String algorithm;
+
+    @Param({ "false", "true" })
+    public boolean twoColor;
+
+    private int[][] image;
+    private int[] row;
+    private final LabelDither dither = new LabelDither();
+    private LabelDither.Algorithm selected;
+
+    @Setup
+    public void setup() {
+        image = SampleLabels.pixels(SampleLabels.WIDTH, SampleLabels.ROWS);
+        row = new int[SampleLabels.WIDTH];
+        selected = LabelDither.Algorithm.fromName(algorithm);
+    }
+
+    @Benchmark
+    public int convertLabel() {
+        dither.begin(SampleLabels.WIDTH, selected, LabelDither.DEFAULT_THRESHOLD, twoColor);
+        for( int y = 0; y < image.length; y++ ){
+            System.arraycopy(image[y], 0, row, 0, row.length);
+            dither.processRow(row, y);
+        }
+        return row[0];
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import com.brother.ptouch.sdk.PrinterInfo.ErrorCode;
+import com.brother.ptouch.sdk.PrinterStatus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *   EndToEndBenchmark - labels per second from the job queue to simulated printers over TCP
+ *
+ *   Each label is a 62x100mm raster job sent through the same path as a network print job: a
+ *   tracked job on the printer's queue, retried on transient errors, written by SocketTransport to
+ *   a FakeBrotherPrinter. The simulated printers can be slowed down per page and made to fail; the
+ *   labels that failed anyway and the retries made are reported as {@link LabelOutcome} counters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+    //labels sent per invocation
+    static final int LABELS = 16;
+
+    @Param({ "1", "4" })
+    public int printers;
+
+    //time the simulated printers take per label
+    @Param({ "0", "5" })
+    public long pageLatencyMs;
+
+    //fraction of the jobs during which the simulated printers go offline for a moment
+    @Param({ "0", "0.05" })
+    public double errorRate;
+
+    //TIFF compression of the raster lines
+    @Param({ "true", "false" })
+    public boolean compress;
+
+    private FakeBrotherPrinter[] fakes;
+    private PrintJobConfig[] configs;
+    private PrinterTransport[] transports;
+    private PrintScheduler scheduler;
+    private PrintJobTracker tracker;
+    private RawCommandSender.Payload label;
+
+    @Setup
+    public void setup() throws Exception {
+        label = RawCommandSender.of(SampleLabels.rasterJob(SampleLabels.ROWS, compress));
+        scheduler = new PrintScheduler(LABELS);
+        tracker = new PrintJobTracker(new PrinterSessionPool(), new PrintMetrics());
+        fakes = new FakeBrotherPrinter[printers];
+        configs = new PrintJobConfig[printers];
+        transports = new PrinterTransport[printers];
+        for( int i = 0; i < printers; i++ ){
+            fakes[i] = new FakeBrotherPrinter(0)
+                .setPageLatencyMs(pageLatencyMs)
+                .setErrorRate(errorRate, FakeBrotherPrinter.Failure.OFFLINE);
+
+            Map<String,String> printer = new HashMap<String,String>();
+            printer.put("serNo", "SIM" + i);
+            printer.put("ipAddress", fakes[i].getHost());
+            printer.put("modelName", "QL-720NW");
+            printer.put("paperName", "W62H100");
+            Map<String,String> options = new HashMap<String,String>();
+            options.put("port", "" + fakes[i].getPort());
+            configs[i] = PrintJobConfig.of(printer, options);
+            transports[i] = RawCommandSender.transportFor(configs[i], null, true);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+        tracker.shutdown();
+        for( FakeBrotherPrinter fake : fakes ){
+            fake.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LABELS)
+    public void labels(LabelOutcome outcome) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(LABELS);
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger retries = new AtomicInteger();
+        for( int i = 0; i < LABELS; i++ ){
+            final int index = i % printers;
+            final PrintJob handle = tracker.create(configs[index]);
+            PrintScheduler.Job queued = scheduler.submit(handle.config.key(), "label", new Runnable() {
+                public void run() {
+                    PrinterStatus status = null;
+                    try{
+                        handle.started();
+                        status = handle.attempt(new PrintJob.Attempt() {
+                            public PrinterStatus run(PrintJob current) {
+                                return transports[index].send(label, current);
+                            }
+                        });
+                        if( status.errorCode != ErrorCode.ERROR_NONE ){
+                            failed.incrementAndGet();
+                        }
+                    }catch(Exception e){
+                        failed.incrementAndGet();
+                    }finally{
+                        retries.addAndGet(handle.getRetries());
+                        handle.finish(status);
+                        done.countDown();
+                    }
+                }
+            });
+            if( queued == null ){
+                //rejected by a full queue, the job never runs
+                handle.finish(null);
+                failed.incrementAndGet();
+                done.countDown();
+            }
+        }
+        done.await();
+        outcome.failedLabels += failed.get();
+        outcome.retries += retries.get();
+    }
+
+}
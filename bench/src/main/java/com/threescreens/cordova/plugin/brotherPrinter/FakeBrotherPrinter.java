@@ -0,0 +1,400 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *   FakeBrotherPrinter - a simulated QL network printer listening on a raw print port
+ *
+ *   Like the real printers it serves one connection at a time and treats every connection as one
+ *   print job. The data is parsed as QL raster commands (invalidate, ESC @, ESC i ..., M, g/w/Z
+ *   rows, FF/^Z page ends); an "ESC i S" status request is answered with a 32 byte status.
+ *   Data that is not raster (e.g. a template PRN) is accepted and counted as is.
+ *
+ *   Print time is simulated by not reading for {@code pageLatencyMs} after every page, so a fast
+ *   sender is held back by TCP flow control just as with a printer feeding paper. A fraction of the
+ *   jobs ({@code errorRate}) fails on purpose, see {@link Failure}.
+ *
+ *   Run it from the command line to print against it from a device on the same network:
+ *
+ *       java -cp bench/target/benchmarks.jar com.threescreens.cordova.plugin.brotherPrinter.FakeBrotherPrinter \
+ *            [port] [pageLatencyMs] [errorRate]
+ */
+public class FakeBrotherPrinter {
+
+    /**
+     *  the ways an injected error shows to the sender
+     */
+    enum Failure {
+        //the printer goes offline for offlineMs: the job is reset and new connections are refused
+        OFFLINE,
+        //the connection is reset before the job is read; a sender that got the job into its socket buffers
+        //does not notice, like a label lost by a real printer
+        RESET,
+        //the printer stops reading for stallMs, a large job runs into the write timeout of the sender
+        STALL
+    }
+
+    //length of the QL status reply
+    static final int STATUS_LENGTH = 32;
+
+    //the printers only buffer a little of a job, which is what makes a sender wait for them
+    static final int RECEIVE_BUFFER = 8 * 1024;
+
+    private final InetSocketAddress address;
+    private volatile ServerSocket server;
+    private final Thread acceptor;
+    private final Random random = new Random();
+
+    private volatile long pageLatencyMs;
+    private volatile double errorRate;
+    private volatile Failure failure = Failure.OFFLINE;
+    private volatile long offlineMs = 100;
+    private volatile long stallMs = 60000;
+    private volatile boolean running = true;
+
+    private final AtomicLong jobs = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong rasterLines = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong statusRequests = new AtomicLong();
+
+    /**
+     *  starts the printer on the loopback interface
+     *
+     *  @param port the port to listen on, 0 for any free port (see {@link #getPort()})
+     */
+    public FakeBrotherPrinter(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     *  @param address the address to listen on, null for all interfaces
+     *  @param port the port to listen on, 0 for any free port
+     */
+    public FakeBrotherPrinter(InetAddress address, int port) throws IOException {
+        server = listen(new InetSocketAddress(address, port));
+        this.address = new InetSocketAddress(address, server.getLocalPort());
+        acceptor = new Thread(new Runnable() {
+            public void run() {
+                serve();
+            }
+        }, "FakeBrotherPrinter-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public String getHost() {
+        return address.getAddress().getHostAddress();
+    }
+
+    /**
+     *  @param pageLatencyMs the time the printer stops reading after every page
+     */
+    public FakeBrotherPrinter setPageLatencyMs(long pageLatencyMs) {
+        this.pageLatencyMs = pageLatencyMs;
+        return this;
+    }
+
+    /**
+     *  @param errorRate the fraction (0-1) of jobs that fail
+     *  @param failure how they fail
+     */
+    public FakeBrotherPrinter setErrorRate(double errorRate, Failure failure) {
+        this.errorRate = errorRate;
+        this.failure = failure;
+        return this;
+    }
+
+    /**
+     *  @param offlineMs the time an {@link Failure#OFFLINE} printer refuses connections
+     */
+    public FakeBrotherPrinter setOfflineMs(long offlineMs) {
+        this.offlineMs = offlineMs;
+        return this;
+    }
+
+    /**
+     *  @param stallMs the time a {@link Failure#STALL} holds the connection without reading
+     */
+    public FakeBrotherPrinter setStallMs(long stallMs) {
+        this.stallMs = stallMs;
+        return this;
+    }
+
+    public long getJobs() {
+        return jobs.get();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+
+    public long getRasterLines() {
+        return rasterLines.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getStatusRequests() {
+        return statusRequests.get();
+    }
+
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        try {
+            acceptor.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ServerSocket listen(InetSocketAddress address) throws IOException {
+        ServerSocket server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.setReceiveBufferSize(RECEIVE_BUFFER);
+        server.bind(address);
+        return server;
+    }
+
+    private void serve() {
+        while( running ){
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                //closed
+                return;
+            }
+            try {
+                handle(socket);
+            } catch (IOException e) {
+                //the sender went away, wait for the next job
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    //nothing to release
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        jobs.incrementAndGet();
+
+        double roll;
+        synchronized (random) {
+            roll = random.nextDouble();
+        }
+        if( roll < errorRate ){
+            failures.incrementAndGet();
+            switch( failure ){
+                case OFFLINE:
+                    socket.setSoLinger(true, 0);
+                    socket.close();
+                    server.close();
+                    sleep(offlineMs);
+                    if( running ){
+                        server = listen(address);
+                    }
+                    return;
+                case RESET:
+                    socket.setSoLinger(true, 0);
+                    return;
+                default:
+                    sleep(stallMs);
+                    return;
+            }
+        }
+
+        InputStream in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+        OutputStream out = socket.getOutputStream();
+        try {
+            parse(in, out);
+        } catch (SocketException e) {
+            //the sender closed the connection after the last page
+        }
+    }
+
+    /**
+     *  reads one job of QL raster commands, counting its pages and rows
+     */
+    private void parse(InputStream in, OutputStream out) throws IOException {
+        int b;
+        while( (b = read(in)) != -1 ){
+            switch( b ){
+                case 0x00:
+                    //invalidate
+                    break;
+                case 0x1B:
+                    escape(in, out);
+                    break;
+                case 'M':
+                    //compression mode
+                    skip(in, 1);
+                    break;
+                case 'g':
+                    //raster line: 0x00, length, data
+                    skip(in, 1);
+                    skip(in, read(in));
+                    rasterLines.incrementAndGet();
+                    break;
+                case 'w':
+                    //two color raster line: color, length, data
+                    skip(in, 1);
+                    skip(in, read(in));
+                    rasterLines.incrementAndGet();
+                    break;
+                case 'Z':
+                    //blank raster line
+                    rasterLines.incrementAndGet();
+                    break;
+                case 0x0C:
+                case 0x1A:
+                    //print the page (0x1A also feeds and cuts the last one)
+                    pages.incrementAndGet();
+                    sleep(pageLatencyMs);
+                    break;
+                default:
+                    //not raster data, take the rest of the job as is
+                    drain(in);
+                    return;
+            }
+        }
+    }
+
+    private void escape(InputStream in, OutputStream out) throws IOException {
+        int command = read(in);
+        if( command == '@' ){
+            //initialize
+            return;
+        }
+        if( command != 'i' ){
+            return;
+        }
+        int sub = read(in);
+        switch( sub ){
+            case 'S':
+                statusRequests.incrementAndGet();
+                out.write(status());
+                out.flush();
+                break;
+            case 'z':
+                //print information: kind, media type, width, length, raster count (4), page, 0
+                skip(in, 10);
+                break;
+            case 'd':
+                //margin
+                skip(in, 2);
+                break;
+            case 'a':
+            case 'M':
+            case 'A':
+            case 'K':
+            case 'U':
+                skip(in, 1);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     *  @return the status a QL printer sends in reply to "ESC i S": no errors, 62mm continuous paper, ready
+     */
+    static byte[] status() {
+        byte[] status = new byte[STATUS_LENGTH];
+        status[0] = (byte) 0x80;
+        status[1] = 0x20;
+        status[2] = 'B';
+        status[3] = '0';
+        //media width (mm) and type (continuous)
+        status[10] = 62;
+        status[11] = 0x0A;
+        //status type: reply to status request, phase: waiting to receive
+        status[18] = 0x00;
+        status[19] = 0x00;
+        return status;
+    }
+
+    private int read(InputStream in) throws IOException {
+        int b = in.read();
+        if( b != -1 ){
+            bytes.incrementAndGet();
+        }
+        return b;
+    }
+
+    private void skip(InputStream in, int count) throws IOException {
+        if( count <= 0 ){
+            return;
+        }
+        long skipped = 0;
+        while( skipped < count ){
+            long n = in.skip(count - skipped);
+            if( n <= 0 ){
+                if( in.read() == -1 ){
+                    break;
+                }
+                n = 1;
+            }
+            skipped += n;
+        }
+        bytes.addAndGet(skipped);
+    }
+
+    private void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        int count;
+        while( (count = in.read(buffer)) != -1 ){
+            bytes.addAndGet(count);
+        }
+    }
+
+    private static void sleep(long ms) {
+        if( ms <= 0 ){
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : PrinterDiscovery.RAW_PORT;
+        FakeBrotherPrinter printer = new FakeBrotherPrinter(null, port);
+        if( args.length > 1 ){
+            printer.setPageLatencyMs(Long.parseLong(args[1]));
+        }
+        if( args.length > 2 ){
+            printer.setErrorRate(Double.parseDouble(args[2]), Failure.OFFLINE);
+        }
+        //serves until the process is stopped
+        printer.acceptor.join();
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import com.brother.ptouch.sdk.PrinterInfo.ErrorCode;
+import com.brother.ptouch.sdk.PrinterStatus;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *   GroupDispatchBenchmark - labels per second over a printer group with one unreliable printer
+ *
+ *   Four simulated printers share the raw print port on different loopback addresses; the first one
+ *   goes offline for a moment during half of its jobs, which are then retried after a backoff. Labels are sent as a packing line sends them, a new one as soon
+ *   as one of {@link #OUTSTANDING} printing ones is done, and are either dealt out in turn
+ *   ("roundRobin") or sent to the group ("group"), which picks the least loaded printer every time.
+ *   The labels that failed and the retries made are reported as {@link LabelOutcome} counters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupDispatchBenchmark {
+
+    //labels sent per invocation
+    static final int LABELS = 32;
+
+    static final int PRINTERS = 4;
+
+    //labels queued or printing at any time
+    static final int OUTSTANDING = 8;
+
+    static final long PAGE_LATENCY_MS = 5;
+
+    //fraction of the jobs of the first printer that fail
+    static final double FLAKY_ERROR_RATE = 0.5;
+
+    @Param({ "roundRobin", "group" })
+    public String dispatch;
+
+    private FakeBrotherPrinter[] fakes;
+    private PrintJobConfig[] configs;
+    private PrintScheduler scheduler;
+    private PrintJobTracker tracker;
+    private PrinterGroups groups;
+    private Map<String,String> groupOptions;
+    private RawCommandSender.Payload label;
+
+    @Setup
+    public void setup() throws Exception {
+        label = RawCommandSender.of(SampleLabels.rasterJob(SampleLabels.ROWS, true));
+        scheduler = new PrintScheduler(LABELS);
+        tracker = new PrintJobTracker(new PrinterSessionPool(), new PrintMetrics());
+        final Map<String,Map<String,String>> printers = new ConcurrentHashMap<String,Map<String,String>>();
+        groups = new PrinterGroups(printers, scheduler);
+        tracker.setListener(new PrintJobTracker.Listener() {
+            public void onFinished(PrintJob job, PrinterStatus status) {
+                groups.onFinished(job, status);
+            }
+        });
+
+        fakes = new FakeBrotherPrinter[PRINTERS];
+        configs = new PrintJobConfig[PRINTERS];
+        List<String> serials = new ArrayList<String>();
+        int port = 0;
+        for( int i = 0; i < PRINTERS; i++ ){
+            fakes[i] = new FakeBrotherPrinter(InetAddress.getByName("127.0.0." + (i + 1)), port)
+                .setPageLatencyMs(PAGE_LATENCY_MS)
+                .setErrorRate(i == 0 ? FLAKY_ERROR_RATE : 0, FakeBrotherPrinter.Failure.OFFLINE);
+            port = fakes[i].getPort();
+
+            Map<String,String> printer = new HashMap<String,String>();
+            printer.put("serNo", "SIM" + i);
+            printer.put("ipAddress", fakes[i].getHost());
+            printer.put("modelName", "QL-820NWB");
+            printer.put("paperName", "W62H100");
+            printers.put("SIM" + i, printer);
+            serials.add("SIM" + i);
+        }
+
+        Map<String,String> options = new HashMap<String,String>();
+        options.put("port", "" + port);
+        for( int i = 0; i < PRINTERS; i++ ){
+            configs[i] = PrintJobConfig.of(printers.get("SIM" + i), options);
+        }
+        groups.register("line", serials, "W62H100");
+        groupOptions = new HashMap<String,String>(options);
+        groupOptions.put("group", "line");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+        tracker.shutdown();
+        for( FakeBrotherPrinter fake : fakes ){
+            fake.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LABELS)
+    public void labels(LabelOutcome outcome) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(LABELS);
+        final Semaphore outstanding = new Semaphore(OUTSTANDING);
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger retries = new AtomicInteger();
+        for( int i = 0; i < LABELS; i++ ){
+            outstanding.acquire();
+            PrintJobConfig config = "group".equals(dispatch) ? groups.dispatch("line", groupOptions) : configs[i % PRINTERS];
+            final PrintJob handle = tracker.create(config);
+            PrintScheduler.Job queued = scheduler.submit(config.key(), "label", new Runnable() {
+                public void run() {
+                    PrinterStatus status = null;
+                    try{
+                        handle.started();
+                        final PrinterTransport transport = RawCommandSender.transportFor(handle.config, null, true);
+                        status = handle.attempt(new PrintJob.Attempt() {
+                            public PrinterStatus run(PrintJob current) {
+                                return transport.send(label, current);
+                            }
+                        });
+                        if( status.errorCode != ErrorCode.ERROR_NONE ){
+                            failed.incrementAndGet();
+                        }
+                    }catch(Exception e){
+                        failed.incrementAndGet();
+                    }finally{
+                        retries.addAndGet(handle.getRetries());
+                        handle.finish(status);
+                        outstanding.release();
+                        done.countDown();
+                    }
+                }
+            });
+            if( queued == null ){
+                //rejected by a full queue, the job never runs
+                handle.finish(null);
+                failed.incrementAndGet();
+                outstanding.release();
+                done.countDown();
+            }
+        }
+        done.await();
+        outcome.failedLabels += failed.get();
+        outcome.retries += retries.get();
+    }
+
+}
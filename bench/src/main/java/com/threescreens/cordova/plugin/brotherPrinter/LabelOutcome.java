@@ -0,0 +1,31 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ *   LabelOutcome - what became of the labels of an end to end benchmark, reported next to its score
+ *
+ *   Labels that failed should stay at 0 with the default retries; the retries show how much of the
+ *   injected failures the score absorbed.
+ */
+@AuxCounters(AuxCounters.Type.EVENTS)
+@State(Scope.Thread)
+public class LabelOutcome {
+
+    //labels that could not be printed, including those rejected by a full queue
+    public long failedLabels;
+
+    //attempts repeated after a transient error
+    public long retries;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        failedLabels = 0;
+        retries = 0;
+    }
+
+}
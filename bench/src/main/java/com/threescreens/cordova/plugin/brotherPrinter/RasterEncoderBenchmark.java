@@ -0,0 +1,71 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   RasterEncoderBenchmark - encoding a 62x100mm and a 29x90mm label into QL raster commands
+ *
+ *   The commands are counted rather than kept; the byte count of the last invocation shows the
+ *   size on the wire with and without compression. The setup fails if the encoder puts the label
+ *   on the wrong print head pins for the paper.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RasterEncoderBenchmark {
+
+    @Param({ "true", "false" })
+    public boolean compress;
+
+    @Param({ "W62H100", SampleLabels.NARROW_PAPER })
+    public String paper;
+
+    private QlRasterEncoder encoder;
+    private QlRasterEncoder.Page page;
+
+    static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        SampleLabels.checkPins(paper);
+        encoder = new QlRasterEncoder(paper, compress, true, true);
+        page = SampleLabels.page(paper);
+    }
+
+    @Benchmark
+    public long encodeLabel() throws IOException {
+        CountingStream out = new CountingStream();
+        encoder.write(out, page);
+        return out.count;
+    }
+
+}
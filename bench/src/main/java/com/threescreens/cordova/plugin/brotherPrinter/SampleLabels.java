@@ -0,0 +1,127 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *   SampleLabels - label data for the benchmarks
+ */
+final class SampleLabels {
+
+    //printable width of 62mm paper on a QL-720NW, in dots, and the bytes of one raster line
+    static final int WIDTH = 696;
+    static final int LINE_BYTES = 90;
+
+    //rows of a 62x100mm label at 300dpi
+    static final int ROWS = 1109;
+
+    //29x90mm labels, which leave most of the print head unused
+    static final String NARROW_PAPER = "W29H90";
+
+    private SampleLabels() {
+    }
+
+    /**
+     *  @return the ARGB pixels of a label: a grey ramp with black text-like blocks, so every conversion has work to do
+     */
+    static int[][] pixels(int width, int rows) {
+        Random random = new Random(42);
+        int[][] image = new int[rows][width];
+        for( int y = 0; y < rows; y++ ){
+            for( int x = 0; x < width; x++ ){
+                int grey = (x * 255 / width + y) & 0xFF;
+                if( (y / 24) % 3 == 0 && random.nextInt(4) != 0 ){
+                    grey = 0;
+                }
+                image[y][x] = 0xFF000000 | (grey << 16) | (grey << 8) | grey;
+            }
+        }
+        return image;
+    }
+
+    /**
+     *  @return an encoded image of about the given size, as base64 with line breaks like android.util.Base64.DEFAULT
+     */
+    static String base64(int size) {
+        byte[] data = new byte[size];
+        new Random(7).nextBytes(data);
+        return java.util.Base64.getMimeEncoder(76, new byte[]{ '\n' }).encodeToString(data);
+    }
+
+    /**
+     *  @return a QL raster print job of one label, dithered like a label printed with the default settings
+     */
+    static byte[] rasterJob(int rows, boolean compress) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rows * (LINE_BYTES + 3) + 256);
+        new QlRasterEncoder("W62H100", compress, true, true).write(out, page(rows));
+        return out.toByteArray();
+    }
+
+    /**
+     *  @return a 62mm label converted to black/white, as the raster encoder receives it
+     */
+    static QlRasterEncoder.Page page(int rows) {
+        return page(WIDTH, rows);
+    }
+
+    /**
+     *  @return a label of the printable width and length of the paper, converted to black/white
+     */
+    static QlRasterEncoder.Page page(String paperName) {
+        return page(LabelPaper.printableDots(paperName), LabelPaper.printableLengthDots(paperName));
+    }
+
+    private static QlRasterEncoder.Page page(final int width, final int rows) {
+        final int[][] image = pixels(width, rows);
+        LabelDither dither = new LabelDither();
+        dither.begin(width, LabelDither.Algorithm.FLOYD_STEINBERG, LabelDither.DEFAULT_THRESHOLD, false);
+        for( int y = 0; y < rows; y++ ){
+            dither.processRow(image[y], y);
+        }
+        return new QlRasterEncoder.Page() {
+            public int getWidth() {
+                return width;
+            }
+
+            public int getHeight() {
+                return rows;
+            }
+
+            public void getRow(int y, int[] argb) {
+                System.arraycopy(image[y], 0, argb, 0, width);
+            }
+        };
+    }
+
+    /**
+     *  checks that the encoder puts the first and last pixel of a row on the pins the raster command reference
+     *  gives for the paper: mirrored, ending the right margin before the end of the raster line
+     *
+     *  @throws IllegalStateException if a pixel lands on another pin
+     */
+    static void checkPins(String paperName) throws IOException {
+        int width = LabelPaper.printableDots(paperName);
+        int margin = LabelPaper.rightMarginPins(paperName);
+        checkPin(paperName, width, 0, LabelPaper.HEAD_PINS - margin - 1);
+        checkPin(paperName, width, width - 1, LabelPaper.HEAD_PINS - margin - width);
+    }
+
+    private static void checkPin(String paperName, int width, int x, int expected) throws IOException {
+        int[] row = new int[width];
+        Arrays.fill(row, 0xFFFFFFFF);
+        row[x] = 0xFF000000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new QlRasterEncoder(paperName, false, true, true).writeRow(out, row, width);
+        byte[] line = out.toByteArray();
+        //'g', 0x00 and the line length come before the pins
+        for( int pin = 0; pin < LabelPaper.HEAD_PINS; pin++ ){
+            boolean set = (line[3 + (pin >> 3)] & (0x80 >>> (pin & 7))) != 0;
+            if( set != (pin == expected) ){
+                throw new IllegalStateException(paperName + ": pixel " + x + " is not printed on pin " + expected);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   SchedulerBenchmark - the overhead of queueing jobs on the per-printer queues, with empty jobs
+ *
+ *   Every invocation submits a burst of jobs spread over the printers and waits for all of them to
+ *   run, so the score is jobs per second through PrintScheduler (and PrintJobTracker for the
+ *   tracked variant).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchedulerBenchmark {
+
+    //jobs submitted per invocation, within the queue depth of a single printer
+    static final int BURST = 32;
+
+    @Param({ "1", "4" })
+    public int printers;
+
+    private PrintScheduler scheduler;
+    private PrintJobTracker tracker;
+    private PrintJobConfig[] configs;
+
+    @Setup
+    public void setup() {
+        scheduler = new PrintScheduler(BURST);
+        tracker = new PrintJobTracker(new PrinterSessionPool(), new PrintMetrics());
+        configs = new PrintJobConfig[printers];
+        for( int i = 0; i < printers; i++ ){
+            java.util.Map<String,String> printer = new java.util.HashMap<String,String>();
+            printer.put("serNo", "SIM" + i);
+            printer.put("ipAddress", "127.0.0.1");
+            printer.put("modelName", "QL-720NW");
+            printer.put("paperName", "W62H100");
+            configs[i] = PrintJobConfig.of(printer, new java.util.HashMap<String,String>());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdown();
+        tracker.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void queued() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BURST);
+        Runnable task = new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        };
+        for( int i = 0; i < BURST; i++ ){
+            scheduler.submit("SIM" + (i % printers), "bench", task);
+        }
+        done.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void tracked() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BURST);
+        for( int i = 0; i < BURST; i++ ){
+            final PrintJob handle = tracker.create(configs[i % printers]);
+            scheduler.submit(handle.config.key(), "bench", new Runnable() {
+                public void run() {
+                    handle.started();
+                    handle.finish(null);
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+}
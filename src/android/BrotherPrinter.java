@@ -1,22 +1,13 @@
 package com.threescreens.cordova.plugin.brotherPrinter;
 
-import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.hardware.usb.UsbDevice;
-import android.hardware.usb.UsbManager;
 import android.os.Build;
 import android.util.Base64;
 import android.util.Log;
 
-import com.brother.ptouch.sdk.LabelInfo;
-import com.brother.ptouch.sdk.NetPrinter;
 import com.brother.ptouch.sdk.Printer;
-import com.brother.ptouch.sdk.PrinterInfo;
 import com.brother.ptouch.sdk.PrinterInfo.ErrorCode;
 import com.brother.ptouch.sdk.PrinterStatus;
 
@@ -28,12 +19,21 @@ import org.json.JSONObject;
 import org.json.JSONException;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  *   BrotherPrinter - cordova plugin providing access to networked printers
@@ -52,11 +52,23 @@ public class BrotherPrinter extends CordovaPlugin {
     //Holds valid paper sizes for the QL series printers
     private static final String[] PS_QL = {"W17H54", "W17H87", "W23H23", "W29H42", "W29H90", "W38H90", "W39H48", "W52H29", "W54H29", "W62H29", "W62H100", "W60H86", "W12", "W29", "W38", "W50", "W54", "W62", "W62RB"};
 
-    //Holds the map of NetPrinter objects available based upon the search operation, keyed by their serial number
-    private Map<String,Map<String,String>> discoveredNetworkPrinters;
+    //Holds the network printer search and the printers it has found
+    private final PrinterDiscovery discovery = new PrinterDiscovery(modelNames, Arrays.toString(PS_QL));
 
-    //Holds the NetPrinter (converted to a Map object) selected during search
-    private Map<String,String> selectedPrinter;
+    //Holds the map of NetPrinter objects available based upon the search operation, keyed by their serial number; the entries are read only
+    private final Map<String,Map<String,String>> discoveredNetworkPrinters = discovery.printers();
+
+    //Holds the NetPrinter (converted to a Map object) selected during search; jobs use the latest entry found for its serial number
+    private final AtomicReference<Map<String,String>> selectedPrinter = new AtomicReference<Map<String,String>>();
+
+    //Holds the known printers and session printer persisted across app restarts
+    private PrinterRegistry registry;
+
+    //released once the persisted printers have been restored
+    private final CountDownLatch registryLoaded = new CountDownLatch(1);
+
+    //longest a request waits for the persisted printers to be restored
+    private static final long REGISTRY_LOAD_TIMEOUT_MS = 2000;
 
     //Holds the token to make it easy to grep logcat
     private static final String TAG = "[BrotherPrinter Plugin]";
@@ -64,6 +76,66 @@ public class BrotherPrinter extends CordovaPlugin {
     //the callback context through which responses to plugin requests should be sent
     private CallbackContext callbackctx;
 
+    //Holds the configured printer sessions reused across print jobs
+    private final PrinterSessionPool sessionPool = new PrinterSessionPool();
+
+    //Holds the per-printer job queues, so jobs for one printer never overlap on the wire
+    private final PrintScheduler scheduler = new PrintScheduler();
+
+    //Holds the phase timings and statuses of the print jobs
+    private final PrintMetrics metrics = new PrintMetrics();
+
+    //Holds the handles of the jobs queued or running, for cancellation, deadlines and retries
+    private final PrintJobTracker jobTracker = new PrintJobTracker(sessionPool, metrics);
+
+    //Holds the printer groups jobs can be sent to instead of a single printer
+    private final PrinterGroups printerGroups = new PrinterGroups(discoveredNetworkPrinters, scheduler);
+
+    //Holds the latest status of every network printer, which print jobs are checked against before they are queued
+    private final PrinterStatusMonitor statusMonitor = new PrinterStatusMonitor(discoveredNetworkPrinters, scheduler, sessionPool, metrics);
+
+    //Holds the callback status changes are pushed to, set by watchPrinterStatus
+    private volatile CallbackContext statusWatcher;
+
+    //Holds the print-ready label images kept for reprints
+    private RasterCache rasterCache;
+
+    //Holds the label image conversion stage
+    private LabelBitmapProcessor bitmapProcessor;
+
+    //value of the "engine" option selecting the built-in QL raster encoder
+    private static final String RASTER_ENGINE = "raster";
+
+    //number of threads rendering PDF pages ahead of the printers
+    private static final int PDF_RENDER_THREADS = 2;
+
+    //Holds the pool PDF pages and layout labels are rendered on, shared by all printers
+    private final ExecutorService pdfRenderPool = Executors.newFixedThreadPool(PDF_RENDER_THREADS);
+
+    //Holds the PDF render pipeline feeding the printers
+    private final PdfPagePipeline pdfPipeline = new PdfPagePipeline(pdfRenderPool, PDF_RENDER_THREADS);
+
+    //Holds the images being received in chunks through beginImage/appendImageChunk/commitImage
+    private ImageUploadStore uploadStore;
+
+    //Holds the USB attached printer and the permission to use it
+    private UsbPrinterManager usbPrinters;
+
+    //Holds the printer command templates registered through registerTemplate
+    private PrnTemplateStore templateStore;
+
+    //Holds the label layouts registered through registerLayout
+    private LabelLayoutStore layoutStore;
+
+    //Holds the renderers of the layouts, with their static layers drawn
+    private final LabelRenderer.Pool layoutRenderers = new LabelRenderer.Pool();
+
+    //Holds the jobs submitted with "spool:true" until they have printed, across restarts
+    private PrintSpool spool;
+
+    //Holds the callback the outcome of spooled jobs is pushed to, set by watchSpool
+    private volatile CallbackContext spoolWatcher;
+
     /**
      * entry point to the plugin from the cordova context
      *
@@ -97,54 +169,433 @@ public class BrotherPrinter extends CordovaPlugin {
             return true;
         }
 
+        if ("reprint".equals(action)) {
+            reprint(args, callbackContext);
+            return true;
+        }
+
         if ("printPdf".equals(action)) {
             printPdf(args, callbackContext);
             return true;
         }
 
+        if ("printBatch".equals(action)) {
+            printBatch(args, callbackContext);
+            return true;
+        }
+
+        if ("beginImage".equals(action)) {
+            beginImage(args, callbackContext);
+            return true;
+        }
+
+        if ("appendImageChunk".equals(action)) {
+            appendImageChunk(args, callbackContext);
+            return true;
+        }
+
+        if ("commitImage".equals(action)) {
+            commitImage(args, callbackContext);
+            return true;
+        }
+
+        if ("abortImage".equals(action)) {
+            uploadStore.abort(args.optString(0, null));
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, "image aborted"));
+            return true;
+        }
+
         if ("sendUSBConfig".equals(action)) {
             sendUSBConfig(args, callbackContext);
             return true;
         }
 
+        if ("sendRawCommands".equals(action)) {
+            sendRawCommands(args, callbackContext);
+            return true;
+        }
+
+        if ("registerTemplate".equals(action)) {
+            registerTemplate(args, callbackContext);
+            return true;
+        }
+
+        if ("printTemplate".equals(action)) {
+            printTemplate(args, callbackContext);
+            return true;
+        }
+
+        if ("removeTemplate".equals(action)) {
+            boolean removed = templateStore.remove(args.optString(0, null));
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, removed));
+            return true;
+        }
+
+        if ("registerLayout".equals(action)) {
+            registerLayout(args, callbackContext);
+            return true;
+        }
+
+        if ("printLayout".equals(action)) {
+            printLayout(args, callbackContext);
+            return true;
+        }
+
+        if ("removeLayout".equals(action)) {
+            String name = args.optString(0, null);
+            boolean removed = layoutStore.remove(name);
+            layoutRenderers.remove(name);
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, removed));
+            return true;
+        }
+
+        if ("cancelJob".equals(action)) {
+            String id = args.optString(0, null);
+            boolean cancelled = jobTracker.cancel(id);
+            //a spooled job waiting for its printer is not tracked until it is queued again
+            PrintSpool.Entry removed = id == null ? null : spool.remove(id);
+            if( removed != null ){
+                rasterCache.unpin(removed.cacheKey);
+                cancelled = true;
+            }
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, cancelled));
+            return true;
+        }
+
+        if ("watchSpool".equals(action)) {
+            spoolWatcher = callbackContext;
+            PluginResult result = new PluginResult(PluginResult.Status.OK, spool.getStats());
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+            return true;
+        }
+
+        if ("getSpoolStats".equals(action)) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, spool.getStats()));
+            return true;
+        }
+
+        if ("getJobStats".equals(action)) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, jobTracker.getStats()));
+            return true;
+        }
+
+        if ("getMetrics".equals(action)) {
+            getMetrics(args, callbackContext);
+            return true;
+        }
+
+        if ("registerPrinterGroup".equals(action)) {
+            registerPrinterGroup(args, callbackContext);
+            return true;
+        }
+
+        if ("removePrinterGroup".equals(action)) {
+            boolean removed = printerGroups.remove(args.optString(0, null));
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, removed));
+            return true;
+        }
+
+        if ("getPrinterGroupStats".equals(action)) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, printerGroups.getStats()));
+            return true;
+        }
+
+        if ("watchPrinterStatus".equals(action)) {
+            watchPrinterStatus(args, callbackContext);
+            return true;
+        }
+
+        if ("getPrinterStatus".equals(action)) {
+            getPrinterStatus(args, callbackContext);
+            return true;
+        }
+
+        if ("getQueueStatus".equals(action)) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, scheduler.getStatus()));
+            return true;
+        }
+
+        if ("getImageCacheStats".equals(action)) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, rasterCache.getStats()));
+            return true;
+        }
+
+        if ("getSessionPoolStats".equals(action)) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, sessionPool.getStats()));
+            return true;
+        }
+
         return false;
     }
 
     /**
-     *  utility method used to process printer search using @link #modelNames provided
+     *  sets up the plugin state that depends on the cordova context
+     */
+    @Override
+    protected void pluginInitialize() {
+        Context context = cordova.getActivity().getApplicationContext();
+        File cacheDir = context.getCacheDir();
+
+        registry = new PrinterRegistry(new File(context.getFilesDir(), "brother-printers.json"), new PrinterRegistry.Source() {
+            public Map<String,Map<String,String>> printers() {
+                return discoveredNetworkPrinters;
+            }
+
+            public String selectedSerial() {
+                Map<String,String> printer = selectedPrinter.get();
+                return printer == null ? null : printer.get("serNo");
+            }
+        });
+        spool = new PrintSpool(new File(context.getFilesDir(), "brother-spool"));
+        discovery.setOnSweepComplete(new Runnable() {
+            public void run() {
+                registry.saveAsync();
+                //printers found again (or at a new address) take the jobs spooled for them
+                spool.replay(null);
+            }
+        });
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try{
+                    PrinterRegistry.Snapshot snapshot = registry.load(Arrays.toString(PS_QL));
+                    discovery.restore(snapshot.printers);
+                    if( snapshot.selectedSerial != null ){
+                        //a printer selected while the registry was loading takes precedence
+                        selectedPrinter.compareAndSet(null, discoveredNetworkPrinters.get(snapshot.selectedSerial));
+                    }
+                }finally{
+                    registryLoaded.countDown();
+                }
+                if( discoveredNetworkPrinters.size() > 0 ){
+                    //confirm the restored addresses are still current, without holding up the first print
+                    discovery.refreshAsync();
+                    discovery.startBackgroundRefresh();
+                }
+            }
+        });
+
+        jobTracker.setListener(new PrintJobTracker.Listener() {
+            public void onFinished(PrintJob job, PrinterStatus status) {
+                printerGroups.onFinished(job, status);
+                if( !job.isCancelled() ){
+                    statusMonitor.record(job.config, status);
+                }
+            }
+        });
+        statusMonitor.setListener(new PrinterStatusMonitor.Listener() {
+            public void onStatusChanged(PrinterStatusMonitor.Snapshot snapshot) {
+                printerGroups.onStatus(snapshot.key, snapshot.status, snapshot.ready);
+                if( snapshot.ready ){
+                    spool.onAvailable(snapshot.key);
+                }
+                CallbackContext watcher = statusWatcher;
+                if( watcher != null ){
+                    try{
+                        PluginResult result = new PluginResult(PluginResult.Status.OK, snapshot.toJSON());
+                        result.setKeepCallback(true);
+                        watcher.sendPluginResult(result);
+                    }catch(JSONException e){
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+
+        uploadStore = new ImageUploadStore(new File(cacheDir, "brother-uploads"));
+        //labels waiting in the spool are kept with the journal, the system may clear the cache dir at any time
+        rasterCache = new RasterCache(new File(cacheDir, "brother-rasters"), new File(context.getFilesDir(), "brother-spool-rasters"));
+        bitmapProcessor = new LabelBitmapProcessor(rasterCache);
+        templateStore = new PrnTemplateStore(new File(context.getFilesDir(), "brother-templates"));
+
+        spool.setReplayer(new PrintSpool.Replayer() {
+            public boolean replay(PrintSpool.Entry entry) {
+                return replaySpooled(entry);
+            }
+        });
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                //the spooled jobs need the printers restored to find their printer
+                awaitRegistry();
+                try{
+                    for( PrintSpool.Entry entry : spool.load() ){
+                        rasterCache.pin(entry.cacheKey);
+                    }
+                    rasterCache.dropUnpinned();
+                }catch(IOException e){
+                    Log.d(TAG, "could not read the print spool: " + e.toString());
+                }
+                spool.start();
+                spool.replay(null);
+            }
+        });
+        layoutStore = new LabelLayoutStore(new File(context.getFilesDir(), "brother-layouts"));
+
+        usbPrinters = new UsbPrinterManager(context);
+        usbPrinters.setOnDetached(new Runnable() {
+            public void run() {
+                sessionPool.invalidate(PrintJobConfig.USB_PRINTER);
+            }
+        });
+        sessionPool.setUsbManager(usbPrinters.getUsbManager());
+    }
+
+    /**
+     *  releases the printer sessions held by the plugin when the hosting activity goes away
+     */
+    @Override
+    public void onDestroy() {
+        jobTracker.shutdown();
+        statusMonitor.shutdown();
+        spool.shutdown();
+        metrics.shutdown();
+        scheduler.shutdown();
+        discovery.shutdown();
+        registry.shutdown();
+        usbPrinters.shutdown();
+        pdfRenderPool.shutdownNow();
+        sessionPool.clear();
+        uploadStore.clear();
+        rasterCache.clearMemory();
+        layoutRenderers.clear();
+        super.onDestroy();
+    }
+
+    /**
+     *  queues a print job behind any other work for the same printer
+     *
+     *  jobs for the USB printer are queued once permission to use it has been granted, which may happen after this method returns;
+     *  jobs for a network printer last seen not ready (out of paper, cover open, other paper loaded...) are rejected
+     *  unless they carry "preflight:false"
+     *
+     *  @param handle the handle of the job, finished here if the job is rejected
+     *  @param description a short description of the job, reported by getQueueStatus
+     *  @param callbackctx the context through which a full queue (or missing USB permission) is reported
+     *  @param task the work to run, which must finish the handle
+     */
+    private void schedule(PrintJob handle, String description, CallbackContext callbackctx, Runnable task) {
+        schedule(handle, description, callbackctx, task, null);
+    }
+
+    /**
+     *  @param onRejected run if the job will not be run, e.g. to release resources handed to the task
+     */
+    private void schedule(final PrintJob handle, final String description, final CallbackContext callbackctx,
+                          final Runnable work, final Runnable onRejected) {
+        final Runnable task = new Runnable() {
+            public void run() {
+                if( PrinterGroups.isGrouped(handle.config) && moved(handle, description, this) ){
+                    return;
+                }
+                handle.started();
+                work.run();
+            }
+        };
+        final Runnable rejected = new Runnable() {
+            public void run() {
+                handle.finish(null);
+                if( onRejected != null ){
+                    onRejected.run();
+                }
+            }
+        };
+        if( !handle.config.usb ){
+            String blocked = "false".equals(handle.config.options.get("preflight")) ? null : statusMonitor.preflight(handle.config);
+            if( blocked != null ){
+                callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Printer " + handle.config.key() + " is not ready ("
+                                                + blocked + "). Pass preflight:false to print anyway."));
+                rejected.run();
+                return;
+            }
+            if( !schedule(handle.config.key(), description, callbackctx, task) ){
+                rejected.run();
+            }
+            return;
+        }
+        usbPrinters.requestAccess(new UsbPrinterManager.AccessCallback() {
+            public void onGranted() {
+                if( !schedule(handle.config.key(), description, callbackctx, task) ){
+                    rejected.run();
+                }
+            }
+
+            public void onDenied(String message) {
+                callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+                rejected.run();
+            }
+        });
+    }
+
+    /**
+     *  moves a job sent to a printer group off its printer if the printer failed while the job was queued
      *
-     *  @return an array of printers that were found
+     *  @param task the queued task of the job, submitted again to the new printer
+     *  @return true if the job moved, false if it runs on its current printer
      */
-    private NetPrinter[] enumerateNetPrinters() {
-        Printer myPrinter = new Printer();
-        PrinterInfo myPrinterInfo = new PrinterInfo();
-        NetPrinter[] _netPrinters = myPrinter.getNetPrinters(modelNames);
-        return _netPrinters;
+    private boolean moved(PrintJob handle, String description, Runnable task) {
+        PrintJobConfig from = handle.config;
+        PrintJobConfig to = printerGroups.reroute(handle);
+        if( to == null ){
+            return false;
+        }
+        handle.retarget(to);
+        if( scheduler.submit(to.key(), description, task) == null ){
+            handle.retarget(from);
+            return false;
+        }
+        printerGroups.onMoved(from, to);
+        return true;
+    }
+
+    private boolean schedule(String printerKey, String description, CallbackContext callbackctx, Runnable task) {
+        if( scheduler.submit(printerKey, description, task) == null ){
+            PluginResult result;
+            result = new PluginResult(PluginResult.Status.ERROR, "Print queue for printer " + printerKey + " is full ("
+                                        + scheduler.getMaxQueueDepth() + " jobs pending). Try again once jobs complete.");
+            callbackctx.sendPluginResult(result);
+            return false;
+        }
+        return true;
     }
 
     /**
      *  uses the provided serial number to set the session printer from list of NetPrinter objects discovered
      *
-     *  @param args JSONArray containing the serial number of the printer to select
+     *  @param args JSONArray containing the serial number of the printer to select, optionally followed by the paper it prints on by default
      *  @param callbackctx the context provided by the method invoking this request
      *
      */
     private void setSessionPrinter(final JSONArray args, final CallbackContext callbackctx){
 
         final String serialnumber = args.optString(0,null);
+        final String paperName = args.optString(1,null);
+
+        if( paperName != null && !Arrays.asList(PS_QL).contains(paperName) ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Unknown paper " + paperName + "."));
+            return;
+        }
 
-        if( serialnumber != null && discoveredNetworkPrinters != null ){
+        awaitRegistry();
+
+        Map<String,String> printer = null;
+        if( serialnumber != null ){
             //check for printer serial number in the list of found printers
-            this.selectedPrinter = discoveredNetworkPrinters.get(serialnumber);
+            printer = discoveredNetworkPrinters.get(serialnumber);
+            if( printer != null && paperName != null ){
+                printer = discovery.update(serialnumber, "paperName", paperName);
+            }
+            this.selectedPrinter.set(printer);
+            registry.saveAsync();
         }
 
+        final boolean found = printer != null;
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
                 try{
                     PluginResult result;
-                    if( selectedPrinter == null ){
+                    if( !found ){
                         String message = "No printers found with the serial number provided.";
-                        if( discoveredNetworkPrinters == null || discoveredNetworkPrinters.size() == 0 ){
+                        if( discoveredNetworkPrinters.size() == 0 ){
                             message = "No printers were discovered with findNetworkPrinters() method.";
                         }
                         result = new PluginResult(PluginResult.Status.ERROR, message);
@@ -164,55 +615,56 @@ public class BrotherPrinter extends CordovaPlugin {
     /**
      * searches the network for a printer matching those deemed valid for the plugin (contained in {@link #modelNames})
      *
+     * printers found by earlier searches are returned straight away while they are within their TTL (and refreshed
+     * in the background); pass {"refresh": true} to wait for a new search, or {"incremental": true} to receive the
+     * cached printers first and an update every time another printer is found
+     *
+     * @param args JSONArray containing an optional options object
      * @param callbackctx the context provided by the method invoking this request
      */
     private void findNetworkPrinters(final JSONArray args, final CallbackContext callbackctx) {
 
-        cordova.getThreadPool().execute(new Runnable() {
-            public void run() {
-                try{
-
-                    NetPrinter[] _netPrinters = enumerateNetPrinters();
-                    int totalPrinters = 0;
-
-                    if( _netPrinters != null && _netPrinters.length > 0 ){
+        JSONObject options = args.optJSONObject(0);
+        final boolean incremental = options != null && options.optBoolean("incremental", false);
+        boolean refresh = options != null && options.optBoolean("refresh", false);
 
-                        Log.d(TAG, "---- network printers found! ----");
+        discovery.startBackgroundRefresh();
 
-                        totalPrinters = _netPrinters.length;
-                        discoveredNetworkPrinters = new HashMap<String,Map<String,String>>();
-                        ArrayList<NetPrinter> netPrintersList = new ArrayList<NetPrinter>(Arrays.asList(_netPrinters));
-                        for( NetPrinter np : netPrintersList ){
+        Map<String,Map<String,String>> cached = discovery.freshPrinters();
+        if( !refresh && !incremental && cached.size() > 0 ){
+            if( !discovery.isRecent() ){
+                discovery.refreshAsync();
+            }
+            sendPrinters(callbackctx, cached, false);
+            return;
+        }
 
-                            Map<String,String> _printer = new HashMap<String,String>();
-                            _printer.put("ipAddress", np.ipAddress);
-                            _printer.put("macAddress", np.macAddress);
-                            _printer.put("serNo", np.serNo);
-                            _printer.put("nodeName", np.nodeName);
-                            _printer.put("paperName","W62H100");
-                            _printer.put("paperNameArray",Arrays.toString(PS_QL));
-                            discoveredNetworkPrinters.put(np.serNo,_printer);
+        if( incremental ){
+            sendPrinters(callbackctx, cached, true);
+        }
 
-                            Log.d(TAG, "model:  " + np.modelName
-                                        + "\n ip:     " + np.ipAddress
-                                        + "\n mac:    " + np.macAddress
-                                        + "\n serial: " + np.serNo
-                                        + "\n name:   " + np.nodeName
-                            );
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try{
 
+                    PrinterDiscovery.Listener listener = null;
+                    if( incremental ){
+                        listener = new PrinterDiscovery.Listener() {
+                            public void onPrinterFound(Map<String,String> printer) {
+                                sendPrinters(callbackctx, discovery.freshPrinters(), true);
+                            }
                         };
-
-                        Log.d(TAG, "---- /network printers found! ----");
                     }
-                    else{
+
+                    discovery.sweep(listener);
+
+                    Map<String,Map<String,String>> found = discovery.freshPrinters();
+                    if( found.size() == 0 ){
                         //no network printers could be found based upon the modelNames search parameter supplied
                         Log.d(TAG, "!!!! No compatible network printers found !!!!");
                     }
 
-                    args.put(totalPrinters);
-                    args.put((new JSONObject(discoveredNetworkPrinters)).toString());
-                    PluginResult result = new PluginResult(PluginResult.Status.OK, args);
-                    callbackctx.sendPluginResult(result);
+                    sendPrinters(callbackctx, found, false);
 
                 }catch(Exception e){
                     e.printStackTrace();
@@ -224,6 +676,22 @@ public class BrotherPrinter extends CordovaPlugin {
 
     }
 
+    /**
+     *  sends a list of printers in the format returned by findNetworkPrinters: the number of printers, followed by the printers as a JSON string
+     *
+     *  @param callbackctx the context of the findNetworkPrinters request
+     *  @param printers the printers keyed by serial number
+     *  @param keepCallback true if more results will follow
+     */
+    private static void sendPrinters(CallbackContext callbackctx, Map<String,Map<String,String>> printers, boolean keepCallback) {
+        JSONArray response = new JSONArray();
+        response.put(printers.size());
+        response.put((new JSONObject(printers)).toString());
+        PluginResult result = new PluginResult(PluginResult.Status.OK, response);
+        result.setKeepCallback(keepCallback);
+        callbackctx.sendPluginResult(result);
+    }
+
     /**
      *  utility method to create a bitmap from a base64 string
      *
@@ -242,83 +710,239 @@ public class BrotherPrinter extends CordovaPlugin {
     }
 
     /**
-     *  prints a PDF using a file path provided and defined printer
+     *  waits (briefly) for the persisted printers to be restored, so the first request after launch can use them
+     */
+    private void awaitRegistry() {
+        try{
+            if( !registryLoaded.await(REGISTRY_LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS) ){
+                Log.d(TAG, "printer registry not restored yet, continuing without it");
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     *  records the outcome of a print job against its printer: successful jobs persist the paper and time of use,
+     *  unreachable printers are looked up again in the background in case their address has changed
      *
-     *  @param args JSONArray containing the filepath string and printer object to use
-     *  @param callbackctx the context provided by the method invoking this request
+     *  @param job the configuration the job printed with
+     *  @param status the final status of the job
      */
-    private void printPdf(final JSONArray args, final CallbackContext callbackctx) {
+    private void onJobFinished(PrintJobConfig job, PrinterStatus status) {
+        if( job.usb ){
+            return;
+        }
+        if( status.errorCode == ErrorCode.ERROR_NONE ){
+            Map<String,String> used = new HashMap<String,String>();
+            used.put("lastUsed", String.valueOf(System.currentTimeMillis()));
+            used.put("lastPaper", job.paperName);
+            if( discovery.update(job.serial, used) != null ){
+                registry.saveAsync();
+            }
+        }
+        else if( isUnreachable(status.errorCode) ){
+            Log.d(TAG, "printer " + job.serial + " unreachable at " + job.ipAddress + ", searching again");
+            sessionPool.invalidate(job.key());
+            discovery.refreshAsync();
+        }
+    }
 
-        final String filepath = args.optString(0,null);
-        final String param1 = args.optString(1,null);
-        final String param2 = args.optString(2,null);
+    /**
+     *  @return true for the errors raised when the printer could not be reached at its address
+     */
+    private static boolean isUnreachable(ErrorCode errorCode) {
+        return errorCode == ErrorCode.ERROR_COMMUNICATION_ERROR
+                || errorCode == ErrorCode.ERROR_BROTHER_PRINTER_NOT_FOUND
+                || errorCode == ErrorCode.ERROR_CREATE_SOCKET_FAILED
+                || errorCode == ErrorCode.ERROR_CONNECT_SOCKET_FAILED
+                || errorCode == ErrorCode.ERROR_NOT_MATCH_ADDRESS;
+    }
 
-        if( param1 != null && param1.startsWith("printer")
-                                    && discoveredNetworkPrinters != null ){
-            //check for printer serial number in the list of found printers
-            //this assumes the user is overriding any prior session printer that may have been selected
-            this.selectedPrinter = discoveredNetworkPrinters.get(param1.split(":")[1].trim());
+    /**
+     *  collects the optional "name:value" arguments of a print request (e.g. "printer:serial", "paper:W62")
+     *
+     *  @param args JSONArray holding the request arguments
+     *  @param from the index of the first optional argument
+     *  @return the option values keyed by their name
+     */
+    private static Map<String,String> parseOptions(JSONArray args, int from) {
+        Map<String,String> options = new HashMap<String,String>();
+        for( int i = from; i < args.length(); i++ ){
+            String option = args.optString(i, null);
+            if( option != null && option.indexOf(':') > 0 ){
+                String[] parts = option.split(":", 2);
+                options.put(parts[0].trim(), parts[1].trim());
+            }
         }
+        return options;
+    }
 
-        //user may have supplied a paper name manually
-        if( param1 != null && param1.startsWith("paper") ){
-            this.selectedPrinter.put("paperName",param1.split(":")[1].trim());
+    /**
+     *  checks the options of a print request that are only read once the job runs
+     *
+     *  @param options the options of the request
+     *  @return a description of the first invalid option, or null if they are all valid
+     */
+    private static String checkOptions(Map<String,String> options) {
+        try{
+            LabelBitmapProcessor.Options.from(null, options);
+            PrintJobTracker.retriesOf(options);
+            PrintJobTracker.timeoutOf(options);
+        }catch(IllegalArgumentException e){
+            return e.getMessage();
         }
-        else if( param2 != null ){
-            this.selectedPrinter.put("paperName",param2.split(":")[1].trim());
+        String lookahead = options.get("lookahead");
+        if( lookahead != null && parseCount(lookahead) < 1 ){
+            return "Invalid lookahead " + lookahead + ", expected a number of pages of 1 or more.";
         }
+        String port = options.get("port");
+        if( port != null && (parseCount(port) < 1 || parseCount(port) > 65535) ){
+            return "Invalid port " + port + ", expected a port number from 1 to 65535.";
+        }
+        return null;
+    }
 
-        if(this.selectedPrinter == null){
-            PluginResult result;
-            result = new PluginResult(PluginResult.Status.ERROR, "No printers have been selected. You must first run findNetworkPrinters() to search the network.");
-            callbackctx.sendPluginResult(result);
+    /**
+     *  @param value an option value
+     *  @return the value as a whole number, or -1 if it is not a whole number of 0 or more
+     */
+    private static long parseCount(String value) {
+        try{
+            return Math.max(-1, Long.parseLong(value.trim()));
+        }catch(NumberFormatException e){
+            return -1;
         }
+    }
 
-        cordova.getThreadPool().execute(new Runnable() {
-            public void run() {
-                try{
+    /**
+     *  captures the configuration of a print job from the session printer and the optional "printer:" and "paper:" arguments
+     *
+     *  a "group:" argument sends the job to the least loaded printer of a printer group instead, see {@link PrinterGroups}
+     *
+     *  the paper only applies to this job, the session printer keeps its own paper; "printer:usb" targets the
+     *  USB attached printer without changing the session printer
+     *
+     *  @param options the options of the request, as returned by {@link #parseOptions(JSONArray, int)}
+     *  @param callbackctx the context through which a missing printer or an invalid option is reported
+     *  @return the configuration of the job, or null if no printer has been selected or an option is invalid (the error
+     *          has then been reported)
+     */
+    private PrintJobConfig resolveJob(Map<String,String> options, CallbackContext callbackctx) {
+
+        //checked here, on the bridge thread, so a bad value is reported rather than failing the job on its worker
+        String invalid = checkOptions(options);
+        if( invalid != null ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, invalid));
+            return null;
+        }
 
-                    Printer myPrinter = new Printer();
+        if( PrintJobConfig.USB_PRINTER.equals(options.get("printer")) ){
+            return PrintJobConfig.usb(PrinterDiscovery.DEFAULT_PAPER, options);
+        }
 
-                    PrinterInfo myPrinterInfo = myPrinter.getPrinterInfo();
+        awaitRegistry();
 
-                    myPrinterInfo.printerModel  = PrinterInfo.Model.QL_720NW;
-                    myPrinterInfo.port          = PrinterInfo.Port.NET;
-                    myPrinterInfo.printMode     = PrinterInfo.PrintMode.ORIGINAL;
-                    myPrinterInfo.orientation   = PrinterInfo.Orientation.PORTRAIT;
-                    myPrinterInfo.paperSize     = PrinterInfo.PaperSize.CUSTOM;
-                    myPrinterInfo.ipAddress     = selectedPrinter.get("ipAddress");
-                    myPrinterInfo.macAddress    = selectedPrinter.get("macAddress");
-                    myPrinterInfo.isAutoCut     = true;
-                    myPrinterInfo.isCutAtEnd    = true;
+        if( options.get("group") != null ){
+            PrintJobConfig job = printerGroups.dispatch(options.get("group"), options);
+            if( job == null ){
+                callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "No printer of group " + options.get("group")
+                                                + " is available. Register the group with registerPrinterGroup() after findNetworkPrinters()."));
+            }
+            return job;
+        }
 
-                    myPrinterInfo.labelNameIndex = LabelInfo.QL700.valueOf(selectedPrinter.get("paperName")).ordinal();
+        if( options.get("printer") != null ){
+            //check for printer serial number in the list of found printers
+            //this assumes the user is overriding any prior session printer that may have been selected
+            this.selectedPrinter.set(discoveredNetworkPrinters.get(options.get("printer")));
+        }
 
-                    myPrinter.setPrinterInfo(myPrinterInfo);
+        Map<String,String> printer = this.selectedPrinter.get();
+        if( printer == null ){
+            PluginResult result;
+            result = new PluginResult(PluginResult.Status.ERROR, "No printers have been selected. You must first run findNetworkPrinters() to search the network.");
+            callbackctx.sendPluginResult(result);
+            return null;
+        }
 
-                    PrinterStatus status = new PrinterStatus();
+        //discovery replaces the entry of a printer when its address changes, print to the latest one
+        Map<String,String> latest = printer.get("serNo") == null ? null : discoveredNetworkPrinters.get(printer.get("serNo"));
 
-                    //get the total number of pages in the PDF
-                    int totalpages = 0;
-                    if (Build.VERSION.SDK_INT < 21) {
-                        totalpages = myPrinter.getPDFPages(filepath);
-                    } else {
-                        totalpages = myPrinter.getPDFFilePages(filepath);
-                    }
+        return PrintJobConfig.of(latest != null ? latest : printer, options);
+    }
 
-                    for (int i = 0; i < totalpages; i++) {
-                        if (Build.VERSION.SDK_INT < 21) {
-                            status = myPrinter.printPDF(filepath, i+1);
-                        } else {
-                            status = myPrinter.printPdfFile(filepath, i+1);
-                        }
-                        if (status.errorCode != ErrorCode.ERROR_NONE) {
-                            break;
-                        }
+    /**
+     *  decodes a base64 image and prepares it for the paper it prints on
+     *
+     *  the returned bitmap may be shared with the raster cache, callers must not recycle it
+     *
+     *  @param base64 the encoded image
+     *  @param job the configuration of the job, "dither:none" skips the conversion (and the cache)
+     *  @param handle the handle the decoding and conversion times are recorded on
+     *  @return the image to print, or null if the image could not be decoded
+     */
+    private LabelBitmapProcessor.Prepared prepareImage(String base64, PrintJobConfig job, PrintJob handle) {
+        if( base64 == null ){
+            return null;
+        }
+        try{
+            long start = System.nanoTime();
+            byte[] bytes = Base64.decode(base64, Base64.DEFAULT);
+            LabelBitmapProcessor.Options processing = LabelBitmapProcessor.Options.from(job.paperName, job.options);
+            if( processing == null ){
+                Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+                handle.record(PrintMetrics.Phase.DECODE, System.nanoTime() - start);
+                return bitmap == null ? null : new LabelBitmapProcessor.Prepared(bitmap, null);
+            }
+            long decoded = System.nanoTime();
+            LabelBitmapProcessor.Prepared prepared = bitmapProcessor.prepare(bytes, processing, job.modelName);
+            if( prepared != null ){
+                handle.record(PrintMetrics.Phase.DECODE, decoded - start + prepared.decodeNanos);
+                if( prepared.convertNanos > 0 ){
+                    handle.record(PrintMetrics.Phase.PREPROCESS, prepared.convertNanos);
+                }
+            }
+            return prepared;
+        }catch(Exception e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     *  prints a PDF using a file path provided and defined printer
+     *
+     *  @param args JSONArray containing the filepath string and printer object to use
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void printPdf(final JSONArray args, final CallbackContext callbackctx) {
+
+        final String filepath = args.optString(0,null);
+
+        PrintJobConfig requested = resolveJob(parseOptions(args, 1), callbackctx);
+        if( requested == null ){
+            return;
+        }
+        final PrintJob handle = jobTracker.create(requested);
+
+        schedule(handle, "printPdf " + filepath, callbackctx, new Runnable() {
+            public void run() {
+                final PrintJobConfig job = handle.config;
+                PrinterStatus status = null;
+                try{
+
+                    if( Build.VERSION.SDK_INT >= 21 && !"sdk".equals(job.options.get("render")) ){
+                        status = printPdfPipelined(handle, filepath, callbackctx);
+                    }
+                    if( status == null ){
+                        status = printPdfWithSdk(handle, filepath, callbackctx);
                     }
 
+                    onJobFinished(job, status);
+
                     //converting the enum ErrorCode object to a string for debugging
-                    String status_code = ""+status.errorCode;
+                    String status_code = handle.describe(status);
 
                     Log.d(TAG, "PrinterStatus: "+status_code);
 
@@ -328,11 +952,144 @@ public class BrotherPrinter extends CordovaPlugin {
 
                 }catch(Exception e){
                     e.printStackTrace();
+                }finally{
+                    handle.finish(status);
                 }
             }
         });
     }
 
+    /**
+     *  prints a PDF page by page, letting the SDK open and render every page
+     *
+     *  @param handle the handle of the job, every page is a separate attempt
+     *  @param filepath the path of the PDF
+     *  @param callbackctx the context page progress is reported through
+     *  @return the status of the last page printed
+     */
+    private PrinterStatus printPdfWithSdk(PrintJob handle, final String filepath, CallbackContext callbackctx) throws Exception {
+
+        PrinterStatus status = new PrinterStatus();
+
+        //get the total number of pages in the PDF
+        int totalpages = 0;
+        try{
+            handle.lockSdk();
+        }catch(CancellationException e){
+            status.errorCode = ErrorCode.ERROR_CANCEL;
+            return status;
+        }
+        try{
+            Printer myPrinter = handle.printer(handle.config);
+            if (Build.VERSION.SDK_INT < 21) {
+                totalpages = myPrinter.getPDFPages(filepath);
+            } else {
+                totalpages = myPrinter.getPDFFilePages(filepath);
+            }
+        }finally{
+            handle.unlockSdk();
+        }
+
+        for (int i = 0; i < totalpages; i++) {
+            final int page = i+1;
+            status = handle.attempt(new PrintJob.Attempt() {
+                public PrinterStatus run(PrintJob current) {
+                    current.lockSdk();
+                    try{
+                        Printer myPrinter = current.printer(current.config);
+                        if (Build.VERSION.SDK_INT < 21) {
+                            return myPrinter.printPDF(filepath, page);
+                        }
+                        return myPrinter.printPdfFile(filepath, page);
+                    }finally{
+                        current.unlockSdk();
+                    }
+                }
+            });
+            sendPageProgress(handle.config.options, callbackctx, i, totalpages, status);
+            if (status.errorCode != ErrorCode.ERROR_NONE) {
+                break;
+            }
+        }
+
+        return status;
+    }
+
+    /**
+     *  prints a PDF while the following pages are rendered to label images on the render pool
+     *
+     *  @param handle the handle of the job, every page is a separate attempt ("lookahead:n" sets the number of pages rendered ahead)
+     *  @param filepath the path of the PDF
+     *  @param callbackctx the context page progress is reported through
+     *  @return the status of the last page printed, or null if the PDF could not be opened for rendering
+     */
+    private PrinterStatus printPdfPipelined(final PrintJob handle, String filepath, final CallbackContext callbackctx) {
+
+        final PrinterStatus[] last = new PrinterStatus[1];
+        final Map<String,String> options = handle.config.options;
+        String paperName = handle.config.paperName;
+
+        final LabelBitmapProcessor.Options processing = LabelBitmapProcessor.Options.from(paperName, options);
+        PdfPagePipeline.PageConverter converter = processing == null ? null : new PdfPagePipeline.PageConverter() {
+            public Bitmap convert(Bitmap page) {
+                long start = System.nanoTime();
+                Bitmap converted = bitmapProcessor.convert(page, processing);
+                handle.record(PrintMetrics.Phase.PREPROCESS, System.nanoTime() - start);
+                return converted;
+            }
+        };
+
+        int lookahead = PdfPagePipeline.DEFAULT_LOOKAHEAD;
+        if( options.get("lookahead") != null ){
+            lookahead = (int) Math.min(Integer.MAX_VALUE, parseCount(options.get("lookahead")));
+        }
+
+        try{
+            pdfPipeline.run(new File(filepath), LabelPaper.printableDots(paperName), lookahead, converter, new PdfPagePipeline.PageSink() {
+                public boolean onPage(int pageIndex, int pageCount, final Bitmap page) throws Exception {
+                    last[0] = handle.attempt(new PrintJob.Attempt() {
+                        public PrinterStatus run(PrintJob current) {
+                            return printLabel(current, handle.config, page);
+                        }
+                    });
+                    sendPageProgress(options, callbackctx, pageIndex, pageCount, last[0]);
+                    return last[0].errorCode == ErrorCode.ERROR_NONE;
+                }
+            });
+        }catch(Exception e){
+            Log.d(TAG, "PDF rendering failed: " + e.toString());
+            if( last[0] == null ){
+                //nothing printed yet, the SDK path can still print the document
+                return null;
+            }
+            last[0].errorCode = ErrorCode.ERROR_INTERNAL_ERROR;
+        }
+
+        if( last[0] == null ){
+            //a PDF without pages
+            last[0] = new PrinterStatus();
+            last[0].errorCode = ErrorCode.ERROR_NONE;
+        }
+        return last[0];
+    }
+
+    /**
+     *  reports the status of a printed page when the request asked for progress ("progress:true")
+     */
+    private static void sendPageProgress(Map<String,String> options, CallbackContext callbackctx,
+                                         int pageIndex, int pageCount, PrinterStatus status) throws JSONException {
+        if( !"true".equals(options.get("progress")) ){
+            return;
+        }
+        JSONObject progress = new JSONObject();
+        progress.put("page", pageIndex + 1);
+        progress.put("total", pageCount);
+        progress.put("status", "" + status.errorCode);
+        PluginResult result = new PluginResult(PluginResult.Status.OK, progress);
+        result.setKeepCallback(true);
+        callbackctx.sendPluginResult(result);
+    }
+
     /**
      *  prints a BMP image using the base64 string representing the file contents
      *
@@ -342,174 +1099,1135 @@ public class BrotherPrinter extends CordovaPlugin {
      */
     private void printBitmapImage(final JSONArray args, final CallbackContext callbackctx) {
 
-        final Bitmap bitmap = bmpFromBase64(args.optString(0, null), callbackctx);
-        final String param1 = args.optString(1,null);
-        final String param2 = args.optString(2,null);
+        final String image = args.optString(0, null);
 
-        if( param1 != null && param1.startsWith("printer")
-                                    && discoveredNetworkPrinters != null ){
-            //check for printer serial number in the list of found printers
-            //this assumes the user is overriding any prior session printer that may have been selected
-            this.selectedPrinter = discoveredNetworkPrinters.get(param1.split(":")[1].trim());
+        PrintJobConfig requested = resolveJob(parseOptions(args, 1), callbackctx);
+        if( requested == null ){
+            return;
+        }
+        if( "true".equals(requested.options.get("spool")) ){
+            spoolImage(image, requested, callbackctx);
+            return;
         }
+        final PrintJob handle = jobTracker.create(requested);
+
+        schedule(handle, "printBitmapImage", callbackctx, new Runnable() {
+            public void run() {
+                final PrintJobConfig job = handle.config;
+                PrinterStatus status = null;
+                try{
+
+                    final LabelBitmapProcessor.Prepared prepared = handle.isCancelled() ? null : prepareImage(image, job, handle);
+
+                    if( prepared == null ){
+                        status = new PrinterStatus();
+                        status.errorCode = handle.isCancelled() ? ErrorCode.ERROR_CANCEL : ErrorCode.ERROR_FILE_NOT_SUPPORTED;
+                    }
+                    else{
+                        status = handle.attempt(new PrintJob.Attempt() {
+                            public PrinterStatus run(PrintJob current) {
+                                return printLabel(current, job, prepared.bitmap);
+                            }
+                        });
+                        onJobFinished(job, status);
+                    }
+
+                    //converting the enum ErrorCode object to a string for debugging
+                    String status_code = handle.describe(status);
+
+                    Log.d(TAG, "PrinterStatus: "+status_code);
+
+                    PluginResult result;
+                    if( "detailed".equals(job.options.get("result")) ){
+                        JSONObject response = new JSONObject();
+                        response.put("status", status_code);
+                        response.put("cacheKey", prepared == null ? null : prepared.cacheKey);
+                        response.put("job", handle.id);
+                        response.put("retries", handle.getRetries());
+                        result = new PluginResult(PluginResult.Status.OK, response);
+                    }
+                    else{
+                        result = new PluginResult(PluginResult.Status.OK, status_code);
+                    }
+                    callbackctx.sendPluginResult(result);
 
-        //user may have supplied a paper name manually
-        if( param1 != null && param1.startsWith("paper") ){
-            this.selectedPrinter.put("paperName",param1.split(":")[1].trim());
+                }catch(Exception e){
+                    e.printStackTrace();
+                }finally{
+                    handle.finish(status);
+                }
+            }
+        });
+    }
+
+
+    /**
+     *  converts a label image and adds it to the print spool, from which it is printed as soon as its printer
+     *  can take it; the callback is answered once the job is on disk, the outcome is pushed to watchSpool
+     *
+     *  @param base64 the encoded image
+     *  @param requested the configuration of the job; a job sent to a group is spooled for the group
+     *  @param callbackctx the context the spooled job is acknowledged through
+     */
+    private void spoolImage(final String base64, final PrintJobConfig requested, final CallbackContext callbackctx) {
+
+        if( requested.usb ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Jobs for the USB printer cannot be spooled."));
+            return;
         }
-        else if( param2 != null ){
-            this.selectedPrinter.put("paperName",param2.split(":")[1].trim());
+        final LabelBitmapProcessor.Options processing = LabelBitmapProcessor.Options.from(requested.paperName, requested.options);
+        if( processing == null ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Jobs with dither:none cannot be spooled."));
+            return;
         }
 
-        if(this.selectedPrinter == null){
-            PluginResult result;
-            result = new PluginResult(PluginResult.Status.ERROR, "No printers have been selected. You must first run findNetworkPrinters() to search the network.");
-            callbackctx.sendPluginResult(result);
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try{
+                    long start = System.nanoTime();
+                    byte[] bytes = base64 == null ? null : Base64.decode(base64, Base64.DEFAULT);
+                    LabelBitmapProcessor.Prepared prepared = bytes == null ? null : bitmapProcessor.prepare(bytes, processing, requested.modelName);
+                    if( prepared == null ){
+                        callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "The image could not be decoded."));
+                        return;
+                    }
+                    metrics.record(requested.key(), PrintMetrics.Phase.DECODE, System.nanoTime() - start);
+
+                    //pinned before it is written, so a job completing meanwhile cannot release the image
+                    rasterCache.pin(prepared.cacheKey);
+                    boolean added = false;
+                    try{
+                        if( !rasterCache.persist(prepared.cacheKey) ){
+                            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "The label could not be stored for spooling."));
+                            return;
+                        }
+
+                        String id = requested.options.get("job");
+                        if( id == null || id.length() == 0 ){
+                            id = "spool-" + System.currentTimeMillis() + "-" + prepared.cacheKey.substring(0, 8);
+                        }
+                        String printerKey = PrinterGroups.isGrouped(requested)
+                                                ? PrintSpool.GROUP_PREFIX + requested.options.get("group") : requested.key();
+
+                        added = spool.add(id, printerKey, prepared.cacheKey, requested.options);
+
+                        JSONObject response = new JSONObject();
+                        response.put("job", id);
+                        response.put("spooled", added);
+                        response.put("cacheKey", prepared.cacheKey);
+                        response.put("pending", spool.size());
+                        callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, response));
+
+                        if( added ){
+                            spool.replay(printerKey);
+                        }
+                    }finally{
+                        //the spool holds one pin per job it holds
+                        if( !added ){
+                            rasterCache.unpin(prepared.cacheKey);
+                        }
+                    }
+                }catch(IllegalStateException e){
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
+                }catch(IOException e){
+                    Log.d(TAG, "Temp file action failed: " + e.toString());
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Could not spool the job: " + e.getMessage()));
+                }catch(Exception e){
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     *  queues a spooled job on its printer, or the least loaded printer of its group
+     *
+     *  the job leaves the spool once it printed or failed in a way printing it again would not fix; a printer
+     *  that cannot be reached or is not ready keeps it (and the other jobs for the printer) in the spool
+     *
+     *  @param entry the spooled job
+     *  @return false if the job cannot be queued now: its printer is not known (yet), was last seen not ready, or
+     *          its queue is full
+     */
+    private boolean replaySpooled(final PrintSpool.Entry entry) {
+        PrintJobConfig config;
+        if( entry.isGrouped() ){
+            config = printerGroups.dispatch(entry.options.get("group"), entry.options);
+        }
+        else{
+            Map<String,String> printer = discoveredNetworkPrinters.get(entry.printerKey);
+            config = printer == null ? null : PrintJobConfig.of(printer, entry.options);
+        }
+        if( config == null ){
+            return false;
+        }
+        if( !"false".equals(config.options.get("preflight")) && statusMonitor.preflight(config) != null ){
+            return false;
         }
 
-        cordova.getThreadPool().execute(new Runnable() {
+        final PrintJob handle = jobTracker.create(config);
+        Runnable task = new Runnable() {
             public void run() {
+                final PrintJobConfig job = handle.config;
+                PrinterStatus status = null;
                 try{
+                    if( !spool.shouldAttempt(entry) ){
+                        //another job found the printer unreachable while this one was queued
+                        spool.release(entry, false);
+                        return;
+                    }
+                    handle.started();
 
-                    Printer myPrinter = new Printer();
-                    PrinterInfo myPrinterInfo = new PrinterInfo();
+                    final Bitmap bitmap = rasterCache.get(entry.cacheKey);
+                    if( bitmap == null ){
+                        status = new PrinterStatus();
+                        status.errorCode = ErrorCode.ERROR_FILE_NOT_FOUND;
+                    }
+                    else{
+                        status = handle.attempt(new PrintJob.Attempt() {
+                            public PrinterStatus run(PrintJob current) {
+                                return printLabel(current, job, bitmap);
+                            }
+                        });
+                        onJobFinished(job, status);
+                    }
+
+                    String status_code = handle.describe(status);
+                    Log.d(TAG, "PrinterStatus (spooled " + entry.id + "): " + status_code);
+
+                    boolean unavailable = !handle.isCancelled()
+                                            && (isUnreachable(status.errorCode) || PrinterStatusMonitor.isNotReady(status.errorCode));
+                    if( unavailable ){
+                        spool.release(entry, true);
+                    }
+                    else if( spool.complete(entry.id) != null ){
+                        //not pending any more when the job was cancelled, its pin was released then
+                        rasterCache.unpin(entry.cacheKey);
+                    }
 
-                    myPrinterInfo = myPrinter.getPrinterInfo();
+                    CallbackContext watcher = spoolWatcher;
+                    if( watcher != null ){
+                        JSONObject outcome = new JSONObject();
+                        outcome.put("job", entry.id);
+                        outcome.put("printer", job.key());
+                        outcome.put("status", status_code);
+                        outcome.put("done", !unavailable);
+                        outcome.put("pending", spool.size());
+                        PluginResult result = new PluginResult(PluginResult.Status.OK, outcome);
+                        result.setKeepCallback(true);
+                        watcher.sendPluginResult(result);
+                    }
 
-                    myPrinterInfo.printerModel  = PrinterInfo.Model.QL_720NW;
-                    myPrinterInfo.port          = PrinterInfo.Port.NET;
-                    myPrinterInfo.printMode     = PrinterInfo.PrintMode.ORIGINAL;
-                    myPrinterInfo.orientation   = PrinterInfo.Orientation.PORTRAIT;
-                    myPrinterInfo.paperSize     = PrinterInfo.PaperSize.CUSTOM;
-                    myPrinterInfo.ipAddress     = selectedPrinter.get("ipAddress");
-                    myPrinterInfo.macAddress    = selectedPrinter.get("macAddress");
-                    myPrinterInfo.isAutoCut     = true;
-                    myPrinterInfo.isCutAtEnd    = true;
+                    if( !unavailable ){
+                        //tops the queue of the printer up with the next spooled jobs
+                        spool.replay(entry.printerKey);
+                    }
+                }catch(Exception e){
+                    e.printStackTrace();
+                    spool.release(entry, false);
+                }finally{
+                    handle.finish(status);
+                }
+            }
+        };
+        if( scheduler.submit(config.key(), "spooled " + entry.id, task) == null ){
+            handle.finish(null);
+            return false;
+        }
+        return true;
+    }
 
-                    //this may need to be parameterized via options arguments
-                    myPrinterInfo.labelNameIndex = LabelInfo.QL700.valueOf(selectedPrinter.get("paperName")).ordinal();
+    /**
+     *  prints a label image again from the raster cache, without the image being sent from JS
+     *
+     *  @param args JSONArray containing the cache key returned by a detailed print result, followed by the optional printer argument
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void reprint(final JSONArray args, final CallbackContext callbackctx) {
 
-                    myPrinter.setPrinterInfo(myPrinterInfo);
+        final String cacheKey = args.optString(0, null);
+        if( !RasterCache.isValidKey(cacheKey) ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Invalid cache key " + cacheKey + "."));
+            return;
+        }
+        if( !rasterCache.contains(cacheKey) ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "No cached label found for key " + cacheKey + "."));
+            return;
+        }
 
-                    PrinterStatus status = myPrinter.printImage(bitmap);
+        //the cached raster was prepared for a specific paper, print it on that paper
+        Map<String,String> options = parseOptions(args, 1);
+        options.put("paper", RasterCache.paperNameOf(cacheKey));
 
-                    //converting the enum ErrorCode object to a string for debugging
-                    String status_code = ""+status.errorCode;
+        PrintJobConfig requested = resolveJob(options, callbackctx);
+        if( requested == null ){
+            return;
+        }
+        final PrintJob handle = jobTracker.create(requested);
+
+        schedule(handle, "reprint " + cacheKey, callbackctx, new Runnable() {
+            public void run() {
+                final PrintJobConfig job = handle.config;
+                PrinterStatus status = null;
+                try{
+
+                    final Bitmap bitmap = rasterCache.get(cacheKey);
+
+                    if( bitmap == null ){
+                        status = new PrinterStatus();
+                        status.errorCode = ErrorCode.ERROR_FILE_NOT_FOUND;
+                    }
+                    else{
+                        status = handle.attempt(new PrintJob.Attempt() {
+                            public PrinterStatus run(PrintJob current) {
+                                return printLabel(current, job, bitmap);
+                            }
+                        });
+                        onJobFinished(job, status);
+                    }
+
+                    String status_code = handle.describe(status);
 
                     Log.d(TAG, "PrinterStatus: "+status_code);
 
-                    PluginResult result;
-                    result = new PluginResult(PluginResult.Status.OK, status_code);
-                    callbackctx.sendPluginResult(result);
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, status_code));
 
                 }catch(Exception e){
                     e.printStackTrace();
+                }finally{
+                    handle.finish(status);
                 }
             }
         });
     }
 
+    /**
+     *  prints a list of images and/or PDF pages over a single printer session, reporting progress per item
+     *
+     *  every item is a JSON object holding either an "image" (base64 bitmap) or a "file" (PDF path, with an
+     *  optional 1-based "page"), and optionally a "paper" name overriding the paper of the request
+     *
+     *  @param args JSONArray containing the array of items, followed by the optional printer and paper arguments
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void printBatch(final JSONArray args, final CallbackContext callbackctx) {
+
+        final JSONArray items = args.optJSONArray(0);
+
+        if( items == null || items.length() == 0 ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "No items were supplied to print."));
+            return;
+        }
+
+        PrintJobConfig requested = resolveJob(parseOptions(args, 1), callbackctx);
+        if( requested == null ){
+            return;
+        }
+        final PrintJob handle = jobTracker.create(requested);
+
+        schedule(handle, "printBatch (" + items.length() + " items)", callbackctx, new Runnable() {
+            public void run() {
+                final PrintJobConfig job = handle.config;
+                PrinterStatus status = new PrinterStatus();
+                status.errorCode = ErrorCode.ERROR_NONE;
+                int printed = 0;
+
+                //Holds the session the labels are sent over as one job; a retried item may move the batch to a new session
+                final PrinterSessionPool.Session[] communicating = new PrinterSessionPool.Session[1];
+
+                try{
+
+                    for( int i = 0; i < items.length(); i++ ){
+                        JSONObject item = items.getJSONObject(i);
+
+                        final PrintJobConfig itemJob = job.withPaper(item.optString("paper", null));
+
+                        if( item.has("file") ){
+                            final String filepath = item.getString("file");
+                            int page = item.optInt("page", 0);
+                            int first = page > 0 ? page : 1;
+                            int last = page;
+                            if( page <= 0 ){
+                                Printer myPrinter = batchPrinter(handle, itemJob, communicating);
+                                last = Build.VERSION.SDK_INT < 21 ? myPrinter.getPDFPages(filepath) : myPrinter.getPDFFilePages(filepath);
+                            }
+                            for( int p = first; p <= last && status.errorCode == ErrorCode.ERROR_NONE; p++ ){
+                                final int pageNo = p;
+                                status = handle.attempt(new PrintJob.Attempt() {
+                                    public PrinterStatus run(PrintJob current) {
+                                        Printer myPrinter = batchPrinter(current, itemJob, communicating);
+                                        if (Build.VERSION.SDK_INT < 21) {
+                                            return myPrinter.printPDF(filepath, pageNo);
+                                        }
+                                        return myPrinter.printPdfFile(filepath, pageNo);
+                                    }
+                                });
+                            }
+                        }
+                        else{
+                            final LabelBitmapProcessor.Prepared prepared = prepareImage(item.optString("image", null), itemJob, handle);
+                            if( prepared == null ){
+                                status = new PrinterStatus();
+                                status.errorCode = ErrorCode.ERROR_FILE_NOT_SUPPORTED;
+                            }
+                            else{
+                                status = handle.attempt(new PrintJob.Attempt() {
+                                    public PrinterStatus run(PrintJob current) {
+                                        if( isRasterEngine(itemJob) ){
+                                            return printLabel(current, itemJob, prepared.bitmap);
+                                        }
+                                        return batchPrinter(current, itemJob, communicating).printImage(prepared.bitmap);
+                                    }
+                                });
+                            }
+                        }
+
+                        Log.d(TAG, "PrinterStatus (item " + i + "): " + status.errorCode);
+
+                        JSONObject progress = new JSONObject();
+                        progress.put("index", i);
+                        progress.put("total", items.length());
+                        progress.put("status", handle.describe(status));
+                        progress.put("done", false);
+                        PluginResult result = new PluginResult(PluginResult.Status.OK, progress);
+                        result.setKeepCallback(true);
+                        callbackctx.sendPluginResult(result);
+
+                        if( status.errorCode != ErrorCode.ERROR_NONE ){
+                            break;
+                        }
+                        printed++;
+                    }
+
+                }catch(Exception e){
+                    e.printStackTrace();
+                    status.errorCode = handle.isCancelled() ? ErrorCode.ERROR_CANCEL : ErrorCode.ERROR_INTERNAL_ERROR;
+                }finally{
+                    //the session goes back to the pool, it must not be left communicating whatever stopped the batch
+                    endBatch(handle, communicating);
+                }
+
+                if( communicating[0] != null ){
+                    onJobFinished(job, status);
+                }
+
+                try{
+                    JSONObject summary = new JSONObject();
+                    summary.put("printed", printed);
+                    summary.put("total", items.length());
+                    summary.put("status", handle.describe(status));
+                    summary.put("done", true);
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, summary));
+                }catch(JSONException e){
+                    e.printStackTrace();
+                }finally{
+                    handle.finish(status);
+                }
+            }
+        });
+    }
+
+    /**
+     *  @return the printer of the session a batch is printed over, configured for the paper of the item and with
+     *          communication started; a new session (after a retry) takes over from the previous one. The SDK lock
+     *          is taken with the first item and held until {@link #endBatch(PrintJob, PrinterSessionPool.Session[])},
+     *          as the SDK keeps the connection in static state
+     */
+    private Printer batchPrinter(PrintJob handle, PrintJobConfig itemJob, PrinterSessionPool.Session[] communicating) {
+        if( !handle.holdsSdk() ){
+            handle.lockSdk();
+        }
+        handle.printer(itemJob);
+        PrinterSessionPool.Session session = handle.session();
+        if( session != communicating[0] ){
+            if( communicating[0] != null ){
+                communicating[0].printer.endCommunication();
+            }
+            //keeps the connection open so the labels go out as one job, cut according to isAutoCut/isCutAtEnd
+            session.printer.startCommunication();
+            communicating[0] = session;
+        }
+        return session.printer;
+    }
+
+    /**
+     *  ends the communication started by {@link #batchPrinter(PrintJob, PrintJobConfig, PrinterSessionPool.Session[])}
+     *  and releases the SDK lock held for the batch
+     */
+    private static void endBatch(PrintJob handle, PrinterSessionPool.Session[] communicating) {
+        if( !handle.holdsSdk() ){
+            return;
+        }
+        try{
+            if( communicating[0] != null ){
+                communicating[0].printer.endCommunication();
+            }
+        }finally{
+            handle.unlockSdk();
+        }
+    }
+
+    /**
+     *  @return true if the job asked for the built-in raster engine ("engine:raster") instead of the SDK
+     */
+    private static boolean isRasterEngine(PrintJobConfig job) {
+        return RASTER_ENGINE.equals(job.options.get("engine"));
+    }
+
+    /**
+     *  prints a label image with the engine selected for the job: the SDK's printImage by default, or the built-in
+     *  QL raster encoder ("engine:raster"), which streams the encoded label straight to the printer; "compress:false"
+     *  sends the raster lines uncompressed
+     *
+     *  @param current the job, whose session or connection is used
+     *  @param job the configuration the label prints with
+     *  @param bitmap the label image, converted to the printer colors
+     *  @return the status of the print
+     */
+    private PrinterStatus printLabel(PrintJob current, PrintJobConfig job, final Bitmap bitmap) {
+        if( !isRasterEngine(job) ){
+            current.lockSdk();
+            try{
+                return current.printer(job).printImage(bitmap);
+            }finally{
+                current.unlockSdk();
+            }
+        }
+        QlRasterEncoder encoder = new QlRasterEncoder(job.paperName, !"false".equals(job.options.get("compress")), true, true);
+        QlRasterEncoder.Page page = new QlRasterEncoder.Page() {
+            public int getWidth() {
+                return bitmap.getWidth();
+            }
+
+            public int getHeight() {
+                return bitmap.getHeight();
+            }
+
+            public void getRow(int y, int[] argb) {
+                bitmap.getPixels(argb, 0, bitmap.getWidth(), 0, y, bitmap.getWidth(), 1);
+            }
+        };
+        PrinterTransport transport = RawCommandSender.transportFor(job, cordova.getActivity().getApplicationContext().getCacheDir(), true);
+        return transport.send(encoder.payload(page), current);
+    }
+
+    /**
+     *  starts a chunked image upload, to be followed by appendImageChunk calls and a commitImage call
+     *
+     *  @param args JSONArray, not used
+     *  @param callbackctx the context provided by the method invoking this request, receives the upload id
+     */
+    private void beginImage(final JSONArray args, final CallbackContext callbackctx) {
+        try{
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, uploadStore.begin()));
+        }catch(IOException e){
+            Log.d(TAG, "Temp file action failed: " + e.toString());
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Could not start image upload: " + e.getMessage()));
+        }
+    }
+
+    /**
+     *  appends a piece of a base64 image to an upload started with beginImage
+     *
+     *  @param args JSONArray containing the upload id and the base64 chunk
+     *  @param callbackctx the context provided by the method invoking this request, receives the bytes received so far
+     */
+    private void appendImageChunk(final JSONArray args, final CallbackContext callbackctx) {
+        try{
+            long received = uploadStore.append(args.optString(0, null), args.optString(1, ""));
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, (int) received));
+        }catch(IOException e){
+            Log.d(TAG, "Temp file action failed: " + e.toString());
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Could not append image chunk: " + e.getMessage()));
+        }
+    }
+
+    /**
+     *  completes an upload started with beginImage and prints it
+     *
+     *  @param args JSONArray containing the upload id, followed by the optional printer and paper arguments
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void commitImage(final JSONArray args, final CallbackContext callbackctx) {
+
+        final ImageUploadStore.Upload upload;
+        try{
+            upload = uploadStore.commit(args.optString(0, null));
+        }catch(IOException e){
+            Log.d(TAG, "Temp file action failed: " + e.toString());
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Could not complete image upload: " + e.getMessage()));
+            return;
+        }
+
+        PrintJobConfig requested = resolveJob(parseOptions(args, 1), callbackctx);
+        if( requested == null ){
+            ImageUploadStore.discard(upload);
+            return;
+        }
+        final PrintJob handle = jobTracker.create(requested);
+
+        schedule(handle, "commitImage " + upload.id, callbackctx, new Runnable() {
+            public void run() {
+                final PrintJobConfig job = handle.config;
+                PrinterStatus status = null;
+                try{
+
+                    long start = System.nanoTime();
+                    Bitmap bitmap = handle.isCancelled() ? null : ImageUploadStore.decode(upload, LabelPaper.printableDots(job.paperName));
+                    if( bitmap != null ){
+                        handle.record(PrintMetrics.Phase.DECODE, System.nanoTime() - start);
+                    }
+
+                    LabelBitmapProcessor.Options processing = LabelBitmapProcessor.Options.from(job.paperName, job.options);
+                    if( bitmap != null && processing != null ){
+                        start = System.nanoTime();
+                        Bitmap converted = bitmapProcessor.convert(bitmap, processing);
+                        handle.record(PrintMetrics.Phase.PREPROCESS, System.nanoTime() - start);
+                        bitmap.recycle();
+                        bitmap = converted;
+                    }
+
+                    if( bitmap == null ){
+                        status = new PrinterStatus();
+                        status.errorCode = handle.isCancelled() ? ErrorCode.ERROR_CANCEL : ErrorCode.ERROR_FILE_NOT_SUPPORTED;
+                    }
+                    else{
+                        final Bitmap label = bitmap;
+                        status = handle.attempt(new PrintJob.Attempt() {
+                            public PrinterStatus run(PrintJob current) {
+                                return printLabel(current, job, label);
+                            }
+                        });
+                        onJobFinished(job, status);
+                        upload.sampleHeap();
+                        bitmap.recycle();
+                    }
+
+                    String status_code = handle.describe(status);
+
+                    Log.d(TAG, "PrinterStatus: "+status_code);
+
+                    JSONObject response = new JSONObject();
+                    response.put("status", status_code);
+                    response.put("memory", upload.getMemoryStats());
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, response));
+
+                }catch(Exception e){
+                    e.printStackTrace();
+                }finally{
+                    ImageUploadStore.discard(upload);
+                    handle.finish(status);
+                }
+            }
+        }, new Runnable() {
+            public void run() {
+                ImageUploadStore.discard(upload);
+            }
+        });
+    }
 
     /**
-     *  captures the USB configuration settings for the attached printers
+     *  sends a configuration file (e.g. PJL commands) to the USB attached printer
+     *
+     *  permission to use the printer is requested on first use and awaited without holding a thread;
+     *  the configured printer is kept for later USB jobs
      *
-     *  TODO provide clarification as to what this method does
-     *  @param args JSONArray containing parameters
+     *  @param args JSONArray containing the command data, followed by the optional "encoding:binary" (base64 data, as sent for an ArrayBuffer) and paper arguments
      *  @param callbackctx the context provided by the method invoking this request
      */
     private void sendUSBConfig(final JSONArray args, final CallbackContext callbackctx){
 
+        Map<String,String> options = parseOptions(args, 1);
+        byte[] data = decodePayload(args.optString(0, null), options, callbackctx);
+        if( data == null ){
+            return;
+        }
+
+        sendRaw(PrintJobConfig.usb(PrinterDiscovery.DEFAULT_PAPER, options), "sendUSBConfig", RawCommandSender.of(data), callbackctx);
+    }
+
+    /**
+     *  sends printer command data as is, to a network printer (straight to its raw print port) or the USB printer
+     *
+     *  @param args JSONArray containing the command data, followed by the optional "encoding:binary" and printer arguments
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void sendRawCommands(final JSONArray args, final CallbackContext callbackctx) {
+
+        Map<String,String> options = parseOptions(args, 1);
+        byte[] data = decodePayload(args.optString(0, null), options, callbackctx);
+        if( data == null ){
+            return;
+        }
+
+        PrintJobConfig job = resolveJob(options, callbackctx);
+        if( job == null ){
+            return;
+        }
+
+        sendRaw(job, "sendRawCommands (" + data.length + " bytes)", RawCommandSender.of(data), callbackctx);
+    }
+
+    /**
+     *  registers printer command data with {{field}} placeholders, to be printed with printTemplate
+     *
+     *  @param args JSONArray containing the template name and the command data, followed by the optional "encoding:binary" argument
+     *  @param callbackctx the context provided by the method invoking this request, receives the names of the fields
+     */
+    private void registerTemplate(final JSONArray args, final CallbackContext callbackctx) {
+
+        final String name = args.optString(0, null);
+        final Map<String,String> options = parseOptions(args, 2);
+        final String encoded = args.optString(1, null);
+
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
+                byte[] data = decodePayload(encoded, options, callbackctx);
+                if( data == null ){
+                    return;
+                }
+                try{
+                    PrnTemplateStore.Template template = templateStore.register(name, data);
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, new JSONArray(template.fieldNames())));
+                }catch(IllegalArgumentException e){
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
+                }catch(IOException e){
+                    Log.d(TAG, "Temp file action failed: " + e.toString());
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Could not store template " + name + ": " + e.getMessage()));
+                }
+            }
+        });
+    }
+
+    /**
+     *  prints a template registered with registerTemplate, filling in its fields
+     *
+     *  @param args JSONArray containing the template name and an object of field values, followed by the optional printer argument
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void printTemplate(final JSONArray args, final CallbackContext callbackctx) {
 
-                Printer myPrinter = new Printer();
+        final String name = args.optString(0, null);
+        PrnTemplateStore.Template template = templateStore.get(name);
+        if( template == null ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "No template registered as " + name + "."));
+            return;
+        }
 
-                Context context = cordova.getActivity().getApplicationContext();
+        Map<String,String> values = new HashMap<String,String>();
+        JSONObject fields = args.optJSONObject(1);
+        if( fields != null ){
+            Iterator<String> keys = fields.keys();
+            while( keys.hasNext() ){
+                String key = keys.next();
+                values.put(key, fields.optString(key, ""));
+            }
+        }
 
-                UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
-                UsbDevice usbDevice = myPrinter.getUsbDevice(usbManager);
-                if (usbDevice == null) {
-                    Log.d(TAG, "USB device not found");
-                    return;
+        RawCommandSender.Payload payload;
+        try{
+            payload = template.bind(values);
+        }catch(IllegalArgumentException e){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
+            return;
+        }
+
+        PrintJobConfig job = resolveJob(parseOptions(args, 2), callbackctx);
+        if( job == null ){
+            return;
+        }
+
+        sendRaw(job, "printTemplate " + name, payload, callbackctx);
+    }
+
+    /**
+     *  registers a label layout, to be printed with printLayout; its static layer is drawn here so the first
+     *  label prints without waiting for it
+     *
+     *  @param args JSONArray containing the layout name and the layout object
+     *  @param callbackctx the context provided by the method invoking this request, receives the names of the fields
+     */
+    private void registerLayout(final JSONArray args, final CallbackContext callbackctx) {
+
+        final String name = args.optString(0, null);
+        JSONObject object = args.optJSONObject(1);
+        final String json = object != null ? object.toString() : args.optString(1, null);
+
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try{
+                    if( json == null ){
+                        throw new IllegalArgumentException("No layout was supplied for " + name + ".");
+                    }
+                    LabelLayoutStore.Layout layout = layoutStore.register(name, json);
+                    layoutRenderers.remove(name);
+                    layoutRenderers.release(new LabelRenderer(layout));
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, new JSONArray(layout.fieldNames())));
+                }catch(IllegalArgumentException e){
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
+                }catch(IOException e){
+                    Log.d(TAG, "Temp file action failed: " + e.toString());
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Could not store layout " + name + ": " + e.getMessage()));
                 }
+            }
+        });
+    }
+
+    /**
+     *  prints a label per record with a layout registered with registerLayout, over a single printer session,
+     *  reporting progress per label; the next label is rendered on the render pool while the current one prints
+     *
+     *  @param args JSONArray containing the layout name and the array of records (objects of field values),
+     *              followed by the optional printer argument
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void printLayout(final JSONArray args, final CallbackContext callbackctx) {
 
-                final String ACTION_USB_PERMISSION = "com.threescreens.cordova.plugin.brotherPrinter.USB_PERMISSION";
+        final String name = args.optString(0, null);
+        final LabelLayoutStore.Layout layout = layoutStore.get(name);
+        if( layout == null ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "No layout registered as " + name + "."));
+            return;
+        }
 
-                PendingIntent permissionIntent = PendingIntent.getBroadcast(context, 0, new Intent(ACTION_USB_PERMISSION), 0);
-                usbManager.requestPermission(usbDevice, permissionIntent);
+        JSONArray entries = args.optJSONArray(1);
+        if( entries == null || entries.length() == 0 ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "No records were supplied to print."));
+            return;
+        }
+        final List<Map<String,String>> records = new ArrayList<Map<String,String>>();
+        for( int i = 0; i < entries.length(); i++ ){
+            Map<String,String> values = new HashMap<String,String>();
+            JSONObject fields = entries.optJSONObject(i);
+            if( fields != null ){
+                Iterator<String> keys = fields.keys();
+                while( keys.hasNext() ){
+                    String key = keys.next();
+                    values.put(key, fields.optString(key, ""));
+                }
+            }
+            try{
+                layout.check(values);
+            }catch(IllegalArgumentException e){
+                callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Record " + i + ": " + e.getMessage()));
+                return;
+            }
+            records.add(values);
+        }
 
-                final BroadcastReceiver mUsbReceiver = new BroadcastReceiver() {
-                    @Override
-                    public void onReceive(Context context, Intent intent) {
-                        String action = intent.getAction();
-                        if (ACTION_USB_PERMISSION.equals(action)) {
-                            synchronized (this) {
-                                if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false))
-                                    Log.d(TAG, "USB permission granted");
-                                else
-                                    Log.d(TAG, "USB permission rejected");
-                            }
-                        }
+        //the layout is drawn for its paper, print it on that paper
+        Map<String,String> options = parseOptions(args, 2);
+        options.put("paper", layout.paperName);
+
+        PrintJobConfig requested = resolveJob(options, callbackctx);
+        if( requested == null ){
+            return;
+        }
+        final PrintJob handle = jobTracker.create(requested);
+
+        schedule(handle, "printLayout " + name + " (" + records.size() + " labels)", callbackctx, new Runnable() {
+            public void run() {
+                final PrintJobConfig job = handle.config;
+                PrinterStatus status = new PrinterStatus();
+                status.errorCode = ErrorCode.ERROR_NONE;
+                int printed = 0;
+
+                //Holds the session the labels are sent over as one job; a retried label may move the job to a new session
+                final PrinterSessionPool.Session[] communicating = new PrinterSessionPool.Session[1];
+
+                //two renderers take turns: one draws the next label while the label of the other prints
+                LabelRenderer[] renderers = new LabelRenderer[records.size() > 1 ? 2 : 1];
+                Future<Bitmap> next = null;
+
+                try{
+                    for( int i = 0; i < renderers.length; i++ ){
+                        renderers[i] = layoutRenderers.acquire(layout);
                     }
-                };
+                    next = renderLabel(renderers[0], records.get(0), handle);
+
+                    for( int i = 0; i < records.size(); i++ ){
+                        final Bitmap label = next.get();
+                        next = i + 1 < records.size() ? renderLabel(renderers[(i + 1) % 2], records.get(i + 1), handle) : null;
+
+                        status = handle.attempt(new PrintJob.Attempt() {
+                            public PrinterStatus run(PrintJob current) {
+                                if( isRasterEngine(job) ){
+                                    return printLabel(current, job, label);
+                                }
+                                return batchPrinter(current, job, communicating).printImage(label);
+                            }
+                        });
+
+                        Log.d(TAG, "PrinterStatus (label " + i + "): " + status.errorCode);
 
-                context.registerReceiver(mUsbReceiver, new IntentFilter(ACTION_USB_PERMISSION));
+                        JSONObject progress = new JSONObject();
+                        progress.put("index", i);
+                        progress.put("total", records.size());
+                        progress.put("status", handle.describe(status));
+                        progress.put("done", false);
+                        PluginResult result = new PluginResult(PluginResult.Status.OK, progress);
+                        result.setKeepCallback(true);
+                        callbackctx.sendPluginResult(result);
 
-                while (true) {
-                    if (!usbManager.hasPermission(usbDevice)) {
-                        usbManager.requestPermission(usbDevice, permissionIntent);
-                    } else {
-                        break;
+                        if( status.errorCode != ErrorCode.ERROR_NONE ){
+                            break;
+                        }
+                        printed++;
                     }
 
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                }catch(Exception e){
+                    e.printStackTrace();
+                    status.errorCode = ErrorCode.ERROR_INTERNAL_ERROR;
+                }finally{
+                    //the session goes back to the pool, it must not be left communicating whatever stopped the job
+                    endBatch(handle, communicating);
+                    //a label still being drawn holds its renderer
+                    if( next != null ){
+                        try{
+                            next.get();
+                        }catch(Exception e){
+                            //the label is not printed
+                        }
+                    }
+                    for( LabelRenderer renderer : renderers ){
+                        if( renderer != null ){
+                            layoutRenderers.release(renderer);
+                        }
                     }
                 }
 
-                PrinterInfo myPrinterInfo = new PrinterInfo();
+                if( communicating[0] != null || isRasterEngine(job) ){
+                    onJobFinished(job, status);
+                }
 
-                myPrinterInfo = myPrinter.getPrinterInfo();
+                try{
+                    JSONObject summary = new JSONObject();
+                    summary.put("printed", printed);
+                    summary.put("total", records.size());
+                    summary.put("status", handle.describe(status));
+                    summary.put("done", true);
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, summary));
+                }catch(JSONException e){
+                    e.printStackTrace();
+                }finally{
+                    handle.finish(status);
+                }
+            }
+        });
+    }
 
-                myPrinterInfo.printerModel  = PrinterInfo.Model.QL_720NW;
-                myPrinterInfo.port          = PrinterInfo.Port.USB;
-                myPrinterInfo.paperSize     = PrinterInfo.PaperSize.CUSTOM;
+    /**
+     *  renders the label of a record on the render pool, recording the time taken as decoding
+     */
+    private Future<Bitmap> renderLabel(final LabelRenderer renderer, final Map<String,String> record, final PrintJob handle) {
+        return pdfRenderPool.submit(new Callable<Bitmap>() {
+            public Bitmap call() {
+                long start = System.nanoTime();
+                Bitmap label = renderer.render(record);
+                handle.record(PrintMetrics.Phase.DECODE, System.nanoTime() - start);
+                return label;
+            }
+        });
+    }
 
-                myPrinter.setPrinterInfo(myPrinterInfo);
+    /**
+     *  queues command data for a printer, reporting the status of the transfer
+     *
+     *  @param requested the printer to send to
+     *  @param description a short description of the job, reported by getQueueStatus
+     *  @param payload the command data
+     *  @param callbackctx the context the status is reported through
+     */
+    private void sendRaw(PrintJobConfig requested, String description, final RawCommandSender.Payload payload, final CallbackContext callbackctx) {
 
-                LabelInfo myLabelInfo = myPrinter.getLabelInfo();
+        final PrintJob handle = jobTracker.create(requested);
 
-                //label info must be set after setPrinterInfo, it's not in the docs
-                myPrinter.setLabelInfo(myLabelInfo);
+        schedule(handle, description, callbackctx, new Runnable() {
+            public void run() {
+                final PrintJobConfig job = handle.config;
+                final PrinterTransport transport = RawCommandSender.transportFor(job, cordova.getActivity().getApplicationContext().getCacheDir());
+                PrinterStatus status = null;
+                try{
 
+                    status = handle.attempt(new PrintJob.Attempt() {
+                        public PrinterStatus run(PrintJob current) {
+                            return transport.send(payload, current);
+                        }
+                    });
+                    onJobFinished(job, status);
 
-                try {
-                    File outputDir = context.getCacheDir();
-                    File outputFile = new File(outputDir.getPath() + "configure.prn");
+                    String status_code = handle.describe(status);
 
-                    FileWriter writer = new FileWriter(outputFile);
-                    writer.write(args.optString(0, null));
-                    writer.close();
+                    Log.d(TAG, "PrinterStatus: "+status_code);
 
-                    PrinterStatus status = myPrinter.printFile(outputFile.toString());
-                    outputFile.delete();
+                    callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, status_code));
 
-                    String status_code = ""+status.errorCode;
+                }catch(Exception e){
+                    e.printStackTrace();
+                }finally{
+                    handle.finish(status);
+                }
+            }
+        });
+    }
 
-                    Log.d(TAG, "PrinterStatus: "+status_code);
+    /**
+     *  reads command data sent from JS: text, or base64 with "encoding:binary" (cordova sends ArrayBuffers as base64)
+     *
+     *  @param data the data as received
+     *  @param options the options of the request
+     *  @param callbackctx the context through which missing or malformed data is reported
+     *  @return the command bytes, or null if there are none (the error has then been reported)
+     */
+    private static byte[] decodePayload(String data, Map<String,String> options, CallbackContext callbackctx) {
+        if( data == null || data.length() == 0 ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "No command data was supplied."));
+            return null;
+        }
+        try{
+            if( "binary".equals(options.get("encoding")) ){
+                return Base64.decode(data, Base64.DEFAULT);
+            }
+            return data.getBytes("UTF-8");
+        }catch(Exception e){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Could not read the command data: " + e.getMessage()));
+            return null;
+        }
+    }
 
-                    PluginResult result;
-                    result = new PluginResult(PluginResult.Status.OK, status_code);
-                    callbackctx.sendPluginResult(result);
+    /**
+     *  creates or replaces a group of printers that jobs sent with "group:name" are spread over
+     *
+     *  @param args JSONArray containing the group name and an array of serial numbers of discovered printers, followed by
+     *              the optional "paper:" argument naming the paper the printers are loaded with
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void registerPrinterGroup(JSONArray args, CallbackContext callbackctx) {
 
-                } catch (IOException e) {
-                    Log.d(TAG, "Temp file action failed: " + e.toString());
+        String name = args.optString(0, null);
+        JSONArray serials = args.optJSONArray(1);
+        String paperName = parseOptions(args, 2).get("paper");
+
+        if( paperName != null && !Arrays.asList(PS_QL).contains(paperName) ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Unknown paper " + paperName + "."));
+            return;
+        }
+
+        awaitRegistry();
+
+        List<String> members = new ArrayList<String>();
+        for( int i = 0; serials != null && i < serials.length(); i++ ){
+            members.add(serials.optString(i));
+        }
+        try{
+            printerGroups.register(name, members, paperName);
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, name));
+        }catch(IllegalArgumentException e){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.getMessage()));
+        }
+    }
+
+    /**
+     *  starts or stops the background status queries of the network printers
+     *
+     *  @param args JSONArray containing the optional "interval:ms" argument (default 30s); the callback receives the status
+     *              of every printer seen so far, then each status that changes, until called with "interval:0"
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void watchPrinterStatus(JSONArray args, CallbackContext callbackctx) throws JSONException {
+        Map<String,String> options = parseOptions(args, 0);
+        long interval = PrinterStatusMonitor.DEFAULT_INTERVAL_MS;
+        if( options.get("interval") != null ){
+            interval = parseCount(options.get("interval"));
+            if( interval < 0 ){
+                callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Invalid interval " + options.get("interval")
+                                                + ", expected a number of ms of 0 or more."));
+                return;
+            }
+        }
+
+        awaitRegistry();
+
+        statusWatcher = interval > 0 ? callbackctx : null;
+        statusMonitor.start(interval);
+
+        PluginResult result = new PluginResult(PluginResult.Status.OK, statusMonitor.toJSON());
+        result.setKeepCallback(interval > 0);
+        callbackctx.sendPluginResult(result);
+    }
+
+    /**
+     *  reports the latest status of the printers, from the cache or queried now
+     *
+     *  @param args JSONArray containing the optional "printer:serial" argument (all printers seen when omitted) and
+     *              "refresh:true" to query the printer, behind any jobs queued for it
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void getPrinterStatus(JSONArray args, final CallbackContext callbackctx) throws JSONException {
+        Map<String,String> options = parseOptions(args, 0);
+        final String serial = options.get("printer");
+        if( serial == null ){
+            callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, statusMonitor.toJSON()));
+            return;
+        }
+
+        awaitRegistry();
+
+        final Runnable report = new Runnable() {
+            public void run() {
+                PrinterStatusMonitor.Snapshot snapshot = statusMonitor.get(serial);
+                try{
+                    if( snapshot == null ){
+                        callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "No status known for printer " + serial + "."));
+                    }
+                    else{
+                        callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.OK, snapshot.toJSON()));
+                    }
+                }catch(JSONException e){
+                    e.printStackTrace();
                 }
+            }
+        };
+
+        Map<String,String> printer = discoveredNetworkPrinters.get(serial);
+        if( "true".equals(options.get("refresh")) && printer != null && statusMonitor.refresh(printer, true, report) ){
+            return;
+        }
+        report.run();
+    }
 
+    /**
+     *  reports the phase latency histograms and status counts of the print jobs
+     *
+     *  @param args JSONArray containing the optional "interval:ms" argument; with an interval the metrics are pushed
+     *              again through the same callback at that interval, until called with "interval:0"
+     *  @param callbackctx the context provided by the method invoking this request
+     */
+    private void getMetrics(JSONArray args, final CallbackContext callbackctx) throws JSONException {
+        Map<String,String> options = parseOptions(args, 0);
+        long interval = -1;
+        if( options.get("interval") != null ){
+            interval = parseCount(options.get("interval"));
+            if( interval < 0 ){
+                callbackctx.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "Invalid interval " + options.get("interval")
+                                                + ", expected a number of ms of 0 or more."));
+                return;
             }
-        });
+        }
+
+        if( interval >= 0 ){
+            metrics.push(interval, new PrintMetrics.Listener() {
+                public void onMetrics(JSONObject snapshot) {
+                    PluginResult result = new PluginResult(PluginResult.Status.OK, snapshot);
+                    result.setKeepCallback(true);
+                    callbackctx.sendPluginResult(result);
+                }
+            });
+        }
+
+        PluginResult result = new PluginResult(PluginResult.Status.OK, metrics.toJSON());
+        result.setKeepCallback(interval > 0);
+        callbackctx.sendPluginResult(result);
     }
 
 }
@@ -0,0 +1,174 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *   Code128 - encodes text as a Code 128 barcode
+ *
+ *   Code set B is used for text, code set A for control characters and code set C for runs of
+ *   digits long enough to be worth switching for, which keeps numeric labels (serial numbers,
+ *   order ids) short. Only ASCII can be encoded.
+ */
+final class Code128 {
+
+    //bar/space widths of every symbol, in modules; the stop symbol has a final 2 module bar
+    private static final String[] PATTERNS = {
+        "212222", "222122", "222221", "121223", "121322", "131222", "122213", "122312", "132212", "221213",
+        "221312", "231212", "112232", "122132", "122231", "113222", "123122", "123221", "223211", "221132",
+        "221231", "213212", "223112", "312131", "311222", "321122", "321221", "312212", "322112", "322211",
+        "212123", "212321", "232121", "111323", "131123", "131321", "112313", "132113", "132311", "211313",
+        "231113", "231311", "112133", "112331", "132131", "113123", "113321", "133121", "313121", "211331",
+        "231131", "213113", "213311", "213131", "311123", "311321", "331121", "312113", "312311", "332111",
+        "314111", "221411", "431111", "111224", "111422", "121124", "121421", "141122", "141221", "112214",
+        "112412", "122114", "122411", "142112", "142211", "241211", "221114", "413111", "241112", "134111",
+        "111242", "121142", "121241", "114212", "124112", "124211", "411212", "421112", "421211", "212141",
+        "214121", "412121", "111143", "111341", "131141", "114113", "114311", "411113", "411311", "113141",
+        "114131", "311141", "411131", "211412", "211214", "211232", "2331112"
+    };
+
+    private static final int CODE_C = 99;
+    private static final int CODE_B = 100;
+    private static final int CODE_A = 101;
+    private static final int START_A = 103;
+    private static final int START_B = 104;
+    private static final int START_C = 105;
+    private static final int STOP = 106;
+
+    private static final int SET_A = 0;
+    private static final int SET_B = 1;
+    private static final int SET_C = 2;
+
+    //modules of white space needed either side of the barcode
+    static final int QUIET_ZONE = 10;
+
+    private Code128() {
+    }
+
+    /**
+     *  @param text the text to encode, ASCII only
+     *  @return the modules of the barcode from left to right, true for a bar; without the quiet zones
+     *  @throws IllegalArgumentException if the text is empty or not ASCII
+     */
+    static boolean[] encode(String text) {
+        if( text == null || text.length() == 0 ){
+            throw new IllegalArgumentException("No text to encode as a barcode.");
+        }
+        for( int i = 0; i < text.length(); i++ ){
+            if( text.charAt(i) > 127 ){
+                throw new IllegalArgumentException("Code 128 cannot encode " + text.charAt(i) + ".");
+            }
+        }
+
+        List<Integer> symbols = new ArrayList<Integer>();
+        int set = -1;
+        int i = 0;
+        while( i < text.length() ){
+            int digits = digitsAt(text, i);
+            //digits in pairs save a symbol per pair, worth a switch for 4 at either end or 6 in the middle
+            boolean useC = digits >= 4 && (i == 0 || i + digits == text.length() || digits >= 6);
+            if( set == SET_C && digits >= 2 ){
+                useC = true;
+            }
+            if( useC ){
+                if( digits % 2 == 1 ){
+                    if( set != SET_C ){
+                        //the odd digit goes out in code set A/B first, so the digits after it pair up to the end of the run
+                        int single = text.charAt(i) < 32 ? SET_A : SET_B;
+                        set = switchTo(symbols, set, set == SET_A ? SET_A : single);
+                        symbols.add(valueOf(text.charAt(i), set));
+                        i++;
+                        continue;
+                    }
+                }
+                set = switchTo(symbols, set, SET_C);
+                while( digitsAt(text, i) >= 2 ){
+                    symbols.add((text.charAt(i) - '0') * 10 + (text.charAt(i + 1) - '0'));
+                    i += 2;
+                }
+                continue;
+            }
+            char c = text.charAt(i);
+            int wanted;
+            if( c < 32 ){
+                wanted = SET_A;
+            }
+            else if( c >= 96 ){
+                wanted = SET_B;
+            }
+            else{
+                wanted = set == SET_A ? SET_A : SET_B;
+            }
+            set = switchTo(symbols, set, wanted);
+            symbols.add(valueOf(c, set));
+            i++;
+        }
+
+        int checksum = symbols.get(0);
+        for( int j = 1; j < symbols.size(); j++ ){
+            checksum += j * symbols.get(j);
+        }
+        symbols.add(checksum % 103);
+        symbols.add(STOP);
+
+        int width = 0;
+        for( int symbol : symbols ){
+            width += moduleCount(PATTERNS[symbol]);
+        }
+        boolean[] modules = new boolean[width];
+        int x = 0;
+        for( int symbol : symbols ){
+            String pattern = PATTERNS[symbol];
+            for( int j = 0; j < pattern.length(); j++ ){
+                int run = pattern.charAt(j) - '0';
+                boolean bar = j % 2 == 0;
+                for( int k = 0; k < run; k++ ){
+                    modules[x++] = bar;
+                }
+            }
+        }
+        return modules;
+    }
+
+    /**
+     *  appends the start symbol, or the switch to another code set
+     *
+     *  @return the new code set
+     */
+    private static int switchTo(List<Integer> symbols, int current, int wanted) {
+        if( current == wanted ){
+            return current;
+        }
+        if( current < 0 ){
+            symbols.add(wanted == SET_A ? START_A : wanted == SET_B ? START_B : START_C);
+        }
+        else{
+            symbols.add(wanted == SET_A ? CODE_A : wanted == SET_B ? CODE_B : CODE_C);
+        }
+        return wanted;
+    }
+
+    private static int valueOf(char c, int set) {
+        if( set == SET_A && c < 32 ){
+            return c + 64;
+        }
+        return c - 32;
+    }
+
+    private static int digitsAt(String text, int from) {
+        int count = 0;
+        while( from + count < text.length() && Character.isDigit(text.charAt(from + count)) && text.charAt(from + count) < 128 ){
+            count++;
+        }
+        return count;
+    }
+
+    private static int moduleCount(String pattern) {
+        int count = 0;
+        for( int i = 0; i < pattern.length(); i++ ){
+            count += pattern.charAt(i) - '0';
+        }
+        return count;
+    }
+
+}
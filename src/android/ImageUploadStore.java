@@ -0,0 +1,309 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *   ImageUploadStore - receives label images from JS in base64 chunks
+ *
+ *   Each chunk is decoded as it arrives and appended to a temp file, so neither the full base64
+ *   string nor the full encoded image has to be held in memory. The committed file is decoded
+ *   with a sample size matched to the printable width of the label. Uploads left idle for
+ *   {@link #EXPIRY_MS} (neither committed nor aborted) are dropped when the next upload starts.
+ */
+class ImageUploadStore {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Upload]";
+
+    //time an upload may go without a chunk before it is dropped
+    static final long EXPIRY_MS = 10 * 60 * 1000;
+
+    private static final String FILE_SUFFIX = ".img";
+
+    /**
+     *  an image being received, along with the memory figures gathered while receiving it
+     */
+    static class Upload {
+        final String id;
+        final File file;
+        private OutputStream out;
+        //base64 characters left over from the previous chunk (a chunk may end mid quantum)
+        private String carry = "";
+        long bytes;
+        long maxChunkChars;
+        long bitmapBytes;
+        long peakHeapBytes;
+        //time the upload started or last received a chunk
+        volatile long lastActive = System.currentTimeMillis();
+
+        Upload(String id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.out = new BufferedOutputStream(new FileOutputStream(file));
+            sampleHeap();
+        }
+
+        void sampleHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            peakHeapBytes = Math.max(peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        /**
+         *  @return the memory figures of this upload
+         */
+        JSONObject getMemoryStats() throws JSONException {
+            JSONObject stats = new JSONObject();
+            stats.put("imageBytes", bytes);
+            stats.put("maxChunkChars", maxChunkChars);
+            stats.put("bitmapBytes", bitmapBytes);
+            stats.put("peakHeapBytes", peakHeapBytes);
+            return stats;
+        }
+    }
+
+    //Holds the uploads that have been started but not yet committed
+    private final Map<String,Upload> uploads = new HashMap<String,Upload>();
+
+    private final File directory;
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    /**
+     *  @param directory the directory the uploads are spooled into, usually under the app cache dir
+     */
+    ImageUploadStore(File directory) {
+        this.directory = directory;
+        if( !directory.exists() && !directory.mkdirs() ){
+            Log.d(TAG, "could not create upload directory " + directory);
+        }
+        //uploads of an earlier session can no longer be committed
+        File[] files = directory.listFiles();
+        for( int i = 0; files != null && i < files.length; i++ ){
+            files[i].delete();
+        }
+    }
+
+    /**
+     *  starts a new upload
+     *
+     *  @return the id to pass to {@link #append(String, String)} and {@link #commit(String)}
+     */
+    String begin() throws IOException {
+        expire();
+        String id = "img" + System.currentTimeMillis() + "-" + nextId.incrementAndGet();
+        Upload upload = new Upload(id, new File(directory, id + FILE_SUFFIX));
+        synchronized (this) {
+            uploads.put(id, upload);
+        }
+        return id;
+    }
+
+    /**
+     *  decodes a base64 chunk and appends it to the upload
+     *
+     *  @param id the upload id returned by {@link #begin()}
+     *  @param chunk the next piece of the base64 string; it does not need to end on a 4 character boundary, and may
+     *               be wrapped over several lines
+     *  @return the number of decoded bytes received so far
+     */
+    long append(String id, String chunk) throws IOException {
+        Upload upload = get(id);
+        synchronized (upload) {
+            if( upload.out == null ){
+                //committed, aborted or expired since it was looked up
+                throw new IOException("No image upload in progress with id " + id);
+            }
+            upload.lastActive = System.currentTimeMillis();
+            //line breaks and spaces are not base64 characters, they would shift the 4 character quanta
+            String data = upload.carry + stripWhitespace(chunk);
+            int usable = data.length() - (data.length() % 4);
+            upload.carry = data.substring(usable);
+            if( usable > 0 ){
+                byte[] bytes = Base64.decode(data.substring(0, usable), Base64.DEFAULT);
+                upload.out.write(bytes);
+                upload.bytes += bytes.length;
+            }
+            upload.maxChunkChars = Math.max(upload.maxChunkChars, chunk.length());
+            upload.sampleHeap();
+            return upload.bytes;
+        }
+    }
+
+    /**
+     *  completes an upload; the image can then be decoded with {@link #decode(Upload, int)}
+     *
+     *  @param id the upload id returned by {@link #begin()}
+     *  @return the completed upload, no longer tracked by the store
+     */
+    Upload commit(String id) throws IOException {
+        Upload upload;
+        synchronized (this) {
+            upload = uploads.remove(id);
+        }
+        if( upload == null ){
+            throw new IOException("No image upload in progress with id " + id);
+        }
+        synchronized (upload) {
+            if( upload.out == null ){
+                throw new IOException("No image upload in progress with id " + id);
+            }
+            if( upload.carry.length() > 0 ){
+                byte[] bytes = Base64.decode(upload.carry, Base64.DEFAULT);
+                upload.out.write(bytes);
+                upload.bytes += bytes.length;
+                upload.carry = "";
+            }
+            upload.out.close();
+            upload.out = null;
+        }
+        return upload;
+    }
+
+    /**
+     *  abandons an upload and deletes what was received
+     *
+     *  @param id the upload id returned by {@link #begin()}
+     */
+    void abort(String id) {
+        Upload upload;
+        synchronized (this) {
+            upload = uploads.remove(id);
+        }
+        if( upload != null ){
+            discard(upload);
+        }
+    }
+
+    /**
+     *  decodes a committed upload, sub-sampling it so it is no larger than needed for the label
+     *
+     *  @param upload the upload returned by {@link #commit(String)}
+     *  @param targetWidth the printable width of the label in dots
+     *  @return the decoded bitmap, or null if the image could not be decoded
+     */
+    static Bitmap decode(Upload upload, int targetWidth) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(upload.file.getPath(), options);
+
+        int sampleSize = 1;
+        while( options.outWidth / (sampleSize * 2) >= targetWidth ){
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        //label output is monochrome (or black/red), 16 bits per pixel is plenty
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+
+        Bitmap bitmap = BitmapFactory.decodeFile(upload.file.getPath(), options);
+        if( bitmap != null ){
+            upload.bitmapBytes = bitmap.getByteCount();
+        }
+        upload.sampleHeap();
+        return bitmap;
+    }
+
+    /**
+     *  deletes the file backing an upload
+     *
+     *  @param upload the upload to discard
+     */
+    static void discard(Upload upload) {
+        synchronized (upload) {
+            if( upload.out != null ){
+                try {
+                    upload.out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                upload.out = null;
+            }
+        }
+        if( !upload.file.delete() ){
+            Log.d(TAG, "could not delete " + upload.file);
+        }
+    }
+
+    /**
+     *  abandons every upload in progress
+     */
+    void clear() {
+        Upload[] pending;
+        synchronized (this) {
+            pending = uploads.values().toArray(new Upload[uploads.size()]);
+            uploads.clear();
+        }
+        for( Upload upload : pending ){
+            discard(upload);
+        }
+    }
+
+    /**
+     *  drops the uploads that have not received a chunk for {@link #EXPIRY_MS}
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        List<Upload> expired = new ArrayList<Upload>();
+        synchronized (this) {
+            Iterator<Upload> it = uploads.values().iterator();
+            while( it.hasNext() ){
+                Upload upload = it.next();
+                if( now - upload.lastActive > EXPIRY_MS ){
+                    it.remove();
+                    expired.add(upload);
+                }
+            }
+        }
+        for( Upload upload : expired ){
+            Log.d(TAG, "upload " + upload.id + " expired after " + (now - upload.lastActive) + "ms");
+            discard(upload);
+        }
+    }
+
+    private static String stripWhitespace(String chunk) {
+        int i = 0;
+        while( i < chunk.length() && !Character.isWhitespace(chunk.charAt(i)) ){
+            i++;
+        }
+        if( i == chunk.length() ){
+            return chunk;
+        }
+        StringBuilder stripped = new StringBuilder(chunk.length());
+        stripped.append(chunk, 0, i);
+        for( ; i < chunk.length(); i++ ){
+            char c = chunk.charAt(i);
+            if( !Character.isWhitespace(c) ){
+                stripped.append(c);
+            }
+        }
+        return stripped.toString();
+    }
+
+    private synchronized Upload get(String id) throws IOException {
+        Upload upload = uploads.get(id);
+        if( upload == null ){
+            throw new IOException("No image upload in progress with id " + id);
+        }
+        return upload;
+    }
+
+}
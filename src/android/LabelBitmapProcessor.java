@@ -0,0 +1,198 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ *   LabelBitmapProcessor - prepares label images for the printer ahead of the SDK
+ *
+ *   Images are scaled to the printable dot width of the selected paper and converted to pure
+ *   black/white (black/red/white for W62RB) with {@link LabelDither}, so the SDK receives an image it
+ *   does not need to scale or halftone. Converted images are kept in a {@link RasterCache} keyed by
+ *   content hash, so reprinting the same image skips decoding and conversion entirely.
+ */
+class LabelBitmapProcessor {
+
+    /**
+     *  the preprocessing settings of a print job
+     */
+    static class Options {
+        final String paperName;
+        final LabelDither.Algorithm algorithm;
+        final int threshold;
+
+        Options(String paperName, LabelDither.Algorithm algorithm, int threshold) {
+            this.paperName = paperName;
+            this.algorithm = algorithm;
+            this.threshold = threshold;
+        }
+
+        /**
+         *  reads the "dither:" and "threshold:" options of a print request
+         *
+         *  @param paperName the paper the job prints on
+         *  @param options the options of the request, keyed by prefix
+         *  @return the settings, or null when the request opted out with "dither:none"
+         *  @throws IllegalArgumentException if the dither is unknown or the threshold is not a number from 0 to 255
+         */
+        static Options from(String paperName, Map<String,String> options) {
+            String dither = options.get("dither");
+            if( "none".equals(dither) ){
+                return null;
+            }
+            int threshold = LabelDither.DEFAULT_THRESHOLD;
+            String value = options.get("threshold");
+            if( value != null ){
+                try{
+                    threshold = Integer.parseInt(value.trim());
+                }catch(NumberFormatException e){
+                    threshold = -1;
+                }
+                if( threshold < 0 || threshold > 255 ){
+                    throw new IllegalArgumentException("Invalid threshold " + value + ", expected a number from 0 to 255.");
+                }
+            }
+            return new Options(paperName, LabelDither.Algorithm.fromName(dither), threshold);
+        }
+
+        String settings() {
+            return algorithm.name().toLowerCase(Locale.US) + "-" + threshold;
+        }
+    }
+
+    /**
+     *  a print-ready image and the key it is cached under
+     */
+    static class Prepared {
+        final Bitmap bitmap;
+        final String cacheKey;
+
+        //time spent decoding and converting the image, 0 when it came from the cache
+        long decodeNanos;
+        long convertNanos;
+
+        Prepared(Bitmap bitmap, String cacheKey) {
+            this.bitmap = bitmap;
+            this.cacheKey = cacheKey;
+        }
+    }
+
+    //reused per worker thread so converting an image does not allocate per row
+    private final ThreadLocal<LabelDither> dithers = new ThreadLocal<LabelDither>() {
+        @Override
+        protected LabelDither initialValue() {
+            return new LabelDither();
+        }
+    };
+
+    private final ThreadLocal<int[]> rowBuffers = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[LabelPaper.MAX_PRINTABLE_DOTS];
+        }
+    };
+
+    private final RasterCache cache;
+
+    /**
+     *  @param cache the cache converted images are kept in
+     */
+    LabelBitmapProcessor(RasterCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     *  decodes and converts an encoded image, or returns the cached conversion of the same image
+     *
+     *  @param encoded the encoded (PNG, BMP, JPEG...) image bytes
+     *  @param options the preprocessing settings
+     *  @param modelName the model of the printer the image is for
+     *  @return the print-ready image, or null if the image could not be decoded
+     */
+    Prepared prepare(byte[] encoded, Options options, String modelName) {
+        String key = RasterCache.keyFor(contentHash(encoded), options.paperName, modelName, options.settings());
+
+        Bitmap cached = cache.get(key);
+        if( cached != null ){
+            return new Prepared(cached, key);
+        }
+
+        long start = System.nanoTime();
+        Bitmap source = BitmapFactory.decodeByteArray(encoded, 0, encoded.length);
+        if( source == null ){
+            return null;
+        }
+        long decoded = System.nanoTime();
+        Bitmap converted = convert(source, options);
+        if( converted != source ){
+            source.recycle();
+        }
+
+        cache.put(key, converted);
+        Prepared prepared = new Prepared(converted, key);
+        prepared.decodeNanos = decoded - start;
+        prepared.convertNanos = System.nanoTime() - decoded;
+        return prepared;
+    }
+
+    /**
+     *  scales an image to the printable width of the paper and converts it to the printer colors
+     *
+     *  @param source the image to convert, left untouched
+     *  @param options the preprocessing settings
+     *  @return a new bitmap holding the converted image
+     */
+    Bitmap convert(Bitmap source, Options options) {
+        int width = LabelPaper.printableDots(options.paperName);
+        Bitmap scaled = source;
+        if( source.getWidth() != width ){
+            int height = Math.max(1, Math.round((float) source.getHeight() * width / source.getWidth()));
+            scaled = Bitmap.createScaledBitmap(source, width, height, true);
+        }
+
+        int height = scaled.getHeight();
+        Bitmap output = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+
+        LabelDither dither = dithers.get();
+        int[] row = rowBuffers.get();
+        if( row.length < width ){
+            row = new int[width];
+            rowBuffers.set(row);
+        }
+
+        dither.begin(width, options.algorithm, options.threshold, LabelPaper.isTwoColor(options.paperName));
+        for( int y = 0; y < height; y++ ){
+            scaled.getPixels(row, 0, width, 0, y, width, 1);
+            dither.processRow(row, y);
+            output.setPixels(row, 0, width, 0, y, width, 1);
+        }
+
+        if( scaled != source ){
+            scaled.recycle();
+        }
+        return output;
+    }
+
+    /**
+     *  @param data the bytes to hash
+     *  @return the SHA-1 hash of the bytes, as a hex string
+     */
+    static String contentHash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for( byte b : digest ){
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ *   LabelDither - converts rows of ARGB pixels to pure black/white (or black/red/white) in place
+ *
+ *   Rows are fed top to bottom through {@link #processRow(int[], int)}; the error diffusion state
+ *   lives in buffers owned by the instance and reused between rows and images, so converting an
+ *   image allocates nothing once the buffers have grown to the label width. Instances are not
+ *   thread-safe.
+ */
+final class LabelDither {
+
+    static final int WHITE = 0xFFFFFFFF;
+    static final int BLACK = 0xFF000000;
+    static final int RED   = 0xFFFF0000;
+
+    static final int DEFAULT_THRESHOLD = 128;
+
+    /**
+     *  the supported conversions, selected by their lower case name (e.g. "floyd-steinberg")
+     */
+    enum Algorithm {
+        THRESHOLD, FLOYD_STEINBERG, ATKINSON, ORDERED;
+
+        /**
+         *  @throws IllegalArgumentException if the name is not one of the supported conversions
+         */
+        static Algorithm fromName(String name) {
+            if( name == null ){
+                return THRESHOLD;
+            }
+            for( Algorithm algorithm : values() ){
+                if( algorithm.name().equals(name.trim().toUpperCase(Locale.US).replace('-', '_')) ){
+                    return algorithm;
+                }
+            }
+            throw new IllegalArgumentException("Unknown dither " + name + ", expected threshold, floyd-steinberg, atkinson, ordered or none.");
+        }
+    }
+
+    //4x4 Bayer matrix, scaled to 0..255
+    private static final int[] BAYER_4X4 = {
+          8, 136,  40, 168,
+        200,  72, 232, 104,
+         56, 184,  24, 152,
+        248, 120, 216,  88
+    };
+
+    private Algorithm algorithm = Algorithm.THRESHOLD;
+    private int threshold = DEFAULT_THRESHOLD;
+    private boolean twoColor;
+    private int width;
+
+    //error diffused into the current row and the two rows below it (Atkinson reaches two rows down)
+    private int[] errCurrent = new int[0];
+    private int[] errNext = new int[0];
+    private int[] errAfter = new int[0];
+
+    /**
+     *  prepares the converter for a new image
+     *
+     *  @param width the number of pixels in every row
+     *  @param algorithm the conversion to apply
+     *  @param threshold the luminance (0-255) below which a pixel prints black
+     *  @param twoColor true to keep red pixels red, for the black/red W62RB paper
+     */
+    void begin(int width, Algorithm algorithm, int threshold, boolean twoColor) {
+        this.width = width;
+        this.algorithm = algorithm;
+        this.threshold = threshold;
+        this.twoColor = twoColor;
+        //a 2 pixel margin either side lets the kernels write past the row edges without bounds checks
+        if( errCurrent.length < width + 4 ){
+            errCurrent = new int[width + 4];
+            errNext = new int[width + 4];
+            errAfter = new int[width + 4];
+        }
+        else{
+            Arrays.fill(errCurrent, 0);
+            Arrays.fill(errNext, 0);
+            Arrays.fill(errAfter, 0);
+        }
+    }
+
+    /**
+     *  converts one row in place; rows must be supplied in order, starting at 0
+     *
+     *  @param row the ARGB pixels of the row, at least as long as the width passed to {@link #begin}
+     *  @param y the index of the row within the image
+     */
+    void processRow(int[] row, int y) {
+        switch (algorithm) {
+            case FLOYD_STEINBERG:
+            case ATKINSON:
+                diffuseRow(row);
+                break;
+            case ORDERED:
+                for( int x = 0; x < width; x++ ){
+                    int pixel = row[x];
+                    if( twoColor && isRed(pixel) ){
+                        row[x] = RED;
+                    }
+                    else{
+                        row[x] = luminance(pixel) < BAYER_4X4[((y & 3) << 2) | (x & 3)] ? BLACK : WHITE;
+                    }
+                }
+                break;
+            default:
+                for( int x = 0; x < width; x++ ){
+                    int pixel = row[x];
+                    if( twoColor && isRed(pixel) ){
+                        row[x] = RED;
+                    }
+                    else{
+                        row[x] = luminance(pixel) < threshold ? BLACK : WHITE;
+                    }
+                }
+                break;
+        }
+    }
+
+    private void diffuseRow(int[] row) {
+        int[] cur = errCurrent;
+        int[] next = errNext;
+        int[] after = errAfter;
+        boolean atkinson = algorithm == Algorithm.ATKINSON;
+
+        for( int x = 0; x < width; x++ ){
+            int pixel = row[x];
+            int i = x + 2;
+            if( twoColor && isRed(pixel) ){
+                row[x] = RED;
+                continue;
+            }
+            int value = luminance(pixel) + cur[i];
+            int out = value < threshold ? 0 : 255;
+            int err = value - out;
+            row[x] = out == 0 ? BLACK : WHITE;
+
+            if( atkinson ){
+                int e = err >> 3;
+                cur[i + 1] += e;
+                cur[i + 2] += e;
+                next[i - 1] += e;
+                next[i] += e;
+                next[i + 1] += e;
+                after[i] += e;
+            }
+            else{
+                cur[i + 1] += (err * 7) >> 4;
+                next[i - 1] += (err * 3) >> 4;
+                next[i] += (err * 5) >> 4;
+                next[i + 1] += err >> 4;
+            }
+        }
+
+        //rotate the buffers so the next row picks up the error diffused into it
+        Arrays.fill(cur, 0);
+        errCurrent = next;
+        errNext = after;
+        errAfter = cur;
+    }
+
+    /**
+     *  @return the luminance (0-255) of an ARGB pixel, composited onto white paper
+     */
+    static int luminance(int pixel) {
+        int a = pixel >>> 24;
+        int r = (pixel >> 16) & 0xFF;
+        int g = (pixel >> 8) & 0xFF;
+        int b = pixel & 0xFF;
+        int lum = (r * 77 + g * 150 + b * 29) >> 8;
+        return 255 - (a * (255 - lum)) / 255;
+    }
+
+    /**
+     *  @return true if the pixel should print red on two-color paper
+     */
+    static boolean isRed(int pixel) {
+        int r = (pixel >> 16) & 0xFF;
+        int g = (pixel >> 8) & 0xFF;
+        int b = pixel & 0xFF;
+        return (pixel >>> 24) > 127 && r > 160 && g < 100 && b < 100;
+    }
+
+}
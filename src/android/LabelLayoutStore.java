@@ -0,0 +1,336 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *   LabelLayoutStore - label layouts registered once and rendered natively for every record printed
+ *
+ *   A layout describes a label as a list of elements (text, Code 128 barcodes, QR codes, images,
+ *   boxes and lines) positioned in dots on one of the QL papers. Elements with a "field" take their
+ *   text from the record being printed, the others are drawn once into a static layer by
+ *   {@link LabelRenderer}. Printing a layout then only takes the field values from JS instead of a
+ *   full bitmap per label. Layouts are kept in app storage so they stay registered across restarts.
+ */
+class LabelLayoutStore {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Layouts]";
+
+    private static final String FILE_SUFFIX = ".json";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     *  the kinds of element a layout is made of, selected by their lower case name
+     */
+    enum Kind {
+        TEXT, BARCODE, QR, IMAGE, BOX, LINE
+    }
+
+    /**
+     *  one element of a layout; coordinates and sizes are in dots (300dpi) from the top left of the printable area
+     */
+    static class Element {
+        final Kind kind;
+        final int x;
+        final int y;
+        //0 when not given: text is not fitted, codes and images keep their natural size
+        final int width;
+        final int height;
+        //Holds the name of the record value drawn, null for a static element
+        final String field;
+        //Holds the text of a static element, or the base64 data of a static image
+        final String text;
+        //text size in dots
+        final int size;
+        final boolean bold;
+        final String font;
+        final String align;
+        final boolean red;
+        //width of a barcode bar or QR module in dots, 0 to fit the width
+        final int module;
+        final char level;
+        //line width of a box outline, 0 for a filled box
+        final int thickness;
+
+        private Element(Kind kind, JSONObject json) {
+            this.kind = kind;
+            this.x = json.optInt("x", 0);
+            this.y = json.optInt("y", 0);
+            this.width = json.optInt("width", 0);
+            this.height = json.optInt("height", 0);
+            this.field = json.optString("field", null);
+            this.text = json.optString(kind == Kind.IMAGE ? "image" : "text", null);
+            this.size = json.optInt("size", 32);
+            this.bold = json.optBoolean("bold", false);
+            this.font = json.optString("font", "sans-serif");
+            this.align = json.optString("align", "left");
+            this.red = "red".equals(json.optString("color", null));
+            this.module = json.optInt("module", 0);
+            String level = json.optString("level", "M");
+            this.level = level.length() > 0 ? level.charAt(0) : 'M';
+            this.thickness = json.optInt("thickness", 0);
+        }
+
+        /**
+         *  @return true if the element looks the same on every label
+         */
+        boolean isStatic() {
+            return field == null;
+        }
+    }
+
+    /**
+     *  a parsed layout
+     */
+    static class Layout {
+        final String name;
+        final String paperName;
+        final int width;
+        final int height;
+        final List<Element> elements;
+
+        private Layout(String name, String paperName, int width, int height, List<Element> elements) {
+            this.name = name;
+            this.paperName = paperName;
+            this.width = width;
+            this.height = height;
+            this.elements = elements;
+        }
+
+        /**
+         *  @return the names of the fields, in the order they first appear
+         */
+        Set<String> fieldNames() {
+            Set<String> names = new LinkedHashSet<String>();
+            for( Element element : elements ){
+                if( !element.isStatic() ){
+                    names.add(element.field);
+                }
+            }
+            return names;
+        }
+
+        /**
+         *  checks a record can be printed with the layout before the job is queued
+         *
+         *  @param record the field values of a label
+         *  @throws IllegalArgumentException if a field has no value, or a barcode or QR code value cannot be encoded
+         */
+        void check(Map<String,String> record) {
+            for( Element element : elements ){
+                if( element.isStatic() ){
+                    continue;
+                }
+                String value = record.get(element.field);
+                if( value == null ){
+                    throw new IllegalArgumentException("No value for field " + element.field + " of layout " + name + ".");
+                }
+                if( element.kind == Kind.BARCODE ){
+                    if( value.length() == 0 ){
+                        throw new IllegalArgumentException("Field " + element.field + " has no value to print as a barcode.");
+                    }
+                    for( int i = 0; i < value.length(); i++ ){
+                        if( value.charAt(i) > 127 ){
+                            throw new IllegalArgumentException("Field " + element.field + " cannot be printed as a barcode: " + value);
+                        }
+                    }
+                }
+                else if( element.kind == Kind.QR ){
+                    try {
+                        QrCode.check(value, element.level);
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Field " + element.field + " cannot be printed as a QR code: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private final File directory;
+    private final Map<String,Layout> layouts = new ConcurrentHashMap<String,Layout>();
+
+    /**
+     *  @param directory the directory the layouts are kept in, usually under the app files dir
+     */
+    LabelLayoutStore(File directory) {
+        this.directory = directory;
+        if( !directory.exists() && !directory.mkdirs() ){
+            Log.d(TAG, "could not create layout directory " + directory);
+        }
+    }
+
+    /**
+     *  registers a layout, replacing any layout of the same name
+     *
+     *  @param name the name of the layout (letters, digits, '-' and '_')
+     *  @param json the layout, a JSON object
+     *  @return the parsed layout
+     *  @throws IllegalArgumentException if the layout is invalid
+     */
+    Layout register(String name, String json) throws IOException {
+        checkName(name);
+        Layout layout = parse(name, json);
+
+        File temp = new File(directory, name + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(json.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+        if( !temp.renameTo(fileFor(name)) ){
+            temp.delete();
+            throw new IOException("could not rename " + temp);
+        }
+
+        layouts.put(name, layout);
+        Log.d(TAG, "registered " + name + " (" + layout.paperName + ", " + layout.elements.size() + " elements, fields " + layout.fieldNames() + ")");
+        return layout;
+    }
+
+    /**
+     *  @param name the name of the layout
+     *  @return the layout, or null if none is registered under the name
+     */
+    Layout get(String name) {
+        if( name == null ){
+            return null;
+        }
+        Layout layout = layouts.get(name);
+        if( layout != null ){
+            return layout;
+        }
+        try {
+            checkName(name);
+            File file = fileFor(name);
+            if( !file.exists() ){
+                return null;
+            }
+            layout = parse(name, new String(read(file), UTF_8));
+            layouts.put(name, layout);
+            return layout;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (IOException e) {
+            Log.d(TAG, "could not read layout " + name + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     *  @param name the name of the layout
+     *  @return true if a layout was removed
+     */
+    boolean remove(String name) {
+        if( name == null ){
+            return false;
+        }
+        boolean removed = layouts.remove(name) != null;
+        try {
+            checkName(name);
+            removed |= fileFor(name).delete();
+        } catch (IllegalArgumentException e) {
+            //never registered
+        }
+        return removed;
+    }
+
+    /**
+     *  parses a layout: { paper, height, elements: [{ type, x, y, ... }] }
+     *
+     *  the height defaults to the printable length of die-cut paper and must be given for continuous paper
+     *
+     *  @throws IllegalArgumentException if the layout is invalid
+     */
+    static Layout parse(String name, String json) {
+        try {
+            JSONObject layout = new JSONObject(json);
+            String paperName = layout.optString("paper", null);
+            if( paperName == null ){
+                throw new IllegalArgumentException("Layout " + name + " does not name its paper.");
+            }
+            int height = layout.optInt("height", LabelPaper.printableLengthDots(paperName));
+            if( height <= 0 ){
+                throw new IllegalArgumentException("Layout " + name + " needs a height in dots for continuous paper " + paperName + ".");
+            }
+
+            List<Element> elements = new ArrayList<Element>();
+            JSONArray list = layout.optJSONArray("elements");
+            for( int i = 0; list != null && i < list.length(); i++ ){
+                JSONObject entry = list.getJSONObject(i);
+                Kind kind;
+                try {
+                    kind = Kind.valueOf(entry.optString("type", "").toUpperCase(Locale.US));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown element type " + entry.optString("type", "") + " in layout " + name + ".");
+                }
+                Element element = new Element(kind, entry);
+                if( element.isStatic() && element.text == null && kind != Kind.BOX && kind != Kind.LINE ){
+                    throw new IllegalArgumentException("Element " + i + " of layout " + name + " needs a field or a value.");
+                }
+                if( kind == Kind.QR && "LMQH".indexOf(Character.toUpperCase(element.level)) < 0 ){
+                    throw new IllegalArgumentException("Unknown QR error correction level " + element.level + " in layout " + name + ".");
+                }
+                //static codes are encoded here so a value that cannot be encoded is reported at registration
+                if( element.isStatic() && kind == Kind.BARCODE ){
+                    Code128.encode(element.text);
+                }
+                else if( element.isStatic() && kind == Kind.QR ){
+                    QrCode.encode(element.text, element.level);
+                }
+                elements.add(element);
+            }
+            return new Layout(name, paperName, LabelPaper.printableDots(paperName), height, Collections.unmodifiableList(elements));
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Layout " + name + " is not valid JSON: " + e.getMessage());
+        }
+    }
+
+    private static void checkName(String name) {
+        if( name == null || !name.matches("[A-Za-z0-9_-]{1,64}") ){
+            throw new IllegalArgumentException("Invalid layout name " + name + ".");
+        }
+    }
+
+    private File fileFor(String name) {
+        return new File(directory, name + FILE_SUFFIX);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int count;
+            while( (count = in.read(buffer)) != -1 ){
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *   LabelPaper - printable geometry of the QL series paper names (see BrotherPrinter#PS_QL)
+ *
+ *   Widths are the printable dots at 300dpi as listed in the Brother QL raster command reference.
+ */
+final class LabelPaper {
+
+    //Holds the printable width in dots for each paper name
+    private static final Map<String,Integer> PRINTABLE_DOTS = new HashMap<String,Integer>();
+
+    //Holds the unused print head pins to the right of the printable area (the last pins of a raster line, the
+    //unused pins left of it come first)
+    private static final Map<String,Integer> RIGHT_MARGIN_PINS = new HashMap<String,Integer>();
+
+    //Holds the printable length in dots of each die-cut label
+    private static final Map<String,Integer> PRINTABLE_LENGTH_DOTS = new HashMap<String,Integer>();
+
+    static {
+        PRINTABLE_DOTS.put("W12", 106);
+        PRINTABLE_DOTS.put("W17H54", 165);
+        PRINTABLE_DOTS.put("W17H87", 165);
+        PRINTABLE_DOTS.put("W23H23", 202);
+        PRINTABLE_DOTS.put("W29", 306);
+        PRINTABLE_DOTS.put("W29H42", 306);
+        PRINTABLE_DOTS.put("W29H90", 306);
+        PRINTABLE_DOTS.put("W38", 413);
+        PRINTABLE_DOTS.put("W38H90", 413);
+        PRINTABLE_DOTS.put("W39H48", 425);
+        PRINTABLE_DOTS.put("W50", 554);
+        PRINTABLE_DOTS.put("W52H29", 578);
+        PRINTABLE_DOTS.put("W54", 590);
+        PRINTABLE_DOTS.put("W54H29", 590);
+        PRINTABLE_DOTS.put("W60H86", 632);
+        PRINTABLE_DOTS.put("W62", 696);
+        PRINTABLE_DOTS.put("W62H29", 696);
+        PRINTABLE_DOTS.put("W62H100", 696);
+        PRINTABLE_DOTS.put("W62RB", 696);
+
+        RIGHT_MARGIN_PINS.put("W12", 29);
+        RIGHT_MARGIN_PINS.put("W17H54", 0);
+        RIGHT_MARGIN_PINS.put("W17H87", 0);
+        RIGHT_MARGIN_PINS.put("W23H23", 42);
+        RIGHT_MARGIN_PINS.put("W29", 6);
+        RIGHT_MARGIN_PINS.put("W29H42", 6);
+        RIGHT_MARGIN_PINS.put("W29H90", 6);
+        RIGHT_MARGIN_PINS.put("W38", 12);
+        RIGHT_MARGIN_PINS.put("W38H90", 12);
+        RIGHT_MARGIN_PINS.put("W39H48", 6);
+        RIGHT_MARGIN_PINS.put("W50", 12);
+        RIGHT_MARGIN_PINS.put("W52H29", 0);
+        RIGHT_MARGIN_PINS.put("W54", 0);
+        RIGHT_MARGIN_PINS.put("W54H29", 0);
+        RIGHT_MARGIN_PINS.put("W60H86", 0);
+        RIGHT_MARGIN_PINS.put("W62", 12);
+        RIGHT_MARGIN_PINS.put("W62H29", 12);
+        RIGHT_MARGIN_PINS.put("W62H100", 12);
+        RIGHT_MARGIN_PINS.put("W62RB", 12);
+
+        PRINTABLE_LENGTH_DOTS.put("W17H54", 566);
+        PRINTABLE_LENGTH_DOTS.put("W17H87", 956);
+        PRINTABLE_LENGTH_DOTS.put("W23H23", 202);
+        PRINTABLE_LENGTH_DOTS.put("W29H42", 425);
+        PRINTABLE_LENGTH_DOTS.put("W29H90", 991);
+        PRINTABLE_LENGTH_DOTS.put("W38H90", 991);
+        PRINTABLE_LENGTH_DOTS.put("W39H48", 495);
+        PRINTABLE_LENGTH_DOTS.put("W52H29", 271);
+        PRINTABLE_LENGTH_DOTS.put("W54H29", 271);
+        PRINTABLE_LENGTH_DOTS.put("W60H86", 954);
+        PRINTABLE_LENGTH_DOTS.put("W62H29", 271);
+        PRINTABLE_LENGTH_DOTS.put("W62H100", 1109);
+    }
+
+    //number of pins on the print head of the QL-700/800 series, one bit each in a raster line
+    static final int HEAD_PINS = 720;
+
+    //printable width of the widest (62mm) paper, used when the paper name is unknown
+    static final int MAX_PRINTABLE_DOTS = 696;
+
+    private LabelPaper() {
+    }
+
+    /**
+     *  @param paperName one of the QL paper names, e.g. "W62H100"
+     *  @return the printable width of the paper in dots, or {@link #MAX_PRINTABLE_DOTS} if the paper is unknown
+     */
+    static int printableDots(String paperName) {
+        Integer dots = paperName == null ? null : PRINTABLE_DOTS.get(paperName);
+        return dots == null ? MAX_PRINTABLE_DOTS : dots;
+    }
+
+    /**
+     *  @param paperName one of the QL paper names
+     *  @return the print head pins right of the printable area, or the 62mm margin if the paper is unknown
+     */
+    static int rightMarginPins(String paperName) {
+        Integer pins = paperName == null ? null : RIGHT_MARGIN_PINS.get(paperName);
+        return pins == null ? 12 : pins;
+    }
+
+    /**
+     *  @param paperName one of the QL paper names, e.g. "W62H100"
+     *  @return the width of the paper in mm, 62 if the paper is unknown
+     */
+    static int widthMm(String paperName) {
+        int[] size = sizeOf(paperName);
+        return size == null ? 62 : size[0];
+    }
+
+    /**
+     *  @param paperName one of the QL paper names, e.g. "W62H100"
+     *  @return the length of a die-cut label in mm, 0 for continuous paper
+     */
+    static int lengthMm(String paperName) {
+        int[] size = sizeOf(paperName);
+        return size == null ? 0 : size[1];
+    }
+
+    /**
+     *  @param paperName one of the QL paper names, e.g. "W62H100"
+     *  @return the printable length of a die-cut label in dots, 0 for continuous paper or an unknown paper
+     */
+    static int printableLengthDots(String paperName) {
+        Integer dots = paperName == null ? null : PRINTABLE_LENGTH_DOTS.get(paperName);
+        return dots == null ? 0 : dots;
+    }
+
+    /**
+     *  @param paperName one of the QL paper names
+     *  @return true for die-cut labels, false for continuous paper
+     */
+    static boolean isDieCut(String paperName) {
+        return lengthMm(paperName) > 0;
+    }
+
+    /**
+     *  @return the width and length (0 if continuous) in mm encoded in a paper name such as "W62H100" or "W62RB"
+     */
+    private static int[] sizeOf(String paperName) {
+        if( paperName == null || !paperName.matches("W\\d+(H\\d+)?(RB)?") ){
+            return null;
+        }
+        int height = paperName.indexOf('H');
+        String width = paperName.substring(1, height > 0 ? height : paperName.length()).replace("RB", "");
+        String length = height > 0 ? paperName.substring(height + 1) : "0";
+        return new int[]{ Integer.parseInt(width), Integer.parseInt(length) };
+    }
+
+    /**
+     *  @param paperName one of the QL paper names
+     *  @return true for the black/red two-color paper
+     */
+    static boolean isTwoColor(String paperName) {
+        return "W62RB".equals(paperName);
+    }
+
+}
@@ -0,0 +1,360 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.Base64;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *   LabelRenderer - draws the labels of a layout from records of field values
+ *
+ *   The static elements of the layout (fixed text, images, boxes, lines) are drawn once into a
+ *   static layer; every record is rendered by copying that layer into a reused label bitmap and
+ *   drawing the field elements over it. Text is drawn without anti-aliasing and images are
+ *   dithered when the static layer is built, so the label only holds the printer colors and needs
+ *   no further conversion. Instances are not thread-safe, see {@link Pool}.
+ */
+class LabelRenderer {
+
+    private static final int WHITE = LabelDither.WHITE;
+    private static final int BLACK = LabelDither.BLACK;
+    private static final int RED = LabelDither.RED;
+
+    //default width of a barcode bar and of a QR module, in dots
+    private static final int DEFAULT_BAR_DOTS = 2;
+    private static final int DEFAULT_QR_DOTS = 4;
+
+    //default height of a barcode, in dots
+    private static final int DEFAULT_BARCODE_HEIGHT = 100;
+
+    //Holds the typefaces of the text elements, keyed by family and weight; shared by all renderers
+    private static final Map<String,Typeface> typefaces = new ConcurrentHashMap<String,Typeface>();
+
+    final LabelLayoutStore.Layout layout;
+
+    private final boolean twoColor;
+    private final Bitmap label;
+    private final Canvas canvas;
+    private final Bitmap staticLayer;
+
+    //Holds the paint of every element, in the order of the layout
+    private final Paint[] paints;
+
+    /**
+     *  @param layout the layout to render, its static layer is drawn here
+     */
+    LabelRenderer(LabelLayoutStore.Layout layout) {
+        this.layout = layout;
+        this.twoColor = LabelPaper.isTwoColor(layout.paperName);
+        this.paints = new Paint[layout.elements.size()];
+        for( int i = 0; i < paints.length; i++ ){
+            paints[i] = paintFor(layout.elements.get(i));
+        }
+
+        staticLayer = Bitmap.createBitmap(layout.width, layout.height, Bitmap.Config.ARGB_8888);
+        staticLayer.eraseColor(WHITE);
+        Canvas staticCanvas = new Canvas(staticLayer);
+        for( int i = 0; i < paints.length; i++ ){
+            LabelLayoutStore.Element element = layout.elements.get(i);
+            if( element.isStatic() ){
+                draw(staticCanvas, element, paints[i], element.text);
+            }
+        }
+
+        label = Bitmap.createBitmap(layout.width, layout.height, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(label);
+    }
+
+    /**
+     *  renders the label of a record
+     *
+     *  @param record the field values, checked with {@link LabelLayoutStore.Layout#check(Map)}
+     *  @return the label, the same bitmap on every call: it must have been printed before the next record is rendered
+     */
+    Bitmap render(Map<String,String> record) {
+        canvas.drawBitmap(staticLayer, 0, 0, null);
+        for( int i = 0; i < paints.length; i++ ){
+            LabelLayoutStore.Element element = layout.elements.get(i);
+            if( !element.isStatic() ){
+                draw(canvas, element, paints[i], record.get(element.field));
+            }
+        }
+        return label;
+    }
+
+    /**
+     *  releases the bitmaps of the renderer
+     */
+    void recycle() {
+        label.recycle();
+        staticLayer.recycle();
+    }
+
+    private void draw(Canvas target, LabelLayoutStore.Element element, Paint paint, String value) {
+        if( value == null ){
+            return;
+        }
+        switch( element.kind ){
+            case TEXT:
+                drawText(target, element, paint, value);
+                break;
+            case BARCODE:
+                drawBarcode(target, element, paint, value);
+                break;
+            case QR:
+                drawQr(target, element, paint, value);
+                break;
+            case IMAGE:
+                drawImage(target, element, value);
+                break;
+            case BOX:
+                if( element.thickness <= 0 ){
+                    target.drawRect(element.x, element.y, element.x + element.width, element.y + element.height, paint);
+                    break;
+                }
+                int t = element.thickness;
+                target.drawRect(element.x, element.y, element.x + element.width, element.y + t, paint);
+                target.drawRect(element.x, element.y + element.height - t, element.x + element.width, element.y + element.height, paint);
+                target.drawRect(element.x, element.y, element.x + t, element.y + element.height, paint);
+                target.drawRect(element.x + element.width - t, element.y, element.x + element.width, element.y + element.height, paint);
+                break;
+            case LINE:
+                target.drawRect(element.x, element.y, element.x + Math.max(1, element.width), element.y + Math.max(1, element.height), paint);
+                break;
+        }
+    }
+
+    /**
+     *  draws text from its top left corner, one line per '\n'; a text with a width is aligned within it and
+     *  shrunk to fit
+     */
+    private void drawText(Canvas target, LabelLayoutStore.Element element, Paint paint, String value) {
+        String[] lines = value.split("\n");
+        paint.setTextSize(element.size);
+        if( element.width > 0 ){
+            float widest = 0;
+            for( String line : lines ){
+                widest = Math.max(widest, paint.measureText(line));
+            }
+            if( widest > element.width ){
+                paint.setTextSize(element.size * element.width / widest);
+            }
+        }
+
+        float x = element.x;
+        if( "center".equals(element.align) ){
+            x += element.width / 2f;
+        }
+        else if( "right".equals(element.align) ){
+            x += element.width;
+        }
+        float baseline = element.y - paint.ascent();
+        for( String line : lines ){
+            target.drawText(line, x, baseline, paint);
+            baseline += paint.getFontSpacing();
+        }
+    }
+
+    /**
+     *  draws a Code 128 barcode within its quiet zones: the element starts with the left quiet zone, and a width
+     *  the barcode is fitted to includes both
+     */
+    private void drawBarcode(Canvas target, LabelLayoutStore.Element element, Paint paint, String value) {
+        boolean[] modules = Code128.encode(value);
+        int dots = element.module;
+        if( dots <= 0 ){
+            dots = element.width > 0 ? Math.max(1, element.width / (modules.length + 2 * Code128.QUIET_ZONE)) : DEFAULT_BAR_DOTS;
+        }
+        int left = element.x + Code128.QUIET_ZONE * dots;
+        int height = element.height > 0 ? element.height : DEFAULT_BARCODE_HEIGHT;
+        int start = -1;
+        for( int i = 0; i <= modules.length; i++ ){
+            boolean bar = i < modules.length && modules[i];
+            if( bar && start < 0 ){
+                start = i;
+            }
+            else if( !bar && start >= 0 ){
+                target.drawRect(left + start * dots, element.y, left + i * dots, element.y + height, paint);
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     *  draws a QR code within its quiet zone: the element starts at the top left of the quiet zone, and a width the
+     *  code is fitted to includes it
+     */
+    private void drawQr(Canvas target, LabelLayoutStore.Element element, Paint paint, String value) {
+        boolean[][] modules = QrCode.encode(value, element.level);
+        int size = modules.length;
+        int dots = element.module;
+        if( dots <= 0 ){
+            dots = element.width > 0 ? Math.max(1, element.width / (size + 2 * QrCode.QUIET_ZONE)) : DEFAULT_QR_DOTS;
+        }
+        int left = element.x + QrCode.QUIET_ZONE * dots;
+        //runs of dark modules in a row are drawn as one rectangle
+        for( int y = 0; y < size; y++ ){
+            int top = element.y + (QrCode.QUIET_ZONE + y) * dots;
+            int start = -1;
+            for( int x = 0; x <= size; x++ ){
+                boolean dark = x < size && modules[y][x];
+                if( dark && start < 0 ){
+                    start = x;
+                }
+                else if( !dark && start >= 0 ){
+                    target.drawRect(left + start * dots, top, left + x * dots, top + dots, paint);
+                    start = -1;
+                }
+            }
+        }
+    }
+
+    /**
+     *  draws a base64 image, scaled to the size of the element and dithered to the printer colors
+     */
+    private void drawImage(Canvas target, LabelLayoutStore.Element element, String base64) {
+        byte[] bytes = Base64.decode(base64, Base64.DEFAULT);
+        Bitmap source = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+        if( source == null ){
+            return;
+        }
+        int width = element.width > 0 ? element.width : source.getWidth();
+        int height = element.height > 0 ? element.height : Math.max(1, Math.round((float) source.getHeight() * width / source.getWidth()));
+        Bitmap scaled = source;
+        if( source.getWidth() != width || source.getHeight() != height ){
+            scaled = Bitmap.createScaledBitmap(source, width, height, true);
+        }
+
+        Bitmap converted = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        LabelDither dither = new LabelDither();
+        int[] row = new int[width];
+        dither.begin(width, LabelDither.Algorithm.FLOYD_STEINBERG, LabelDither.DEFAULT_THRESHOLD, twoColor);
+        for( int y = 0; y < height; y++ ){
+            scaled.getPixels(row, 0, width, 0, y, width, 1);
+            dither.processRow(row, y);
+            converted.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        target.drawBitmap(converted, element.x, element.y, null);
+
+        converted.recycle();
+        if( scaled != source ){
+            scaled.recycle();
+        }
+        source.recycle();
+    }
+
+    private Paint paintFor(LabelLayoutStore.Element element) {
+        Paint paint = new Paint();
+        paint.setAntiAlias(false);
+        paint.setFilterBitmap(false);
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(element.red && twoColor ? RED : BLACK);
+        if( element.kind == LabelLayoutStore.Kind.TEXT ){
+            paint.setTypeface(typeface(element.font, element.bold));
+            paint.setTextSize(element.size);
+            if( "center".equals(element.align) ){
+                paint.setTextAlign(Paint.Align.CENTER);
+            }
+            else if( "right".equals(element.align) ){
+                paint.setTextAlign(Paint.Align.RIGHT);
+            }
+            else{
+                paint.setTextAlign(Paint.Align.LEFT);
+            }
+        }
+        return paint;
+    }
+
+    private static Typeface typeface(String family, boolean bold) {
+        String key = family + (bold ? "-bold" : "");
+        Typeface typeface = typefaces.get(key);
+        if( typeface == null ){
+            typeface = Typeface.create(family, bold ? Typeface.BOLD : Typeface.NORMAL);
+            typefaces.put(key, typeface);
+        }
+        return typeface;
+    }
+
+    /**
+     *  keeps idle renderers per layout, so the static layer and bitmaps of a layout are reused across print jobs
+     */
+    static class Pool {
+
+        //idle renderers kept per layout, two let one label render while the previous one prints
+        private static final int MAX_IDLE = 2;
+
+        //Holds the idle renderers, keyed by layout name
+        private final Map<String,ArrayDeque<LabelRenderer>> idle = new HashMap<String,ArrayDeque<LabelRenderer>>();
+
+        /**
+         *  @param layout the layout to render
+         *  @return an idle renderer of the layout, or a new one; to be handed back with {@link #release(LabelRenderer)}
+         */
+        LabelRenderer acquire(LabelLayoutStore.Layout layout) {
+            synchronized (this) {
+                ArrayDeque<LabelRenderer> renderers = idle.get(layout.name);
+                while( renderers != null && !renderers.isEmpty() ){
+                    LabelRenderer renderer = renderers.removeFirst();
+                    if( renderer.layout == layout ){
+                        return renderer;
+                    }
+                    //the layout was registered again since
+                    renderer.recycle();
+                }
+            }
+            return new LabelRenderer(layout);
+        }
+
+        /**
+         *  @param renderer a renderer no longer in use
+         */
+        synchronized void release(LabelRenderer renderer) {
+            ArrayDeque<LabelRenderer> renderers = idle.get(renderer.layout.name);
+            if( renderers == null ){
+                renderers = new ArrayDeque<LabelRenderer>();
+                idle.put(renderer.layout.name, renderers);
+            }
+            if( renderers.size() < MAX_IDLE ){
+                renderers.addLast(renderer);
+            }
+            else{
+                renderer.recycle();
+            }
+        }
+
+        /**
+         *  drops the idle renderers of a layout
+         *
+         *  @param name the name of the layout
+         */
+        synchronized void remove(String name) {
+            ArrayDeque<LabelRenderer> renderers = idle.remove(name);
+            while( renderers != null && !renderers.isEmpty() ){
+                renderers.removeFirst().recycle();
+            }
+        }
+
+        /**
+         *  drops all idle renderers
+         */
+        synchronized void clear() {
+            Iterator<String> names = idle.keySet().iterator();
+            while( names.hasNext() ){
+                ArrayDeque<LabelRenderer> renderers = idle.get(names.next());
+                while( !renderers.isEmpty() ){
+                    renderers.removeFirst().recycle();
+                }
+                names.remove();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *   LatencyHistogram - a fixed-size, lock-free latency histogram with logarithmic buckets
+ *
+ *   Durations are counted in microseconds. Every power of two is split into SUB_BUCKETS linear
+ *   buckets (like HdrHistogram), so any recorded value is known to within 1/SUB_BUCKETS of itself
+ *   while the whole range (1us to ~12 days) takes a few hundred counters. Recording is a handful of
+ *   atomic increments and never allocates, so it can be called from every print job.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    //values above 2^MAX_BITS us are counted in the last bucket
+    private static final int MAX_BITS = 40;
+
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_BITS - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     *  @param nanos the duration to count
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(indexOf(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+
+        long max = maxMicros.get();
+        while( micros > max && !maxMicros.compareAndSet(max, micros) ){
+            max = maxMicros.get();
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     *  @return the count, mean, 50th/90th/99th percentiles and maximum, in milliseconds; the percentiles are the
+     *          upper bounds of their buckets
+     */
+    JSONObject toJSON() throws JSONException {
+        //the counters are read one by one while jobs keep recording, so the snapshot may be off by the jobs in flight
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for( int i = 0; i < BUCKETS; i++ ){
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long max = maxMicros.get();
+
+        JSONObject json = new JSONObject();
+        json.put("count", total);
+        json.put("meanMs", total == 0 ? 0d : totalMicros.get() / 1000d / total);
+        json.put("p50Ms", percentile(snapshot, total, 0.50, max) / 1000d);
+        json.put("p90Ms", percentile(snapshot, total, 0.90, max) / 1000d);
+        json.put("p99Ms", percentile(snapshot, total, 0.99, max) / 1000d);
+        json.put("maxMs", max / 1000d);
+        return json;
+    }
+
+    private static long percentile(long[] snapshot, long total, double fraction, long max) {
+        if( total == 0 ){
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for( int i = 0; i < snapshot.length; i++ ){
+            seen += snapshot[i];
+            if( seen >= rank ){
+                return Math.min(max, upperBoundOf(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     *  @return the bucket a value falls in: values below SUB_BUCKETS have a bucket each, larger values share a bucket
+     *          with the values that have the same highest SUB_BUCKET_BITS + 1 bits
+     */
+    static int indexOf(long micros) {
+        if( micros < SUB_BUCKETS ){
+            return (int) micros;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int index = SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((micros >>> shift) - SUB_BUCKETS);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    /**
+     *  @return the largest value counted in a bucket
+     */
+    static long upperBoundOf(int index) {
+        if( index < SUB_BUCKETS ){
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.pdf.PdfRenderer;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ *   PdfPagePipeline - renders the pages of a PDF to label images ahead of the printer (API 21+)
+ *
+ *   Pages are rendered with Android's {@link PdfRenderer} on a shared worker pool while earlier
+ *   pages print. A PdfRenderer can only render one page at a time, so every render worker borrows
+ *   its own renderer for the document. At most {@code lookahead} rendered pages are held at once,
+ *   which caps the memory used by a long document. When the sink stops early, the renderers are
+ *   only closed once the pages being rendered are done, and pages not started yet are skipped.
+ */
+class PdfPagePipeline {
+
+    static final int DEFAULT_LOOKAHEAD = 2;
+
+    /**
+     *  receives the rendered pages, in page order, on the thread that called {@link #run}
+     */
+    interface PageSink {
+        /**
+         *  @param pageIndex the 0-based index of the page
+         *  @param pageCount the number of pages in the document
+         *  @param page the rendered page; the pipeline recycles it once this method returns
+         *  @return false to stop the pipeline (e.g. after a print error)
+         */
+        boolean onPage(int pageIndex, int pageCount, Bitmap page) throws Exception;
+    }
+
+    /**
+     *  converts a rendered page before it is handed to the sink, on the render worker
+     */
+    interface PageConverter {
+        Bitmap convert(Bitmap page);
+    }
+
+    /**
+     *  the pages rendered and the renders running for one document, shared with its render tasks
+     */
+    private static final class RenderState {
+        private boolean stopped;
+        private int running;
+        //Holds the pages rendered but not yet handed to the sink, by page index
+        private final Map<Integer,Bitmap> rendered = new HashMap<Integer,Bitmap>();
+
+        /**
+         *  @return false if the pipeline has stopped and the page must not be rendered
+         */
+        synchronized boolean begin() {
+            if( stopped ){
+                return false;
+            }
+            running++;
+            return true;
+        }
+
+        synchronized void end(int pageIndex, Bitmap page) {
+            running--;
+            if( page != null ){
+                if( stopped ){
+                    page.recycle();
+                }
+                else{
+                    rendered.put(pageIndex, page);
+                }
+            }
+            notifyAll();
+        }
+
+        synchronized Bitmap take(int pageIndex) {
+            return rendered.remove(pageIndex);
+        }
+
+        /**
+         *  stops rendering, waits for the renders running to end and drops the pages not handed to the sink
+         */
+        synchronized void stop() {
+            stopped = true;
+            boolean interrupted = false;
+            while( running > 0 ){
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            for( Bitmap page : rendered.values() ){
+                page.recycle();
+            }
+            rendered.clear();
+            if( interrupted ){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final ExecutorService renderPool;
+    private final int renderThreads;
+
+    /**
+     *  @param renderPool the pool the pages are rendered on
+     *  @param renderThreads the number of threads in the pool, i.e. the renderers opened per document
+     */
+    PdfPagePipeline(ExecutorService renderPool, int renderThreads) {
+        this.renderPool = renderPool;
+        this.renderThreads = renderThreads;
+    }
+
+    /**
+     *  renders every page of a PDF and hands them to the sink in order
+     *
+     *  @param pdf the PDF file
+     *  @param width the width, in dots, the pages are rendered at
+     *  @param lookahead the number of pages that may be rendered ahead of the sink
+     *  @param converter optional conversion applied to each page on the render worker
+     *  @param sink receives the pages
+     *  @return the number of pages handed to the sink
+     */
+    int run(File pdf, final int width, int lookahead, final PageConverter converter, PageSink sink) throws Exception {
+
+        final BlockingQueue<PdfRenderer> renderers = new ArrayBlockingQueue<PdfRenderer>(renderThreads);
+        List<ParcelFileDescriptor> descriptors = new ArrayList<ParcelFileDescriptor>();
+        ArrayDeque<Future<?>> pending = new ArrayDeque<Future<?>>();
+        RenderState state = new RenderState();
+        int delivered = 0;
+
+        try {
+            int pageCount = 0;
+            for( int i = 0; i < renderThreads; i++ ){
+                ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(pdf, ParcelFileDescriptor.MODE_READ_ONLY);
+                descriptors.add(descriptor);
+                PdfRenderer renderer = new PdfRenderer(descriptor);
+                pageCount = renderer.getPageCount();
+                renderers.add(renderer);
+            }
+
+            int window = Math.max(1, lookahead);
+            int nextToRender = 0;
+            while( nextToRender < pageCount && nextToRender < window ){
+                pending.add(renderPool.submit(renderTask(state, renderers, nextToRender++, width, converter)));
+            }
+
+            for( int i = 0; i < pageCount; i++ ){
+                await(pending.poll());
+                Bitmap page = state.take(i);
+                if( nextToRender < pageCount ){
+                    pending.add(renderPool.submit(renderTask(state, renderers, nextToRender++, width, converter)));
+                }
+                try {
+                    delivered++;
+                    if( !sink.onPage(i, pageCount, page) ){
+                        break;
+                    }
+                } finally {
+                    page.recycle();
+                }
+            }
+        } finally {
+            //pages rendered ahead of an early stop are dropped; the renderers are all back once no render runs
+            state.stop();
+            for( PdfRenderer renderer : renderers ){
+                renderer.close();
+            }
+            for( ParcelFileDescriptor descriptor : descriptors ){
+                descriptor.close();
+            }
+        }
+
+        return delivered;
+    }
+
+    private static Callable<Void> renderTask(final RenderState state, final BlockingQueue<PdfRenderer> renderers,
+                                             final int pageIndex, final int width, final PageConverter converter) {
+        return new Callable<Void>() {
+            public Void call() throws Exception {
+                if( !state.begin() ){
+                    return null;
+                }
+                Bitmap bitmap = null;
+                try {
+                    PdfRenderer renderer = renderers.take();
+                    try {
+                        PdfRenderer.Page page = renderer.openPage(pageIndex);
+                        try {
+                            float scale = (float) width / page.getWidth();
+                            int height = Math.max(1, Math.round(page.getHeight() * scale));
+                            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                            //PDF pages are transparent, labels are white
+                            bitmap.eraseColor(0xFFFFFFFF);
+                            Matrix matrix = new Matrix();
+                            matrix.setScale(scale, scale);
+                            page.render(bitmap, null, matrix, PdfRenderer.Page.RENDER_MODE_FOR_PRINT);
+                        } finally {
+                            page.close();
+                        }
+                    } finally {
+                        renderers.put(renderer);
+                    }
+                    if( converter != null ){
+                        Bitmap converted = converter.convert(bitmap);
+                        if( converted != bitmap ){
+                            bitmap.recycle();
+                        }
+                        bitmap = converted;
+                    }
+                    return null;
+                } catch (Exception e) {
+                    if( bitmap != null ){
+                        bitmap.recycle();
+                        bitmap = null;
+                    }
+                    throw e;
+                } finally {
+                    state.end(pageIndex, bitmap);
+                }
+            }
+        };
+    }
+
+    private static void await(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if( cause instanceof IOException ){
+                throw (IOException) cause;
+            }
+            throw e;
+        }
+    }
+
+}
@@ -0,0 +1,334 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import com.brother.ptouch.sdk.Printer;
+import com.brother.ptouch.sdk.PrinterInfo.ErrorCode;
+import com.brother.ptouch.sdk.PrinterStatus;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ *   PrintJob - the handle of a submitted print job, through which it can be cancelled or timed out
+ *
+ *   The work of a job is run in attempts ({@link #attempt(Attempt)}): an attempt that fails with a
+ *   transient error (see {@link PrintJobTracker#isTransient(ErrorCode)}) is retried on a new printer
+ *   session after a jittered backoff, while permanent errors fail straight away. Cancelling the job,
+ *   or its deadline passing, stops the transfer in progress and any further attempts.
+ *
+ *   Apart from {@link #cancel(boolean)}, a job is only used by the worker thread running it.
+ */
+class PrintJob {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Job]";
+
+    /**
+     *  a unit of work that can safely be repeated when it fails with a transient error
+     */
+    interface Attempt {
+        PrinterStatus run(PrintJob job) throws Exception;
+    }
+
+    final String id;
+
+    //the printer and settings of the job; a job sent to a printer group may move to another printer before it starts
+    volatile PrintJobConfig config;
+
+    private final PrintJobTracker tracker;
+    private final PrinterSessionPool pool;
+    private final int maxAttempts;
+
+    //time the job must be done by, 0 if it has no deadline
+    private final long deadline;
+
+    private volatile boolean cancelled;
+    private volatile boolean timedOut;
+    private volatile boolean finished;
+
+    //stops the transfer in progress, e.g. by cancelling the SDK printer or closing a socket
+    private volatile Runnable cancelAction;
+
+    //true while the worker of the job holds the SDK lock, the only time the SDK may be cancelled for the job
+    private boolean holdingSdk;
+
+    private PrinterSessionPool.Session session;
+    private int retries;
+
+    //time the job was submitted, as System.nanoTime()
+    private final long submitted = System.nanoTime();
+
+    //time spent setting up sessions during the current attempt, which is not counted as transfer time
+    private long sessionNanos;
+
+    //Holds the watchdog enforcing the deadline of the job, if it has one
+    volatile ScheduledFuture<?> watchdog;
+
+    PrintJob(PrintJobTracker tracker, PrinterSessionPool pool, String id, PrintJobConfig config, int maxAttempts, long deadline) {
+        this.tracker = tracker;
+        this.pool = pool;
+        this.id = id;
+        this.config = config;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.deadline = deadline;
+    }
+
+    /**
+     *  moves a job that has not started yet to another printer
+     *
+     *  @param config the configuration of the job on the new printer
+     */
+    void retarget(PrintJobConfig config) {
+        this.config = config;
+    }
+
+    /**
+     *  @return the printer session of the job, checked out of the pool on first use
+     */
+    PrinterSessionPool.Session session() {
+        if( session == null ){
+            long start = System.nanoTime();
+            session = pool.acquire(config);
+            record(PrintMetrics.Phase.SESSION, System.nanoTime() - start);
+            final Printer printer = session.printer;
+            setCancelAction(new Runnable() {
+                public void run() {
+                    //the cancel flag of the SDK is static, set while another job holds the lock it would stop that job
+                    if( holdingSdk ){
+                        printer.cancel();
+                    }
+                }
+            });
+        }
+        return session;
+    }
+
+    /**
+     *  takes the SDK lock for the worker thread of the job; every call into the Brother SDK is made holding it, as
+     *  the SDK keeps its settings and connection in static state. The lock may be taken again by the thread holding
+     *  it, and every call must be paired with {@link #unlockSdk()}
+     *
+     *  @throws CancellationException if the job was cancelled while it waited for the lock, which is then not held
+     */
+    void lockSdk() {
+        PrinterSessionPool.SDK_LOCK.lock();
+        synchronized (this) {
+            if( cancelled ){
+                PrinterSessionPool.SDK_LOCK.unlock();
+                throw new CancellationException("job " + id + " was cancelled");
+            }
+            holdingSdk = true;
+        }
+    }
+
+    /**
+     *  releases the SDK lock taken with {@link #lockSdk()}
+     */
+    void unlockSdk() {
+        synchronized (this) {
+            if( PrinterSessionPool.SDK_LOCK.getHoldCount() == 1 ){
+                holdingSdk = false;
+                if( session != null ){
+                    //once the lock is released another job may configure the SDK
+                    session.signature = null;
+                }
+            }
+        }
+        PrinterSessionPool.SDK_LOCK.unlock();
+    }
+
+    /**
+     *  @return true if the calling thread holds the SDK lock
+     */
+    boolean holdsSdk() {
+        return PrinterSessionPool.SDK_LOCK.isHeldByCurrentThread();
+    }
+
+    /**
+     *  checks out the session of the job and applies the settings provided to the SDK, unless they were already
+     *  applied since the SDK lock was taken; only to be called holding the lock, which must not be released while
+     *  the printer is in use
+     *
+     *  @param job the settings to print with, e.g. the configuration of the job with a per-label paper override
+     *  @return the printer of the session
+     */
+    Printer printer(PrintJobConfig job) {
+        PrinterSessionPool.Session session = session();
+        if( !job.signature().equals(session.signature) ){
+            long start = System.nanoTime();
+            pool.configure(session, job);
+            record(PrintMetrics.Phase.SESSION, System.nanoTime() - start);
+        }
+        return session.printer;
+    }
+
+    /**
+     *  @param cancelAction stops the transfer in progress when the job is cancelled, replacing any previous one
+     */
+    synchronized void setCancelAction(Runnable cancelAction) {
+        this.cancelAction = cancelAction;
+        if( cancelled && cancelAction != null ){
+            cancelAction.run();
+        }
+    }
+
+    /**
+     *  runs a unit of work, retrying it while it fails with a transient error and attempts and time remain
+     *
+     *  @param attempt the work to run
+     *  @return the status of the last attempt; ERROR_CANCEL if the job was cancelled or timed out
+     */
+    PrinterStatus attempt(Attempt attempt) throws Exception {
+        for( int i = 1; ; i++ ){
+            if( cancelled ){
+                return status(ErrorCode.ERROR_CANCEL);
+            }
+
+            sessionNanos = 0;
+            long start = System.nanoTime();
+            PrinterStatus status;
+            try{
+                status = attempt.run(this);
+            }catch(CancellationException e){
+                //cancelled while waiting for the SDK lock, nothing was sent
+                status = status(ErrorCode.ERROR_CANCEL);
+            }
+            tracker.metrics.record(config.key(), PrintMetrics.Phase.TRANSFER, System.nanoTime() - start - sessionNanos);
+
+            if( cancelled ){
+                //whatever the SDK reports for an interrupted transfer, the session is not reused
+                discardSession();
+                status.errorCode = ErrorCode.ERROR_CANCEL;
+                return status;
+            }
+            if( status.errorCode == ErrorCode.ERROR_NONE || !PrintJobTracker.isTransient(status.errorCode) || i >= maxAttempts ){
+                return status;
+            }
+
+            long delay = tracker.backoffMs(i);
+            if( deadline > 0 && deadline - System.currentTimeMillis() < delay ){
+                //no time left for another attempt
+                return status;
+            }
+
+            Log.d(TAG, "job " + id + " failed with " + status.errorCode + ", retrying in " + delay + "ms");
+            retries++;
+            tracker.onRetry();
+            discardSession();
+            pool.invalidate(config.key());
+            try{
+                Thread.sleep(delay);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                return status;
+            }
+        }
+    }
+
+    /**
+     *  @param phase the phase of the job timed
+     *  @param nanos the time the phase took
+     */
+    void record(PrintMetrics.Phase phase, long nanos) {
+        if( phase == PrintMetrics.Phase.SESSION ){
+            sessionNanos += nanos;
+        }
+        tracker.metrics.record(config.key(), phase, nanos);
+    }
+
+    /**
+     *  to be called when a worker starts running the job
+     */
+    void started() {
+        record(PrintMetrics.Phase.QUEUE, System.nanoTime() - submitted);
+    }
+
+    /**
+     *  stops the job: the transfer in progress is cancelled and no further attempts are made; a job waiting for the
+     *  SDK lock is only marked cancelled, and gives up once it gets the lock
+     *
+     *  @param timeout true when the deadline of the job has passed
+     */
+    synchronized void cancel(boolean timeout) {
+        if( finished ){
+            return;
+        }
+        if( timeout ){
+            timedOut = true;
+        }
+        cancelled = true;
+        Runnable action = cancelAction;
+        if( action != null ){
+            action.run();
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     *  @return the number of retries made so far
+     */
+    int getRetries() {
+        return retries;
+    }
+
+    /**
+     *  @param status the final status of the job
+     *  @return the status reported to JS: the error code, or {@link PrintJobTracker#TIMEOUT_STATUS} if the job timed out
+     */
+    String describe(PrinterStatus status) {
+        if( timedOut ){
+            return PrintJobTracker.TIMEOUT_STATUS;
+        }
+        return "" + (status == null ? ErrorCode.ERROR_INTERNAL_ERROR : status.errorCode);
+    }
+
+    /**
+     *  hands the session back to the pool and stops tracking the job
+     *
+     *  @param status the final status of the job, or null if it never ran
+     */
+    void finish(PrinterStatus status) {
+        synchronized (this) {
+            //a late cancel must not reach the session once it is back in the pool
+            finished = true;
+            cancelAction = null;
+        }
+        ScheduledFuture<?> deadline = watchdog;
+        if( deadline != null ){
+            deadline.cancel(false);
+        }
+        if( session != null ){
+            pool.release(session, status != null && status.errorCode == ErrorCode.ERROR_NONE && !cancelled);
+            session = null;
+        }
+        if( status != null ){
+            record(PrintMetrics.Phase.TOTAL, System.nanoTime() - submitted);
+        }
+        tracker.onFinished(this, status);
+    }
+
+    private void discardSession() {
+        synchronized (this) {
+            cancelAction = null;
+        }
+        if( session != null ){
+            pool.release(session, false);
+            session = null;
+        }
+    }
+
+    private static PrinterStatus status(ErrorCode errorCode) {
+        PrinterStatus status = new PrinterStatus();
+        status.errorCode = errorCode;
+        return status;
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *   PrintJobConfig - the printer and settings a single print job runs with
+ *
+ *   A config is captured from the printer entry (as found in the discovered printer map) when the job
+ *   is submitted and never changes afterwards, so a job queued behind others prints with the paper it
+ *   asked for, whatever later requests or discovery sweeps do to the shared printer entries.
+ */
+final class PrintJobConfig {
+
+    //Holds the key jobs for the USB attached printer are queued and pooled under
+    static final String USB_PRINTER = "usb";
+
+    final boolean usb;
+    final String serial;
+    final String ipAddress;
+    final String macAddress;
+    final String modelName;
+    final String paperName;
+
+    //Holds the "name:value" options of the request, read only
+    final Map<String,String> options;
+
+    private PrintJobConfig(boolean usb, String serial, String ipAddress, String macAddress, String modelName, String paperName, Map<String,String> options) {
+        this.usb = usb;
+        this.serial = serial;
+        this.ipAddress = ipAddress;
+        this.macAddress = macAddress;
+        this.modelName = modelName;
+        this.paperName = paperName;
+        this.options = options;
+    }
+
+    /**
+     *  captures the configuration of a job
+     *
+     *  @param printer the printer (converted to a Map object) to print to
+     *  @param options the options of the request, a "paper" option overrides the paper of the printer for this job only
+     *  @return the configuration of the job
+     */
+    static PrintJobConfig of(Map<String,String> printer, Map<String,String> options) {
+        String paperName = options.get("paper") != null ? options.get("paper") : printer.get("paperName");
+        return new PrintJobConfig(false, printer.get("serNo"), printer.get("ipAddress"), printer.get("macAddress"),
+                                  printer.get("modelName"), paperName,
+                                  Collections.unmodifiableMap(new HashMap<String,String>(options)));
+    }
+
+    /**
+     *  captures the configuration of a job for the USB attached printer
+     *
+     *  @param paperName the paper the printer prints on, unless the options carry a "paper" override
+     *  @param options the options of the request
+     *  @return the configuration of the job
+     */
+    static PrintJobConfig usb(String paperName, Map<String,String> options) {
+        return new PrintJobConfig(true, null, null, null, null,
+                                  options.get("paper") != null ? options.get("paper") : paperName,
+                                  Collections.unmodifiableMap(new HashMap<String,String>(options)));
+    }
+
+    /**
+     *  @param paperName the paper to print on
+     *  @return this configuration printing on another paper, e.g. for a per-label override within a batch
+     */
+    PrintJobConfig withPaper(String paperName) {
+        if( paperName == null || paperName.equals(this.paperName) ){
+            return this;
+        }
+        return new PrintJobConfig(usb, serial, ipAddress, macAddress, modelName, paperName, options);
+    }
+
+    /**
+     *  @return the key the job is queued and pooled under: the serial number, or the address of a printer without one
+     */
+    String key() {
+        if( usb ){
+            return USB_PRINTER;
+        }
+        return serial != null ? serial : ipAddress;
+    }
+
+    /**
+     *  @return the settings an SDK printer must have been configured with to run this job
+     */
+    String signature() {
+        if( usb ){
+            return USB_PRINTER + "|" + paperName;
+        }
+        return ipAddress + "|" + macAddress + "|" + paperName;
+    }
+
+}
@@ -0,0 +1,260 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import com.brother.ptouch.sdk.PrinterInfo.ErrorCode;
+import com.brother.ptouch.sdk.PrinterStatus;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *   PrintJobTracker - keeps the handles of submitted print jobs so they can be cancelled by id
+ *
+ *   Jobs are identified by the id JS sent with them ("job:id") and may carry a deadline
+ *   ("timeout:ms", counted from submission) and a number of retries ("retries:n"). A single
+ *   watchdog thread cancels jobs whose deadline passes, whether they are still queued or running.
+ */
+class PrintJobTracker {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Jobs]";
+
+    //status reported for a job whose deadline passed
+    static final String TIMEOUT_STATUS = "ERROR_TIMEOUT";
+
+    //default number of retries after a transient error
+    static final int DEFAULT_RETRIES = 2;
+
+    //backoff before the first retry, doubled for every further retry up to MAX_BACKOFF_MS
+    static final long BASE_BACKOFF_MS = 250;
+    static final long MAX_BACKOFF_MS = 4000;
+
+    //Holds the jobs submitted and not yet finished, keyed by job id
+    private final Map<String,PrintJob> jobs = new ConcurrentHashMap<String,PrintJob>();
+
+    private final PrinterSessionPool pool;
+
+    /**
+     *  notified of every job that finishes, whether it ran or not
+     */
+    interface Listener {
+        void onFinished(PrintJob job, PrinterStatus status);
+    }
+
+    private volatile Listener listener;
+
+    //Holds the metrics the jobs record their phase timings and statuses in
+    final PrintMetrics metrics;
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BrotherPrinter-watchdog");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong cancellations = new AtomicLong();
+
+    /**
+     *  @param pool the pool the jobs take their printer sessions from
+     *  @param metrics the metrics the jobs are recorded in
+     */
+    PrintJobTracker(PrinterSessionPool pool, PrintMetrics metrics) {
+        this.pool = pool;
+        this.metrics = metrics;
+    }
+
+    /**
+     *  @param listener notified when a job finishes, replacing any previous one
+     */
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     *  @param options the options of a print request
+     *  @return the "retries:" option, or the default number of retries
+     *  @throws IllegalArgumentException if the option is not a whole number of 0 or more
+     */
+    static int retriesOf(Map<String,String> options) {
+        String value = options.get("retries");
+        if( value == null ){
+            return DEFAULT_RETRIES;
+        }
+        long retries = parse(value);
+        if( retries < 0 || retries >= Integer.MAX_VALUE ){
+            throw new IllegalArgumentException("Invalid retries " + value + ", expected a number of 0 or more.");
+        }
+        return (int) retries;
+    }
+
+    /**
+     *  @param options the options of a print request
+     *  @return the "timeout:" option in ms, or 0 for no timeout
+     *  @throws IllegalArgumentException if the option is not a whole number of 0 or more
+     */
+    static long timeoutOf(Map<String,String> options) {
+        String value = options.get("timeout");
+        if( value == null ){
+            return 0;
+        }
+        long timeoutMs = parse(value);
+        if( timeoutMs < 0 ){
+            throw new IllegalArgumentException("Invalid timeout " + value + ", expected a number of ms of 0 or more.");
+        }
+        return timeoutMs;
+    }
+
+    private static long parse(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     *  creates the handle of a job about to be submitted, arming its deadline
+     *
+     *  @param config the configuration of the job, whose "job:", "timeout:" and "retries:" options are applied; the
+     *                options must have been checked with {@link #retriesOf(Map)} and {@link #timeoutOf(Map)}
+     *  @return the handle of the job
+     */
+    PrintJob create(PrintJobConfig config) {
+        String id = config.options.get("job");
+        if( id == null || id.length() == 0 ){
+            id = "native-" + nextId.incrementAndGet();
+        }
+
+        int retries = retriesOf(config.options);
+        long timeoutMs = timeoutOf(config.options);
+
+        final PrintJob job = new PrintJob(this, pool, id, config, retries + 1,
+                                          timeoutMs > 0 ? System.currentTimeMillis() + timeoutMs : 0);
+        PrintJob previous = jobs.put(id, job);
+        if( previous != null ){
+            Log.d(TAG, "job id " + id + " reused while the previous job is still tracked");
+        }
+
+        if( timeoutMs > 0 ){
+            job.watchdog = watchdog.schedule(new Runnable() {
+                public void run() {
+                    if( !job.isCancelled() ){
+                        Log.d(TAG, "job " + job.id + " timed out");
+                        timeouts.incrementAndGet();
+                        job.cancel(true);
+                    }
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        return job;
+    }
+
+    /**
+     *  cancels a queued or running job
+     *
+     *  @param id the id of the job
+     *  @return false if no job with the id is queued or running
+     */
+    boolean cancel(String id) {
+        PrintJob job = id == null ? null : jobs.get(id);
+        if( job == null ){
+            return false;
+        }
+        cancellations.incrementAndGet();
+        job.cancel(false);
+        return true;
+    }
+
+    /**
+     *  cancels every job still tracked and stops the watchdog
+     */
+    void shutdown() {
+        watchdog.shutdownNow();
+        for( PrintJob job : jobs.values() ){
+            job.cancel(false);
+        }
+    }
+
+    /**
+     *  @return the outcome and retry/timeout counters, and the ids of the jobs queued or running
+     */
+    JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("succeeded", succeeded.get());
+        stats.put("failed", failed.get());
+        stats.put("retries", retries.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("cancelled", cancellations.get());
+        stats.put("active", new JSONArray(jobs.keySet()));
+        return stats;
+    }
+
+    /**
+     *  @param errorCode the error a print attempt failed with
+     *  @return true for errors that may clear by themselves (connection problems, a busy printer), which are retried;
+     *          errors that need the user (cover open, wrong or missing paper...) or a different request are not
+     */
+    static boolean isTransient(ErrorCode errorCode) {
+        switch( errorCode ){
+            case ERROR_COMMUNICATION_ERROR:
+            case ERROR_BUSY:
+            case ERROR_BUFFER_FULL:
+            case ERROR_CREATE_SOCKET_FAILED:
+            case ERROR_CONNECT_SOCKET_FAILED:
+            case ERROR_GET_OUTPUT_STREAM_FAILED:
+            case ERROR_GET_INPUT_STREAM_FAILED:
+            case ERROR_CLOSE_SOCKET_FAILED:
+            case ERROR_BROTHER_PRINTER_NOT_FOUND:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     *  @param attempt the number of the attempt that failed, from 1
+     *  @return the time to wait before the next attempt: exponential, with half of it randomized so printers
+     *          recovering from an outage are not hit by every client at once
+     */
+    long backoffMs(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt - 1, 16));
+        return ceiling / 2 + (long) (Math.random() * (ceiling / 2));
+    }
+
+    void onRetry() {
+        retries.incrementAndGet();
+    }
+
+    void onFinished(PrintJob job, PrinterStatus status) {
+        jobs.remove(job.id, job);
+        metrics.recordStatus(job.config.key(), job.describe(status));
+        if( status != null && status.errorCode == ErrorCode.ERROR_NONE && !job.isCancelled() ){
+            succeeded.incrementAndGet();
+        }
+        else{
+            failed.incrementAndGet();
+        }
+        Listener listener = this.listener;
+        if( listener != null ){
+            listener.onFinished(job, status);
+        }
+    }
+
+}
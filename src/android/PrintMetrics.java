@@ -0,0 +1,198 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *   PrintMetrics - latency histograms for every phase of a print job, and counts of the statuses jobs end with
+ *
+ *   Metrics are kept per printer (by the key of its print queue) and for all printers together.
+ *   Recording only touches atomic counters, so it is done for every job; the histograms are only
+ *   summarized when the metrics are read.
+ */
+class PrintMetrics {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Metrics]";
+
+    //key of the metrics summed over all printers
+    static final String ALL_PRINTERS = "all";
+
+    /**
+     *  the phases a print job is timed in
+     */
+    enum Phase {
+        //from submission until a worker picks the job up
+        QUEUE,
+        //base64 and image decoding, or PDF page and layout label rendering
+        DECODE,
+        //scaling and conversion to the printer colors
+        PREPROCESS,
+        //checking out and configuring a printer session (setPrinterInfo)
+        SESSION,
+        //sending the label and waiting for the status the printer returns, per attempt
+        TRANSFER,
+        //from submission until the result is reported
+        TOTAL,
+        //querying the printer status in the background, see PrinterStatusMonitor
+        STATUS;
+
+        String key() {
+            return name().toLowerCase(Locale.US);
+        }
+    }
+
+    /**
+     *  receives the metrics pushed periodically
+     */
+    interface Listener {
+        void onMetrics(JSONObject metrics);
+    }
+
+    private static class PrinterMetrics {
+        final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+        final ConcurrentMap<String,AtomicLong> statuses = new ConcurrentHashMap<String,AtomicLong>();
+
+        PrinterMetrics() {
+            for( int i = 0; i < phases.length; i++ ){
+                phases[i] = new LatencyHistogram();
+            }
+        }
+
+        void countStatus(String status) {
+            AtomicLong counter = statuses.get(status);
+            if( counter == null ){
+                AtomicLong created = new AtomicLong();
+                counter = statuses.putIfAbsent(status, created);
+                if( counter == null ){
+                    counter = created;
+                }
+            }
+            counter.incrementAndGet();
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject phaseJson = new JSONObject();
+            for( Phase phase : Phase.values() ){
+                LatencyHistogram histogram = phases[phase.ordinal()];
+                if( histogram.getCount() > 0 ){
+                    phaseJson.put(phase.key(), histogram.toJSON());
+                }
+            }
+            JSONObject statusJson = new JSONObject();
+            for( Map.Entry<String,AtomicLong> entry : statuses.entrySet() ){
+                statusJson.put(entry.getKey(), entry.getValue().get());
+            }
+            JSONObject json = new JSONObject();
+            json.put("phases", phaseJson);
+            json.put("statuses", statusJson);
+            return json;
+        }
+    }
+
+    private final PrinterMetrics all = new PrinterMetrics();
+    private final ConcurrentMap<String,PrinterMetrics> printers = new ConcurrentHashMap<String,PrinterMetrics>();
+    private final long started = System.currentTimeMillis();
+
+    private final ScheduledExecutorService pusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BrotherPrinter-metrics");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private ScheduledFuture<?> push;
+
+    /**
+     *  @param printer the key of the printer the job ran on
+     *  @param phase the phase timed
+     *  @param nanos the time the phase took
+     */
+    void record(String printer, Phase phase, long nanos) {
+        all.phases[phase.ordinal()].record(nanos);
+        metricsFor(printer).phases[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     *  @param printer the key of the printer the job ran on
+     *  @param status the status the job was reported with, e.g. "ERROR_NONE"
+     */
+    void recordStatus(String printer, String status) {
+        all.countStatus(status);
+        metricsFor(printer).countStatus(status);
+    }
+
+    /**
+     *  @return the phase histograms and status counts of every printer, and of all printers together
+     */
+    JSONObject toJSON() throws JSONException {
+        JSONObject printerJson = new JSONObject();
+        for( Map.Entry<String,PrinterMetrics> entry : printers.entrySet() ){
+            printerJson.put(entry.getKey(), entry.getValue().toJSON());
+        }
+        JSONObject json = new JSONObject();
+        json.put("since", started);
+        json.put(ALL_PRINTERS, all.toJSON());
+        json.put("printers", printerJson);
+        return json;
+    }
+
+    /**
+     *  pushes the metrics to a listener at a fixed interval, replacing any previous listener
+     *
+     *  @param intervalMs the time between pushes, 0 to stop pushing
+     *  @param listener receives the metrics
+     */
+    synchronized void push(long intervalMs, final Listener listener) {
+        if( push != null ){
+            push.cancel(false);
+            push = null;
+        }
+        if( intervalMs <= 0 ){
+            return;
+        }
+        push = pusher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try{
+                    listener.onMetrics(toJSON());
+                }catch(Exception e){
+                    Log.d(TAG, "metrics push failed: " + e.toString());
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    void shutdown() {
+        pusher.shutdownNow();
+    }
+
+    private PrinterMetrics metricsFor(String printer) {
+        if( printer == null ){
+            printer = "unknown";
+        }
+        PrinterMetrics metrics = printers.get(printer);
+        if( metrics == null ){
+            PrinterMetrics created = new PrinterMetrics();
+            metrics = printers.putIfAbsent(printer, created);
+            if( metrics == null ){
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *   PrintScheduler - runs print jobs in order, one printer at a time
+ *
+ *   Every target printer gets its own FIFO queue drained by a single worker thread, so jobs sent to
+ *   the same printer never overlap on the wire while jobs for different printers run in parallel.
+ *   The Brother SDK keeps its state in static fields, so the workers still take turns for every call
+ *   into the SDK ({@link PrinterSessionPool#SDK_LOCK}); only jobs printed over the raw print port
+ *   ({@link SocketTransport}) overlap on the wire. Queues are bounded; a job submitted to a full
+ *   queue is rejected rather than buffered.
+ */
+class PrintScheduler {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Scheduler]";
+
+    //default number of jobs that may wait behind the running job of a printer
+    static final int DEFAULT_MAX_QUEUE_DEPTH = 32;
+
+    //time an idle worker thread is kept before it is released
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     *  a unit of work queued for a printer, timestamped so wait times can be reported
+     */
+    static class Job implements Runnable {
+        final long id;
+        final String description;
+        final Runnable task;
+        final long submittedAt = System.currentTimeMillis();
+        volatile long startedAt;
+
+        Job(long id, String description, Runnable task) {
+            this.id = id;
+            this.description = description;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     *  the queue and worker serving a single printer
+     */
+    private static class Worker {
+        final ThreadPoolExecutor executor;
+        volatile Job inFlight;
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong totalWaitMs = new AtomicLong();
+        final AtomicLong maxWaitMs = new AtomicLong();
+
+        Worker(final String key, int maxQueueDepth) {
+            executor = new ThreadPoolExecutor(1, 1, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(maxQueueDepth),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "BrotherPrinter-" + key);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }) {
+                @Override
+                protected void beforeExecute(Thread t, Runnable r) {
+                    Job job = (Job) r;
+                    job.startedAt = System.currentTimeMillis();
+                    long waited = job.startedAt - job.submittedAt;
+                    totalWaitMs.addAndGet(waited);
+                    long max;
+                    while( waited > (max = maxWaitMs.get()) && !maxWaitMs.compareAndSet(max, waited) );
+                    inFlight = job;
+                }
+
+                @Override
+                protected void afterExecute(Runnable r, Throwable t) {
+                    inFlight = null;
+                    completed.incrementAndGet();
+                    if( t != null ){
+                        Log.d(TAG, "job " + ((Job) r).id + " failed: " + t);
+                    }
+                }
+            };
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    //Holds the worker of each printer, keyed by printer serial number
+    private final Map<String,Worker> workers = new HashMap<String,Worker>();
+
+    private final int maxQueueDepth;
+
+    private final AtomicLong nextJobId = new AtomicLong();
+
+    PrintScheduler() {
+        this(DEFAULT_MAX_QUEUE_DEPTH);
+    }
+
+    PrintScheduler(int maxQueueDepth) {
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    /**
+     *  queues a task behind any other work for the same printer
+     *
+     *  @param printerKey the serial number (or other stable key) of the target printer
+     *  @param description a short human readable description, reported by {@link #getStatus()}
+     *  @param task the work to run
+     *  @return the queued job, or null when the queue of the printer is full
+     */
+    Job submit(String printerKey, String description, Runnable task) {
+        Worker worker = workerFor(printerKey);
+        Job job = new Job(nextJobId.incrementAndGet(), description, task);
+        try {
+            worker.executor.execute(job);
+            return job;
+        } catch (RejectedExecutionException e) {
+            worker.rejected.incrementAndGet();
+            Log.d(TAG, "queue full for " + printerKey + ", rejected " + description);
+            return null;
+        }
+    }
+
+    /**
+     *  @param printerKey the serial number of the printer
+     *  @return the number of jobs waiting (not counting the running one) for the printer
+     */
+    int getQueueDepth(String printerKey) {
+        Worker worker;
+        synchronized (workers) {
+            worker = workers.get(printerKey);
+        }
+        return worker == null ? 0 : worker.executor.getQueue().size();
+    }
+
+    /**
+     *  @param printerKey the serial number of the printer
+     *  @return the number of jobs waiting or running for the printer
+     */
+    int getLoad(String printerKey) {
+        Worker worker;
+        synchronized (workers) {
+            worker = workers.get(printerKey);
+        }
+        return worker == null ? 0 : worker.executor.getQueue().size() + (worker.inFlight != null ? 1 : 0);
+    }
+
+    int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     *  @return the depth, running job and wait times of every printer queue
+     */
+    JSONObject getStatus() throws JSONException {
+        long now = System.currentTimeMillis();
+        JSONObject status = new JSONObject();
+        synchronized (workers) {
+            for( Map.Entry<String,Worker> entry : workers.entrySet() ){
+                Worker worker = entry.getValue();
+                JSONObject queue = new JSONObject();
+                long completed = worker.completed.get();
+                queue.put("depth", worker.executor.getQueue().size());
+                queue.put("maxDepth", maxQueueDepth);
+                queue.put("completed", completed);
+                queue.put("rejected", worker.rejected.get());
+                queue.put("avgWaitMs", completed == 0 ? 0 : worker.totalWaitMs.get() / completed);
+                queue.put("maxWaitMs", worker.maxWaitMs.get());
+
+                Job job = worker.inFlight;
+                if( job != null ){
+                    JSONObject inFlight = new JSONObject();
+                    inFlight.put("id", job.id);
+                    inFlight.put("description", job.description);
+                    inFlight.put("waitedMs", job.startedAt - job.submittedAt);
+                    inFlight.put("runningMs", now - job.startedAt);
+                    queue.put("inFlight", inFlight);
+                }
+
+                Runnable head = worker.executor.getQueue().peek();
+                if( head != null ){
+                    queue.put("oldestWaitMs", now - ((Job) head).submittedAt);
+                }
+
+                status.put(entry.getKey(), queue);
+            }
+        }
+        return status;
+    }
+
+    /**
+     *  stops all workers, dropping any jobs that have not started
+     */
+    void shutdown() {
+        synchronized (workers) {
+            for( Worker worker : workers.values() ){
+                worker.executor.shutdownNow();
+            }
+            workers.clear();
+        }
+    }
+
+    private Worker workerFor(String printerKey) {
+        synchronized (workers) {
+            Worker worker = workers.get(printerKey);
+            if( worker == null ){
+                worker = new Worker(printerKey, maxQueueDepth);
+                workers.put(printerKey, worker);
+            }
+            return worker;
+        }
+    }
+
+}
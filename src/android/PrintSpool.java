@@ -0,0 +1,597 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ *   PrintSpool - print jobs kept on disk until they have printed
+ *
+ *   A spooled job is a label already converted for its paper and kept in the {@link RasterCache},
+ *   so its record only holds the job id, the printer, the cache key and the options of the request.
+ *   Records are appended to a journal in app storage and synced before the job is acknowledged; a
+ *   second record marks the job done once it printed (or failed for good). At startup the journal
+ *   is read back, a record torn by a crash is cut off, and the jobs still pending are handed to the
+ *   {@link Replayer} again. The journal is rewritten with the pending jobs only once most of its
+ *   records are done, so it stays proportional to the jobs pending.
+ *
+ *   Jobs for a printer that could not be reached (or was not ready) wait until the printer is seen
+ *   again: {@link #onAvailable(String)} replays them at once, otherwise a single job is tried every
+ *   {@link #RETRY_MS} to find out whether the printer is back.
+ */
+class PrintSpool {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Spool]";
+
+    private static final String JOURNAL = "journal";
+
+    //time between two attempts to print to a printer whose last spooled job could not reach it
+    static final long RETRY_MS = 30000;
+
+    //most jobs the spool holds, an entry costs a few hundred bytes of memory
+    static final int MAX_PENDING = 10000;
+
+    //journal records below which the journal is never compacted
+    private static final int COMPACT_MIN_RECORDS = 256;
+
+    //ids of the jobs done most recently, kept to drop a job submitted again with the same id
+    private static final int RECENT_IDS = 1024;
+
+    //largest record read back, anything longer is a torn or corrupt record
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private static final byte RECORD_ADD = 1;
+    private static final byte RECORD_DONE = 2;
+
+    //prefix of the key jobs sent to a printer group are spooled under
+    static final String GROUP_PREFIX = "group:";
+
+    /**
+     *  a spooled job
+     */
+    static class Entry {
+        final String id;
+        //Holds the key of the printer, or GROUP_PREFIX and the name of the group
+        final String printerKey;
+        final String cacheKey;
+        final Map<String,String> options;
+        final long createdAt;
+
+        //true while the job is queued on its printer
+        boolean queued;
+
+        Entry(String id, String printerKey, String cacheKey, Map<String,String> options, long createdAt) {
+            this.id = id;
+            this.printerKey = printerKey;
+            this.cacheKey = cacheKey;
+            this.options = options;
+            this.createdAt = createdAt;
+        }
+
+        boolean isGrouped() {
+            return printerKey.startsWith(GROUP_PREFIX);
+        }
+    }
+
+    /**
+     *  queues the spooled jobs on their printers
+     */
+    interface Replayer {
+        /**
+         *  @param entry the job to queue; the job must end with {@link #complete(String)} or {@link #release(Entry, boolean)}
+         *  @return false if the job could not be queued now (printer not found, not ready or queue full)
+         */
+        boolean replay(Entry entry);
+    }
+
+    private final File directory;
+    private final File journal;
+    private Replayer replayer;
+
+    //Holds the pending jobs by id, oldest first
+    private final Map<String,Entry> pending = new LinkedHashMap<String,Entry>();
+
+    //Holds the pending jobs of every printer (or group), oldest first
+    private final Map<String,LinkedHashMap<String,Entry>> byPrinter = new HashMap<String,LinkedHashMap<String,Entry>>();
+
+    //Holds the time a spooled job last found a printer unreachable, by printer key
+    private final Map<String,Long> downSince = new HashMap<String,Long>();
+
+    //Holds the id of the job sent to find out if an unreachable printer is back, by printer key
+    private final Map<String,String> probes = new HashMap<String,String>();
+
+    private final Map<String,Boolean> recentIds = new LinkedHashMap<String,Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest) {
+            return size() > RECENT_IDS;
+        }
+    };
+
+    private FileOutputStream out;
+    private boolean loaded;
+    private int records;
+    private long journalBytes;
+
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong replays = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private volatile long recoveredNanos;
+
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BrotherPrinter-spool");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     *  @param directory the directory the journal is kept in, usually under the app files dir
+     */
+    PrintSpool(File directory) {
+        this.directory = directory;
+        this.journal = new File(directory, JOURNAL);
+        if( !directory.exists() && !directory.mkdirs() ){
+            Log.d(TAG, "could not create spool directory " + directory);
+        }
+    }
+
+    void setReplayer(Replayer replayer) {
+        this.replayer = replayer;
+    }
+
+    /**
+     *  reads the journal back, once; called by the first use of the spool otherwise
+     *
+     *  @return the jobs pending
+     */
+    synchronized List<Entry> load() throws IOException {
+        if( !loaded ){
+            long start = System.nanoTime();
+            long valid = read();
+            if( valid < journal.length() ){
+                Log.d(TAG, "journal cut at " + valid + " of " + journal.length() + " bytes");
+                RandomAccessFile file = new RandomAccessFile(journal, "rw");
+                try {
+                    file.setLength(valid);
+                } finally {
+                    file.close();
+                }
+            }
+            journalBytes = valid;
+            loaded = true;
+            if( !compactIfNeeded() ){
+                out = new FileOutputStream(journal, true);
+            }
+            recoveredNanos = System.nanoTime() - start;
+            Log.d(TAG, "recovered " + pending.size() + " jobs from " + records + " records in " + recoveredNanos / 1000000 + "ms");
+        }
+        return new ArrayList<Entry>(pending.values());
+    }
+
+    /**
+     *  retries the jobs of unreachable printers every {@link #RETRY_MS}
+     */
+    void start() {
+        retries.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                replay(null);
+            }
+        }, RETRY_MS, RETRY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *  spools a job; the record is on disk when this method returns
+     *
+     *  @param id the id of the job
+     *  @param printerKey the key of the printer, or {@link #GROUP_PREFIX} and the name of a group
+     *  @param cacheKey the key of the label in the raster cache
+     *  @param options the options of the request
+     *  @return false if a job with the same id is pending or was done recently
+     *  @throws IllegalStateException if the spool holds {@link #MAX_PENDING} jobs
+     */
+    synchronized boolean add(String id, String printerKey, String cacheKey, Map<String,String> options) throws IOException {
+        load();
+        if( pending.containsKey(id) || recentIds.containsKey(id) ){
+            duplicates.incrementAndGet();
+            return false;
+        }
+        if( pending.size() >= MAX_PENDING ){
+            throw new IllegalStateException("The print spool is full (" + MAX_PENDING + " jobs pending).");
+        }
+        Entry entry = new Entry(id, printerKey, cacheKey, Collections.unmodifiableMap(new HashMap<String,String>(options)),
+                                System.currentTimeMillis());
+        append(addRecord(entry));
+        put(entry);
+        added.incrementAndGet();
+        return true;
+    }
+
+    /**
+     *  removes a job that printed, or failed in a way printing it again would not fix
+     *
+     *  @param id the id of the job
+     *  @return the job removed, or null if it was not pending
+     */
+    synchronized Entry complete(String id) {
+        Entry entry = pending.get(id);
+        if( entry == null ){
+            return null;
+        }
+        try {
+            append(doneRecord(id));
+        } catch (IOException e) {
+            //the job prints again after a restart rather than being lost
+            Log.d(TAG, "could not record " + id + " as done: " + e.toString());
+        }
+        drop(entry);
+        completed.incrementAndGet();
+        if( id.equals(probes.get(entry.printerKey)) ){
+            probes.remove(entry.printerKey);
+            downSince.remove(entry.printerKey);
+        }
+        compactIfNeeded();
+        return entry;
+    }
+
+    /**
+     *  removes a job that is waiting for its printer, e.g. when it is cancelled
+     *
+     *  @param id the id of the job
+     *  @return the job removed, or null if it was not pending or is queued (cancel the queued job instead)
+     */
+    synchronized Entry remove(String id) {
+        Entry entry = pending.get(id);
+        if( entry == null || entry.queued ){
+            return null;
+        }
+        return complete(id);
+    }
+
+    /**
+     *  hands back a job that did not print, to be replayed later
+     *
+     *  @param entry the job
+     *  @param unavailable true if the printer could not be reached or was not ready, which holds back its other jobs
+     */
+    synchronized void release(Entry entry, boolean unavailable) {
+        entry.queued = false;
+        if( entry.id.equals(probes.get(entry.printerKey)) ){
+            probes.remove(entry.printerKey);
+        }
+        if( unavailable && !entry.isGrouped() ){
+            if( !downSince.containsKey(entry.printerKey) ){
+                Log.d(TAG, "printer " + entry.printerKey + " unavailable, holding its jobs");
+            }
+            downSince.put(entry.printerKey, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     *  @param entry a job about to print
+     *  @return false if its printer became unavailable since it was queued, in which case the job must be released
+     *          without trying it; only the job probing the printer goes ahead
+     */
+    synchronized boolean shouldAttempt(Entry entry) {
+        return !downSince.containsKey(entry.printerKey) || entry.id.equals(probes.get(entry.printerKey));
+    }
+
+    /**
+     *  to be called when a printer is seen ready again: the jobs waiting for it (or for a group it may be in) are
+     *  replayed without waiting for the next retry
+     *
+     *  @param printerKey the key of the printer
+     */
+    synchronized void onAvailable(String printerKey) {
+        if( downSince.remove(printerKey) != null ){
+            probes.remove(printerKey);
+            Log.d(TAG, "printer " + printerKey + " available again");
+        }
+        replay(null);
+    }
+
+    /**
+     *  queues the pending jobs that are not queued yet, oldest first, until the queue of their printer is full;
+     *  a printer found unreachable gets a single job every {@link #RETRY_MS}
+     *
+     *  @param printerKey the printer whose jobs to replay, or null for all printers and groups
+     */
+    synchronized void replay(String printerKey) {
+        if( replayer == null || !loaded ){
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<String> keys = printerKey == null ? new ArrayList<String>(byPrinter.keySet()) : Collections.singletonList(printerKey);
+        for( String key : keys ){
+            LinkedHashMap<String,Entry> entries = byPrinter.get(key);
+            if( entries == null ){
+                continue;
+            }
+            Long down = downSince.get(key);
+            if( down != null && (now - down < RETRY_MS || probes.containsKey(key)) ){
+                continue;
+            }
+            for( Entry entry : entries.values() ){
+                if( entry.queued ){
+                    continue;
+                }
+                if( down != null ){
+                    probes.put(key, entry.id);
+                }
+                entry.queued = true;
+                if( !replayer.replay(entry) ){
+                    entry.queued = false;
+                    probes.remove(key);
+                    break;
+                }
+                replays.incrementAndGet();
+                if( down != null ){
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     *  @return the number of jobs pending
+     */
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     *  @return the jobs pending per printer and the state of the journal
+     */
+    synchronized JSONObject getStats() throws JSONException {
+        JSONObject printers = new JSONObject();
+        for( Map.Entry<String,LinkedHashMap<String,Entry>> printer : byPrinter.entrySet() ){
+            JSONObject entry = new JSONObject();
+            entry.put("pending", printer.getValue().size());
+            Long down = downSince.get(printer.getKey());
+            entry.put("unavailableSince", down == null ? 0 : down);
+            printers.put(printer.getKey(), entry);
+        }
+        JSONObject stats = new JSONObject();
+        stats.put("pending", pending.size());
+        stats.put("printers", printers);
+        stats.put("added", added.get());
+        stats.put("duplicates", duplicates.get());
+        stats.put("replays", replays.get());
+        stats.put("completed", completed.get());
+        stats.put("journalRecords", records);
+        stats.put("journalBytes", journalBytes);
+        stats.put("compactions", compactions.get());
+        stats.put("recoveryMs", recoveredNanos / 1000000.0);
+        return stats;
+    }
+
+    /**
+     *  stops the retries and closes the journal
+     */
+    synchronized void shutdown() {
+        retries.shutdownNow();
+        closeJournal();
+    }
+
+    private void put(Entry entry) {
+        pending.put(entry.id, entry);
+        LinkedHashMap<String,Entry> entries = byPrinter.get(entry.printerKey);
+        if( entries == null ){
+            entries = new LinkedHashMap<String,Entry>();
+            byPrinter.put(entry.printerKey, entries);
+        }
+        entries.put(entry.id, entry);
+    }
+
+    private void drop(Entry entry) {
+        pending.remove(entry.id);
+        recentIds.put(entry.id, Boolean.TRUE);
+        LinkedHashMap<String,Entry> entries = byPrinter.get(entry.printerKey);
+        if( entries != null ){
+            entries.remove(entry.id);
+            if( entries.isEmpty() ){
+                byPrinter.remove(entry.printerKey);
+                downSince.remove(entry.printerKey);
+                probes.remove(entry.printerKey);
+            }
+        }
+    }
+
+    /**
+     *  reads the journal into the pending jobs
+     *
+     *  @return the length of the journal up to the last complete record
+     */
+    private long read() throws IOException {
+        if( !journal.exists() ){
+            return 0;
+        }
+        long valid = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+        try {
+            CRC32 crc = new CRC32();
+            while( true ){
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    if( length <= 0 || length > MAX_RECORD_BYTES ){
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    crc.reset();
+                    crc.update(record, 0, length);
+                    if( in.readInt() != (int) crc.getValue() ){
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                apply(record);
+                valid += 8 + record.length;
+                records++;
+            }
+        } finally {
+            in.close();
+        }
+        return valid;
+    }
+
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        String id = in.readUTF();
+        if( type == RECORD_ADD ){
+            long createdAt = in.readLong();
+            String printerKey = in.readUTF();
+            String cacheKey = in.readUTF();
+            int count = in.readShort();
+            Map<String,String> options = new HashMap<String,String>();
+            for( int i = 0; i < count; i++ ){
+                options.put(in.readUTF(), in.readUTF());
+            }
+            if( !pending.containsKey(id) ){
+                put(new Entry(id, printerKey, cacheKey, Collections.unmodifiableMap(options), createdAt));
+            }
+        }
+        else if( type == RECORD_DONE ){
+            Entry entry = pending.get(id);
+            if( entry != null ){
+                drop(entry);
+            }
+            else{
+                recentIds.put(id, Boolean.TRUE);
+            }
+        }
+    }
+
+    private static byte[] addRecord(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(RECORD_ADD);
+        data.writeUTF(entry.id);
+        data.writeLong(entry.createdAt);
+        data.writeUTF(entry.printerKey);
+        data.writeUTF(entry.cacheKey);
+        data.writeShort(entry.options.size());
+        for( Map.Entry<String,String> option : entry.options.entrySet() ){
+            data.writeUTF(option.getKey());
+            data.writeUTF(option.getValue());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] doneRecord(String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(RECORD_DONE);
+        data.writeUTF(id);
+        return bytes.toByteArray();
+    }
+
+    /**
+     *  appends a record to the journal and syncs it to the storage device
+     */
+    private void append(byte[] record) throws IOException {
+        if( out == null ){
+            out = new FileOutputStream(journal, true);
+        }
+        writeFramed(out, record);
+        out.getFD().sync();
+        records++;
+        journalBytes += 8 + record.length;
+    }
+
+    private static void writeFramed(FileOutputStream out, byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(record.length + 8);
+        DataOutputStream data = new DataOutputStream(framed);
+        data.writeInt(record.length);
+        data.write(record);
+        data.writeInt((int) crc.getValue());
+        //one write, so a crash tears at most the last record
+        out.write(framed.toByteArray());
+    }
+
+    /**
+     *  rewrites the journal with the pending jobs only, once more than half of its records are obsolete
+     *
+     *  @return true if the journal was rewritten (and reopened)
+     */
+    private boolean compactIfNeeded() {
+        if( records < COMPACT_MIN_RECORDS || records <= 2 * pending.size() ){
+            return false;
+        }
+        File temp = new File(directory, JOURNAL + ".tmp");
+        try {
+            long bytes = 0;
+            FileOutputStream compacted = new FileOutputStream(temp);
+            try {
+                for( Entry entry : pending.values() ){
+                    byte[] record = addRecord(entry);
+                    writeFramed(compacted, record);
+                    bytes += 8 + record.length;
+                }
+                compacted.getFD().sync();
+            } finally {
+                compacted.close();
+            }
+            closeJournal();
+            if( !temp.renameTo(journal) ){
+                throw new IOException("could not rename " + temp);
+            }
+            Log.d(TAG, "journal compacted from " + records + " to " + pending.size() + " records");
+            records = pending.size();
+            journalBytes = bytes;
+            compactions.incrementAndGet();
+            out = new FileOutputStream(journal, true);
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "Temp file action failed: " + e.toString());
+            temp.delete();
+            return false;
+        }
+    }
+
+    private void closeJournal() {
+        if( out == null ){
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out = null;
+    }
+
+}
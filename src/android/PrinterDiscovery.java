@@ -0,0 +1,412 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import com.brother.ptouch.sdk.NetPrinter;
+import com.brother.ptouch.sdk.Printer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *   PrinterDiscovery - finds network printers and remembers them between searches
+ *
+ *   Found printers are cached (keyed by serial number) with the time they were last seen, so callers
+ *   can use them immediately instead of waiting for the SDK broadcast. A sweep searches for every
+ *   model name in a single SDK search (each search waits out the SDK broadcast timeout) while the
+ *   known printers are probed directly on their last IP address in parallel, so they are reported
+ *   before the search returns. A background refresh keeps the cache current once discovery has
+ *   been used. Only one sweep runs at a time.
+ *
+ *   Printer entries are read only: every change replaces the entry of the printer with an updated
+ *   copy, so readers on any thread see either the old or the new entry and never one being changed.
+ */
+class PrinterDiscovery {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Discovery]";
+
+    //time a printer is considered present after it was last seen
+    static final long DEFAULT_TTL_MS = 10 * 60 * 1000;
+
+    //time between background refreshes
+    static final long REFRESH_INTERVAL_MS = 2 * 60 * 1000;
+
+    //raw print port of the QL network printers, used to probe known printers
+    static final int RAW_PORT = 9100;
+    static final int PROBE_TIMEOUT_MS = 750;
+
+    //number of probes (and the model search) run at once
+    private static final int DISCOVERY_THREADS = 4;
+
+    //default paper of a newly found printer
+    static final String DEFAULT_PAPER = "W62H100";
+
+    /**
+     *  receives printers as they are found or confirmed, on a discovery thread
+     */
+    interface Listener {
+        void onPrinterFound(Map<String,String> printer);
+    }
+
+    //Holds the map of printers found, keyed by their serial number; the entries are never modified, only replaced
+    private final ConcurrentMap<String,Map<String,String>> printers = new ConcurrentHashMap<String,Map<String,String>>();
+
+    private final String[] modelNames;
+    private final String paperNames;
+    private final long ttlMs;
+
+    private final ExecutorService discoveryPool = Executors.newFixedThreadPool(DISCOVERY_THREADS, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BrotherPrinter-discovery");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BrotherPrinter-refresh");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private ScheduledFuture<?> refresh;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile long lastSweep;
+
+    //notified on the discovery thread after every sweep
+    private volatile Runnable onSweepComplete;
+
+    /**
+     *  @param modelNames the model names searched for
+     *  @param paperNames the paper names reported with every printer
+     */
+    PrinterDiscovery(String[] modelNames, String paperNames) {
+        this(modelNames, paperNames, DEFAULT_TTL_MS);
+    }
+
+    PrinterDiscovery(String[] modelNames, String paperNames, long ttlMs) {
+        this.modelNames = modelNames;
+        this.paperNames = paperNames;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     *  @return the live map of every printer known, keyed by serial number, including stale ones; the entries are read only
+     */
+    Map<String,Map<String,String>> printers() {
+        return printers;
+    }
+
+    /**
+     *  adds printers remembered from an earlier session, without replacing any found since
+     *
+     *  @param restored the printers keyed by serial number
+     */
+    void restore(Map<String,Map<String,String>> restored) {
+        for( Map.Entry<String,Map<String,String>> entry : restored.entrySet() ){
+            printers.putIfAbsent(entry.getKey(), Collections.unmodifiableMap(new HashMap<String,String>(entry.getValue())));
+        }
+    }
+
+    /**
+     *  @param onSweepComplete run after every sweep, e.g. to persist the printers found
+     */
+    void setOnSweepComplete(Runnable onSweepComplete) {
+        this.onSweepComplete = onSweepComplete;
+    }
+
+    /**
+     *  @return the printers seen within the TTL, keyed by serial number
+     */
+    Map<String,Map<String,String>> freshPrinters() {
+        long now = System.currentTimeMillis();
+        Map<String,Map<String,String>> fresh = new HashMap<String,Map<String,String>>();
+        for( Map.Entry<String,Map<String,String>> entry : printers.entrySet() ){
+            if( now - lastSeen(entry.getValue()) <= ttlMs ){
+                fresh.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     *  @return true if a full sweep completed within the refresh interval
+     */
+    boolean isRecent() {
+        return System.currentTimeMillis() - lastSweep < REFRESH_INTERVAL_MS;
+    }
+
+    /**
+     *  probes the known printers and searches for every model, blocking until all searches return
+     *
+     *  a sweep requested while another one runs does not start a second one: it waits for the running sweep to
+     *  complete instead, without notifying its listener
+     *
+     *  @param listener notified of every printer found or confirmed, may be null
+     *  @return the number of printers found or confirmed by this sweep, or -1 if it waited for another sweep
+     */
+    int sweep(final Listener listener) {
+        if( !sweeping.compareAndSet(false, true) ){
+            awaitSweep();
+            return -1;
+        }
+        final Set<String> seen = Collections.synchronizedSet(new HashSet<String>());
+        List<Future<?>> searches = new ArrayList<Future<?>>();
+        long started = System.currentTimeMillis();
+
+        try {
+            for( final Map<String,String> known : new ArrayList<Map<String,String>>(printers.values()) ){
+                searches.add(discoveryPool.submit(new Runnable() {
+                    public void run() {
+                        if( probe(known.get("ipAddress")) ){
+                            Map<String,String> printer = update(known.get("serNo"), "lastSeen", String.valueOf(System.currentTimeMillis()));
+                            if( printer == null ){
+                                return;
+                            }
+                            seen.add(printer.get("serNo"));
+                            if( listener != null ){
+                                listener.onPrinterFound(printer);
+                            }
+                        }
+                    }
+                }));
+            }
+
+            //one search for all models: the SDK waits out its broadcast timeout on every search
+            searches.add(discoveryPool.submit(new Runnable() {
+                public void run() {
+                    NetPrinter[] found;
+                    //the search goes through the static state of the SDK like a print does
+                    PrinterSessionPool.SDK_LOCK.lock();
+                    try {
+                        found = new Printer().getNetPrinters(modelNames);
+                    } finally {
+                        PrinterSessionPool.SDK_LOCK.unlock();
+                    }
+                    if( found == null ){
+                        return;
+                    }
+                    for( NetPrinter np : found ){
+                        Map<String,String> printer = record(np);
+                        if( seen.add(np.serNo) && listener != null ){
+                            listener.onPrinterFound(printer);
+                        }
+                    }
+                }
+            }));
+
+            for( Future<?> search : searches ){
+                try {
+                    search.get();
+                } catch (Exception e) {
+                    Log.d(TAG, "search failed: " + e.toString());
+                }
+            }
+        } finally {
+            synchronized (sweeping) {
+                sweeping.set(false);
+                sweeping.notifyAll();
+            }
+        }
+
+        //printers that have not been seen for a whole TTL are forgotten
+        long now = System.currentTimeMillis();
+        for( Map.Entry<String,Map<String,String>> entry : printers.entrySet() ){
+            if( !seen.contains(entry.getKey()) && now - lastSeen(entry.getValue()) > ttlMs ){
+                printers.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        lastSweep = now;
+        Log.d(TAG, "sweep found " + seen.size() + " printers in " + (now - started) + "ms");
+
+        Runnable callback = onSweepComplete;
+        if( callback != null ){
+            callback.run();
+        }
+        return seen.size();
+    }
+
+    private void awaitSweep() {
+        synchronized (sweeping) {
+            while( sweeping.get() ){
+                try {
+                    sweeping.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     *  runs a sweep in the background unless one is already running
+     */
+    void refreshAsync() {
+        if( sweeping.get() ){
+            return;
+        }
+        refresher.execute(new Runnable() {
+            public void run() {
+                if( !sweeping.get() ){
+                    sweep(null);
+                }
+            }
+        });
+    }
+
+    /**
+     *  starts the periodic background refresh, if it is not running already
+     */
+    synchronized void startBackgroundRefresh() {
+        if( refresh != null ){
+            return;
+        }
+        refresh = refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    if( !sweeping.get() ){
+                        sweep(null);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }, REFRESH_INTERVAL_MS, REFRESH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *  stops the background refresh and any search threads
+     */
+    synchronized void shutdown() {
+        refresher.shutdownNow();
+        discoveryPool.shutdownNow();
+    }
+
+    /**
+     *  @param ipAddress the address of the printer
+     *  @return true if the raw print port of the address accepts a connection
+     */
+    static boolean probe(String ipAddress) {
+        if( ipAddress == null ){
+            return false;
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(ipAddress, RAW_PORT), PROBE_TIMEOUT_MS);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //nothing to release
+            }
+        }
+    }
+
+    /**
+     *  replaces the entry of a known printer with a copy holding a changed field
+     *
+     *  @param serial the serial number of the printer
+     *  @param field the field to set
+     *  @param value the new value of the field
+     *  @return the new entry, or null if the printer is not known
+     */
+    Map<String,String> update(String serial, String field, String value) {
+        return update(serial, Collections.singletonMap(field, value));
+    }
+
+    /**
+     *  replaces the entry of a known printer with a copy holding the changed fields
+     *
+     *  @param serial the serial number of the printer
+     *  @param changes the fields to set
+     *  @return the new entry, or null if the printer is not known
+     */
+    Map<String,String> update(String serial, Map<String,String> changes) {
+        if( serial == null ){
+            return null;
+        }
+        while( true ){
+            Map<String,String> current = printers.get(serial);
+            if( current == null ){
+                return null;
+            }
+            Map<String,String> _printer = new HashMap<String,String>(current);
+            _printer.putAll(changes);
+            Map<String,String> updated = Collections.unmodifiableMap(_printer);
+            if( printers.replace(serial, current, updated) ){
+                return updated;
+            }
+        }
+    }
+
+    /**
+     *  adds or updates a printer found by the SDK, keeping the fields (paper, time of use) already recorded for it
+     */
+    private Map<String,String> record(NetPrinter np) {
+        Map<String,String> updated;
+        while( true ){
+            Map<String,String> previous = printers.get(np.serNo);
+
+            Map<String,String> _printer = new HashMap<String,String>();
+            if( previous != null ){
+                _printer.putAll(previous);
+            }
+            _printer.put("ipAddress", np.ipAddress);
+            _printer.put("macAddress", np.macAddress);
+            _printer.put("serNo", np.serNo);
+            _printer.put("nodeName", np.nodeName);
+            _printer.put("modelName", np.modelName);
+            if( _printer.get("paperName") == null ){
+                _printer.put("paperName", DEFAULT_PAPER);
+            }
+            _printer.put("paperNameArray", paperNames);
+            _printer.put("lastSeen", String.valueOf(System.currentTimeMillis()));
+            updated = Collections.unmodifiableMap(_printer);
+
+            if( previous == null ? printers.putIfAbsent(np.serNo, updated) == null : printers.replace(np.serNo, previous, updated) ){
+                break;
+            }
+        }
+
+        Log.d(TAG, "model:  " + np.modelName
+                    + "\n ip:     " + np.ipAddress
+                    + "\n mac:    " + np.macAddress
+                    + "\n serial: " + np.serNo
+                    + "\n name:   " + np.nodeName
+        );
+
+        return updated;
+    }
+
+    private static long lastSeen(Map<String,String> printer) {
+        String lastSeen = printer.get("lastSeen");
+        return lastSeen == null ? 0 : Long.parseLong(lastSeen);
+    }
+
+}
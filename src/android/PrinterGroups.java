@@ -0,0 +1,359 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import com.brother.ptouch.sdk.PrinterInfo.ErrorCode;
+import com.brother.ptouch.sdk.PrinterStatus;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *   PrinterGroups - spreads print jobs over interchangeable network printers
+ *
+ *   A group is a named list of discovered printers (by serial number) loaded with the same paper. A job
+ *   sent to a group ("group:name") is dispatched to the member with the fewest jobs queued or running,
+ *   among the members whose last job did not fail; on a tie the member used longest ago wins. A member
+ *   whose job fails is passed over for {@link #RECHECK_MS}, after which the next job dispatched to it
+ *   shows whether it has recovered. Jobs already queued behind a failed member move to another member
+ *   when they reach the front of its queue (see {@link #reroute(PrintJob)}).
+ */
+class PrinterGroups {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Groups]";
+
+    //time a member whose job failed is passed over before it is tried again
+    static final long RECHECK_MS = 30000;
+
+    //period the throughput of a member is measured over
+    static final long THROUGHPUT_WINDOW_MS = 60000;
+
+    /**
+     *  the state of a printer taking jobs for one or more groups
+     */
+    private static class Member {
+        final String serial;
+        volatile String lastStatus;
+        volatile long lastStatusAt;
+        volatile long failedAt;
+        volatile long lastDispatchAt;
+        final AtomicLong dispatched = new AtomicLong();
+        final AtomicLong succeeded = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong movedAway = new AtomicLong();
+
+        //Holds the times jobs finished within the throughput window, oldest first
+        private final ArrayDeque<Long> finishedAt = new ArrayDeque<Long>();
+
+        Member(String serial) {
+            this.serial = serial;
+        }
+
+        boolean isHealthy(long now) {
+            return failedAt == 0 || now - failedAt >= RECHECK_MS;
+        }
+
+        synchronized void onSucceeded(long now) {
+            finishedAt.addLast(now);
+            trim(now);
+        }
+
+        /**
+         *  @return the labels (jobs) per minute printed over the throughput window
+         */
+        synchronized double perMinute(long now) {
+            trim(now);
+            return finishedAt.size() * 60000.0 / THROUGHPUT_WINDOW_MS;
+        }
+
+        private void trim(long now) {
+            while( !finishedAt.isEmpty() && now - finishedAt.peekFirst() > THROUGHPUT_WINDOW_MS ){
+                finishedAt.removeFirst();
+            }
+        }
+    }
+
+    /**
+     *  a named list of printers
+     */
+    private static class Group {
+        final String name;
+        final String paperName;
+        final List<String> serials;
+
+        Group(String name, String paperName, List<String> serials) {
+            this.name = name;
+            this.paperName = paperName;
+            this.serials = serials;
+        }
+    }
+
+    //Holds the groups, keyed by name
+    private final Map<String,Group> groups = new ConcurrentHashMap<String,Group>();
+
+    //Holds the state of every printer in a group, keyed by serial number; shared by the groups it is in
+    private final Map<String,Member> members = new ConcurrentHashMap<String,Member>();
+
+    //Holds the discovered printers, keyed by serial number
+    private final Map<String,Map<String,String>> printers;
+
+    private final PrintScheduler scheduler;
+
+    /**
+     *  @param printers the discovered printers the members are looked up in
+     *  @param scheduler the scheduler whose queues tell the load of the members
+     */
+    PrinterGroups(Map<String,Map<String,String>> printers, PrintScheduler scheduler) {
+        this.printers = printers;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     *  creates or replaces a group
+     *
+     *  @param name the name of the group
+     *  @param serials the serial numbers of the members, all of which must have been discovered
+     *  @param paperName the paper the members are loaded with, used by jobs that do not name a paper; null to
+     *                   print with the paper of each member
+     *  @throws IllegalArgumentException if the group has no members or a member has not been discovered
+     */
+    void register(String name, List<String> serials, String paperName) {
+        if( name == null || name.length() == 0 ){
+            throw new IllegalArgumentException("A printer group needs a name.");
+        }
+        if( serials.isEmpty() ){
+            throw new IllegalArgumentException("Printer group " + name + " has no printers.");
+        }
+        for( String serial : serials ){
+            if( !printers.containsKey(serial) ){
+                throw new IllegalArgumentException("No printer found with serial number " + serial + ".");
+            }
+        }
+        for( String serial : serials ){
+            if( !members.containsKey(serial) ){
+                members.put(serial, new Member(serial));
+            }
+        }
+        groups.put(name, new Group(name, paperName, Collections.unmodifiableList(new ArrayList<String>(serials))));
+        Log.d(TAG, "group " + name + ": " + serials);
+    }
+
+    /**
+     *  @param name the name of the group
+     *  @return false if there was no such group
+     */
+    boolean remove(String name) {
+        return name != null && groups.remove(name) != null;
+    }
+
+    /**
+     *  @param job the configuration of a job
+     *  @return true if the job was sent to a group rather than to a printer
+     */
+    static boolean isGrouped(PrintJobConfig job) {
+        return job.options.get("group") != null;
+    }
+
+    /**
+     *  picks the printer a job sent to a group runs on
+     *
+     *  @param name the name of the group
+     *  @param options the options of the request, a "paper" option overrides the paper of the group
+     *  @return the configuration of the job on the member picked, or null if the group is unknown or none of
+     *          its printers is still discovered
+     */
+    PrintJobConfig dispatch(String name, Map<String,String> options) {
+        Group group = groups.get(name);
+        if( group == null ){
+            return null;
+        }
+        return configFor(group, pick(group, null), options);
+    }
+
+    /**
+     *  to be called when a job sent to a group reaches the front of its queue: if its printer failed since the
+     *  job was dispatched, another member that is healthy and has room in its queue is picked
+     *
+     *  @param job the job about to start
+     *  @return the configuration to move the job to, or null if it should run where it is
+     */
+    PrintJobConfig reroute(PrintJob job) {
+        PrintJobConfig config = job.config;
+        Group group = groups.get(config.options.get("group"));
+        Member current = members.get(config.key());
+        if( group == null || current == null || current.isHealthy(System.currentTimeMillis()) ){
+            return null;
+        }
+        return configFor(group, pick(group, current), config.options);
+    }
+
+    /**
+     *  records that a job moved off a failed member
+     *
+     *  @param from the configuration the job was queued with
+     *  @param to the configuration it runs with now
+     */
+    void onMoved(PrintJobConfig from, PrintJobConfig to) {
+        Member member = members.get(from.key());
+        if( member != null ){
+            member.movedAway.incrementAndGet();
+        }
+        Log.d(TAG, "job moved from " + from.key() + " to " + to.key());
+    }
+
+    /**
+     *  records the outcome of a job against the member it ran on
+     *
+     *  @param job the finished job
+     *  @param status the final status of the job, null if it never ran
+     */
+    void onFinished(PrintJob job, PrinterStatus status) {
+        if( status == null || job.isCancelled() || !isGrouped(job.config) ){
+            return;
+        }
+        Member member = members.get(job.config.key());
+        if( member == null ){
+            return;
+        }
+        long now = System.currentTimeMillis();
+        member.lastStatus = job.describe(status);
+        member.lastStatusAt = now;
+        if( status.errorCode == ErrorCode.ERROR_NONE ){
+            member.succeeded.incrementAndGet();
+            member.failedAt = 0;
+            member.onSucceeded(now);
+        }
+        else{
+            member.failed.incrementAndGet();
+            member.failedAt = now;
+            Log.d(TAG, "printer " + member.serial + " failed with " + member.lastStatus + ", passed over for " + RECHECK_MS + "ms");
+        }
+    }
+
+    /**
+     *  records the status a printer reported outside of a job, e.g. to a background status query
+     *
+     *  @param serial the serial number of the printer
+     *  @param status the status reported
+     *  @param ready false if the printer cannot print until someone attends to it
+     */
+    void onStatus(String serial, String status, boolean ready) {
+        Member member = serial == null ? null : members.get(serial);
+        if( member == null ){
+            return;
+        }
+        member.lastStatus = status;
+        member.lastStatusAt = System.currentTimeMillis();
+        if( ready ){
+            member.failedAt = 0;
+        }
+        else if( member.failedAt == 0 ){
+            member.failedAt = member.lastStatusAt;
+        }
+    }
+
+    /**
+     *  @return every group with the load, health and throughput of its members
+     */
+    JSONObject getStats() throws JSONException {
+        long now = System.currentTimeMillis();
+        JSONObject stats = new JSONObject();
+        for( Group group : groups.values() ){
+            JSONObject printerStats = new JSONObject();
+            for( String serial : group.serials ){
+                Member member = members.get(serial);
+                JSONObject entry = new JSONObject();
+                entry.put("discovered", printers.containsKey(serial));
+                entry.put("load", scheduler.getLoad(serial));
+                entry.put("healthy", member.isHealthy(now));
+                entry.put("lastStatus", member.lastStatus);
+                entry.put("lastStatusAt", member.lastStatusAt);
+                entry.put("dispatched", member.dispatched.get());
+                entry.put("succeeded", member.succeeded.get());
+                entry.put("failed", member.failed.get());
+                entry.put("movedAway", member.movedAway.get());
+                entry.put("perMinute", member.perMinute(now));
+                printerStats.put(serial, entry);
+            }
+            JSONObject entry = new JSONObject();
+            entry.put("paper", group.paperName);
+            entry.put("serials", new JSONArray(group.serials));
+            entry.put("printers", printerStats);
+            stats.put(group.name, entry);
+        }
+        return stats;
+    }
+
+    /**
+     *  @param failed the member a job is moving off, or null for a new job
+     *  @return the least loaded discovered member, healthy members first; null if no member is discovered or, when
+     *          moving a job, no other member is healthy and has room in its queue
+     */
+    private Member pick(Group group, Member failed) {
+        long now = System.currentTimeMillis();
+        Member best = null;
+        int bestLoad = 0;
+        boolean bestHealthy = false;
+        synchronized (this) {
+            for( String serial : group.serials ){
+                Member member = members.get(serial);
+                if( member == null || member == failed || !printers.containsKey(serial) ){
+                    continue;
+                }
+                boolean healthy = member.isHealthy(now);
+                if( failed != null && (!healthy || scheduler.getQueueDepth(serial) >= scheduler.getMaxQueueDepth()) ){
+                    continue;
+                }
+                int load = scheduler.getLoad(serial);
+                boolean better;
+                if( best == null || healthy != bestHealthy ){
+                    better = best == null || healthy;
+                }
+                else if( healthy ){
+                    better = load < bestLoad || (load == bestLoad && member.lastDispatchAt < best.lastDispatchAt);
+                }
+                else{
+                    //all members failed: try the one that failed longest ago
+                    better = member.failedAt < best.failedAt;
+                }
+                if( better ){
+                    best = member;
+                    bestLoad = load;
+                    bestHealthy = healthy;
+                }
+            }
+            if( best != null ){
+                best.lastDispatchAt = now;
+                best.dispatched.incrementAndGet();
+            }
+        }
+        return best;
+    }
+
+    /**
+     *  @return the configuration of a job on a member, null if there is no member or it is no longer discovered
+     */
+    private PrintJobConfig configFor(Group group, Member member, Map<String,String> options) {
+        Map<String,String> printer = member == null ? null : printers.get(member.serial);
+        if( printer == null ){
+            return null;
+        }
+        if( group.paperName != null && options.get("paper") == null ){
+            options = new HashMap<String,String>(options);
+            options.put("paper", group.paperName);
+        }
+        return PrintJobConfig.of(printer, options);
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *   PrinterRegistry - remembers the known printers and the session printer across app restarts
+ *
+ *   The printers (as the Map objects used throughout the plugin, keyed by serial number) are kept in a
+ *   small JSON file in app storage. Saves are coalesced and written on a background thread, replacing
+ *   the file atomically.
+ */
+class PrinterRegistry {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Registry]";
+
+    //delay used to coalesce bursts of changes into a single write
+    private static final long SAVE_DELAY_MS = 1000;
+
+    //printer fields that are derived rather than persisted
+    private static final String[] TRANSIENT_FIELDS = {"paperNameArray"};
+
+    /**
+     *  the printers and session printer read back from storage
+     */
+    static class Snapshot {
+        final Map<String,Map<String,String>> printers = new HashMap<String,Map<String,String>>();
+        String selectedSerial;
+    }
+
+    /**
+     *  provides the state to write when a save is due
+     */
+    interface Source {
+        Map<String,Map<String,String>> printers();
+        String selectedSerial();
+    }
+
+    private final File file;
+    private final Source source;
+    private final AtomicBoolean savePending = new AtomicBoolean();
+
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BrotherPrinter-registry");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     *  @param file the file the registry is kept in
+     *  @param source provides the printers and session printer to save
+     */
+    PrinterRegistry(File file, Source source) {
+        this.file = file;
+        this.source = source;
+    }
+
+    /**
+     *  reads the registry back from storage
+     *
+     *  @param paperNames the paper names to report with every printer
+     *  @return the stored state, empty if nothing has been stored or the file cannot be read
+     */
+    Snapshot load(String paperNames) {
+        Snapshot snapshot = new Snapshot();
+        if( !file.exists() ){
+            return snapshot;
+        }
+        try {
+            JSONObject root = new JSONObject(read(file));
+            snapshot.selectedSerial = root.optString("selected", null);
+            JSONObject printers = root.optJSONObject("printers");
+            if( printers != null ){
+                Iterator<String> serials = printers.keys();
+                while( serials.hasNext() ){
+                    String serial = serials.next();
+                    JSONObject stored = printers.getJSONObject(serial);
+                    Map<String,String> _printer = new HashMap<String,String>();
+                    Iterator<String> fields = stored.keys();
+                    while( fields.hasNext() ){
+                        String field = fields.next();
+                        _printer.put(field, stored.getString(field));
+                    }
+                    _printer.put("paperNameArray", paperNames);
+                    snapshot.printers.put(serial, _printer);
+                }
+            }
+            Log.d(TAG, "restored " + snapshot.printers.size() + " printers");
+        } catch (IOException e) {
+            Log.d(TAG, "could not read " + file + ": " + e.toString());
+        } catch (JSONException e) {
+            Log.d(TAG, "discarding unreadable registry: " + e.toString());
+        }
+        return snapshot;
+    }
+
+    /**
+     *  schedules the current state to be written, coalescing with any save already pending
+     */
+    void saveAsync() {
+        if( !savePending.compareAndSet(false, true) ){
+            return;
+        }
+        writer.schedule(new Runnable() {
+            public void run() {
+                savePending.set(false);
+                save();
+            }
+        }, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *  writes any pending save and stops the writer thread
+     */
+    void shutdown() {
+        writer.shutdown();
+        if( savePending.getAndSet(false) ){
+            save();
+        }
+    }
+
+    private void save() {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            JSONObject printers = new JSONObject();
+            for( Map.Entry<String,Map<String,String>> entry : source.printers().entrySet() ){
+                Map<String,String> stored = new HashMap<String,String>(entry.getValue());
+                for( String field : TRANSIENT_FIELDS ){
+                    stored.remove(field);
+                }
+                printers.put(entry.getKey(), new JSONObject(stored));
+            }
+            JSONObject root = new JSONObject();
+            root.put("printers", printers);
+            String selected = source.selectedSerial();
+            if( selected != null ){
+                root.put("selected", selected);
+            }
+
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(root.toString().getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            if( !temp.renameTo(file) ){
+                throw new IOException("could not rename " + temp);
+            }
+        } catch (Exception e) {
+            Log.d(TAG, "could not save registry: " + e.toString());
+            temp.delete();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int count;
+            while( (count = in.read(buffer)) != -1 ){
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+}
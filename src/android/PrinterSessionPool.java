@@ -0,0 +1,233 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.hardware.usb.UsbManager;
+import android.util.Log;
+
+import com.brother.ptouch.sdk.LabelInfo;
+import com.brother.ptouch.sdk.Printer;
+import com.brother.ptouch.sdk.PrinterInfo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *   PrinterSessionPool - keeps {@link Printer} instances between print jobs
+ *
+ *   Sessions are keyed by the serial number of the printer (see {@link PrintJobConfig#key()})
+ *   and are handed out exclusively: a session that is checked out is not visible to other jobs
+ *   until it is released. Idle sessions are evicted after {@link #idleTimeoutMs}.
+ *
+ *   The SDK keeps the printer settings in static state rather than in the Printer instance, so a
+ *   session is configured for its job every time it is used ({@link #configure(Session, PrintJobConfig)}),
+ *   holding {@link #SDK_LOCK} until the SDK is done with the settings.
+ */
+class PrinterSessionPool {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Pool]";
+
+    //Holds the lock every call into the Brother SDK is made under: the SDK keeps the printer settings, the connection
+    //and the cancel flag in static fields shared by all Printer instances, so calls for different printers cannot overlap
+    static final ReentrantLock SDK_LOCK = new ReentrantLock();
+
+    //default time a session may sit unused before it is discarded
+    static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+    /**
+     *  a printer, along with the settings applied to the SDK for it while the SDK lock is held
+     */
+    static class Session {
+        final String key;
+        final Printer printer;
+        long lastUsed;
+
+        //the signature of the settings applied to the SDK for this session, null once the SDK lock is released
+        String signature;
+
+        Session(String key, Printer printer) {
+            this.key = key;
+            this.printer = printer;
+        }
+    }
+
+    //Holds the idle sessions, keyed by printer serial number
+    private final Map<String,Session> idleSessions = new HashMap<String,Session>();
+
+    private final long idleTimeoutMs;
+
+    //Holds the system USB manager, needed to open sessions for the USB attached printer
+    private volatile UsbManager usbManager;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong configures = new AtomicLong();
+    private final AtomicLong setupNanos = new AtomicLong();
+
+    PrinterSessionPool() {
+        this(DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    PrinterSessionPool(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     *  @param usbManager the system USB manager, used by sessions for the USB attached printer
+     */
+    void setUsbManager(UsbManager usbManager) {
+        this.usbManager = usbManager;
+    }
+
+    /**
+     *  checks out a session for the printer of the job provided, reusing an idle one when there is one; the session
+     *  is not configured yet, see {@link #configure(Session, PrintJobConfig)}. To be called holding {@link #SDK_LOCK}
+     *
+     *  @param job the printer to print with
+     *  @return a session which must be handed back through {@link #release(Session, boolean)}
+     */
+    Session acquire(PrintJobConfig job) {
+
+        String key = job.key();
+
+        synchronized (this) {
+            evictIdle(System.currentTimeMillis());
+            Session session = idleSessions.remove(key);
+            if( session != null ){
+                hits.incrementAndGet();
+                return session;
+            }
+        }
+
+        misses.incrementAndGet();
+        Printer myPrinter = new Printer();
+        if( job.usb && usbManager != null ){
+            //the SDK opens the printer through the manager it was last given
+            myPrinter.getUsbDevice(usbManager);
+        }
+
+        return new Session(key, myPrinter);
+    }
+
+    /**
+     *  hands a session back to the pool
+     *
+     *  @param session the session obtained from {@link #acquire(PrintJobConfig)}
+     *  @param reusable false when the session should be discarded (e.g. after a communication error)
+     */
+    synchronized void release(Session session, boolean reusable) {
+        if( session == null ){
+            return;
+        }
+        long now = System.currentTimeMillis();
+        session.signature = null;
+        if( reusable ){
+            session.lastUsed = now;
+            if( idleSessions.put(session.key, session) != null ){
+                evictions.incrementAndGet();
+            }
+        }
+        evictIdle(now);
+    }
+
+    /**
+     *  applies the settings of a job to the SDK for a checked out session; to be called holding {@link #SDK_LOCK},
+     *  and again whenever the lock has been released in between, as another job may have changed the settings
+     *
+     *  @param session the session obtained from {@link #acquire(PrintJobConfig)}
+     *  @param job the printer settings to apply, e.g. with a per-label paper override
+     */
+    void configure(Session session, PrintJobConfig job) {
+        long start = System.nanoTime();
+        configure(session.printer, job);
+        session.signature = job.signature();
+        configures.incrementAndGet();
+        setupNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     *  discards the idle session held for a printer, e.g. when its address has changed
+     *
+     *  @param key the serial number of the printer
+     */
+    synchronized void invalidate(String key) {
+        if( idleSessions.remove(key) != null ){
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     *  discards all idle sessions
+     */
+    synchronized void clear() {
+        evictions.addAndGet(idleSessions.size());
+        idleSessions.clear();
+    }
+
+    /**
+     *  @return the reuse counters of the Printer instances, and the number and timings of the configurations applied
+     */
+    JSONObject getStats() throws JSONException {
+        long h = hits.get();
+        long m = misses.get();
+        long c = configures.get();
+        JSONObject stats = new JSONObject();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("evictions", evictions.get());
+        stats.put("hitRate", (h + m) == 0 ? 0d : (double) h / (h + m));
+        stats.put("configures", c);
+        stats.put("totalSetupMs", setupNanos.get() / 1000000d);
+        stats.put("avgSetupMs", c == 0 ? 0d : setupNanos.get() / 1000000d / c);
+        synchronized (this) {
+            stats.put("idleSessions", idleSessions.size());
+        }
+        return stats;
+    }
+
+    /**
+     *  applies the print settings of a job to an SDK printer
+     *
+     *  @param myPrinter the SDK printer to configure
+     *  @param job the printer settings to apply
+     */
+    static void configure(Printer myPrinter, PrintJobConfig job) {
+
+        //a new info for every job, the one returned by getPrinterInfo() is shared with whichever job configured the SDK last
+        PrinterInfo myPrinterInfo = new PrinterInfo();
+
+        myPrinterInfo.printerModel  = PrinterInfo.Model.QL_720NW;
+        myPrinterInfo.port          = job.usb ? PrinterInfo.Port.USB : PrinterInfo.Port.NET;
+        myPrinterInfo.printMode     = PrinterInfo.PrintMode.ORIGINAL;
+        myPrinterInfo.orientation   = PrinterInfo.Orientation.PORTRAIT;
+        myPrinterInfo.paperSize     = PrinterInfo.PaperSize.CUSTOM;
+        myPrinterInfo.ipAddress     = job.ipAddress;
+        myPrinterInfo.macAddress    = job.macAddress;
+        myPrinterInfo.isAutoCut     = true;
+        myPrinterInfo.isCutAtEnd    = true;
+
+        //this may need to be parameterized via options arguments
+        myPrinterInfo.labelNameIndex = LabelInfo.QL700.valueOf(job.paperName).ordinal();
+
+        myPrinter.setPrinterInfo(myPrinterInfo);
+    }
+
+    private void evictIdle(long now) {
+        Iterator<Session> it = idleSessions.values().iterator();
+        while( it.hasNext() ){
+            Session session = it.next();
+            if( now - session.lastUsed > idleTimeoutMs ){
+                it.remove();
+                evictions.incrementAndGet();
+                Log.d(TAG, "evicted idle session for " + session.key);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,407 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import com.brother.ptouch.sdk.PrinterInfo.ErrorCode;
+import com.brother.ptouch.sdk.PrinterStatus;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *   PrinterStatusMonitor - keeps the latest known status of every network printer
+ *
+ *   Statuses come from the printers themselves, queried through the SDK at a low rate while
+ *   monitoring is on (see {@link #start(long)}), and from the result of every print job. A query
+ *   runs on the queue of its printer like a print job, and only when the printer has nothing queued,
+ *   so it never competes with printing for the single connection a printer accepts. Like every SDK
+ *   call, the query itself holds {@link PrinterSessionPool#SDK_LOCK}.
+ *
+ *   The cache lets a job be checked before it is queued ({@link #preflight(PrintJobConfig)}): a
+ *   printer recently seen out of paper, with its cover open or loaded with other paper than the job
+ *   needs is reported straight away rather than after a failed attempt.
+ */
+class PrinterStatusMonitor {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Status]";
+
+    //default time between two queries of a printer
+    static final long DEFAULT_INTERVAL_MS = 30000;
+
+    //number of intervals a status is trusted for by preflight checks
+    static final int STALE_INTERVALS = 3;
+
+    //minimum time between the queries a failed preflight check triggers for a printer
+    static final long RECHECK_MS = 5000;
+
+    //status reported when the printer is loaded with other paper than a job needs
+    static final String WRONG_PAPER_STATUS = "" + ErrorCode.ERROR_WRONG_LABEL;
+
+    //errors that keep a printer from printing until someone attends to it
+    private static final Set<ErrorCode> NOT_READY = Collections.unmodifiableSet(EnumSet.of(
+            ErrorCode.ERROR_PAPER_EMPTY,
+            ErrorCode.ERROR_COVER_OPEN,
+            ErrorCode.ERROR_WRONG_LABEL,
+            ErrorCode.ERROR_PAPER_JAM,
+            ErrorCode.ERROR_OVERHEAT,
+            ErrorCode.ERROR_BATTERY_EMPTY,
+            ErrorCode.ERROR_BATTERY_TROUBLE,
+            ErrorCode.ERROR_FEED_OR_CASSETTE_EMPTY,
+            ErrorCode.ERROR_NO_CASSETTE,
+            ErrorCode.ERROR_CHANGE_CASSETTE,
+            ErrorCode.ERROR_UNSUPPORTED_MEDIA,
+            ErrorCode.ERROR_SYSTEM_ERROR));
+
+    //offsets of the QL status reply (see the raster command reference)
+    private static final int STATUS_LENGTH = 32;
+    private static final int STATUS_MEDIA_WIDTH = 10;
+    private static final int STATUS_MEDIA_TYPE = 11;
+    private static final int STATUS_MEDIA_LENGTH = 17;
+    private static final int MEDIA_CONTINUOUS = 0x0A;
+    private static final int MEDIA_DIE_CUT = 0x0B;
+
+    /**
+     *  the status of a printer as last seen
+     */
+    static final class Snapshot {
+        final String key;
+        final String status;
+        final boolean ready;
+        //media loaded, 0 when unknown
+        final int mediaWidthMm;
+        final int mediaLengthMm;
+        final int mediaType;
+        //battery level as reported by the SDK, -1 when unknown
+        final int battery;
+        final long checkedAt;
+        //"query" or "job"
+        final String source;
+
+        Snapshot(String key, String status, boolean ready, int mediaWidthMm, int mediaLengthMm, int mediaType,
+                 int battery, long checkedAt, String source) {
+            this.key = key;
+            this.status = status;
+            this.ready = ready;
+            this.mediaWidthMm = mediaWidthMm;
+            this.mediaLengthMm = mediaLengthMm;
+            this.mediaType = mediaType;
+            this.battery = battery;
+            this.checkedAt = checkedAt;
+            this.source = source;
+        }
+
+        /**
+         *  @return true if the printer state differs, ignoring when and how it was seen
+         */
+        boolean differsFrom(Snapshot other) {
+            return other == null || !status.equals(other.status) || ready != other.ready
+                    || mediaWidthMm != other.mediaWidthMm || mediaLengthMm != other.mediaLengthMm
+                    || mediaType != other.mediaType || battery != other.battery;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("printer", key);
+            json.put("status", status);
+            json.put("ready", ready);
+            if( mediaWidthMm > 0 ){
+                JSONObject media = new JSONObject();
+                media.put("widthMm", mediaWidthMm);
+                media.put("lengthMm", mediaLengthMm);
+                media.put("type", mediaType == MEDIA_DIE_CUT ? "die-cut" : mediaType == MEDIA_CONTINUOUS ? "continuous" : "unknown");
+                json.put("media", media);
+            }
+            if( battery >= 0 ){
+                json.put("battery", battery);
+            }
+            json.put("checkedAt", checkedAt);
+            json.put("source", source);
+            return json;
+        }
+    }
+
+    /**
+     *  notified when the status of a printer changes
+     */
+    interface Listener {
+        void onStatusChanged(Snapshot snapshot);
+    }
+
+    //Holds the latest status of every printer seen, keyed by printer serial number
+    private final Map<String,Snapshot> cache = new ConcurrentHashMap<String,Snapshot>();
+
+    //Holds the time of the last query queued for every printer
+    private final Map<String,Long> queried = new ConcurrentHashMap<String,Long>();
+
+    //Holds the discovered printers, keyed by serial number
+    private final Map<String,Map<String,String>> printers;
+
+    private final PrintScheduler scheduler;
+    private final PrinterSessionPool pool;
+    private final PrintMetrics metrics;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BrotherPrinter-status");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private ScheduledFuture<?> polling;
+    private volatile long intervalMs = DEFAULT_INTERVAL_MS;
+    private volatile Listener listener;
+
+    /**
+     *  @param printers the discovered printers to monitor
+     *  @param scheduler the scheduler whose printer queues the queries run on
+     *  @param pool the pool the queries take their printer sessions from
+     *  @param metrics the metrics the query times are recorded in
+     */
+    PrinterStatusMonitor(Map<String,Map<String,String>> printers, PrintScheduler scheduler, PrinterSessionPool pool, PrintMetrics metrics) {
+        this.printers = printers;
+        this.scheduler = scheduler;
+        this.pool = pool;
+        this.metrics = metrics;
+    }
+
+    /**
+     *  @param listener notified when the status of a printer changes, replacing any previous one
+     */
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     *  queries every discovered printer at a fixed interval, replacing any previous interval
+     *
+     *  @param intervalMs the time between two queries of a printer, 0 to stop querying
+     */
+    synchronized void start(long intervalMs) {
+        stop();
+        if( intervalMs <= 0 ){
+            return;
+        }
+        this.intervalMs = intervalMs;
+        polling = timer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                for( Map<String,String> printer : new ArrayList<Map<String,String>>(printers.values()) ){
+                    refresh(printer, false, null);
+                }
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if( polling != null ){
+            polling.cancel(false);
+            polling = null;
+        }
+        intervalMs = DEFAULT_INTERVAL_MS;
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     *  queues a query of a printer
+     *
+     *  @param printer the printer (as found in the discovered printer map)
+     *  @param busy true to queue the query behind the jobs of a busy printer, false to skip a busy printer
+     *  @param done run once the query has completed, or null
+     *  @return false if the query was not queued
+     */
+    boolean refresh(final Map<String,String> printer, boolean busy, final Runnable done) {
+        final PrintJobConfig job = configFor(printer);
+        final String key = job.key();
+        if( key == null || (!busy && scheduler.getLoad(key) > 0) ){
+            return false;
+        }
+        queried.put(key, System.currentTimeMillis());
+        return scheduler.submit(key, "status", new Runnable() {
+            public void run() {
+                query(job);
+                if( done != null ){
+                    done.run();
+                }
+            }
+        }) != null;
+    }
+
+    /**
+     *  records the status a print job ended with
+     *
+     *  @param job the configuration the job ran with
+     *  @param status the final status of the job
+     */
+    void record(PrintJobConfig job, PrinterStatus status) {
+        if( job.usb || status == null || status.errorCode == ErrorCode.ERROR_CANCEL ){
+            return;
+        }
+        if( status.errorCode != ErrorCode.ERROR_NONE && !NOT_READY.contains(status.errorCode) ){
+            //a failure of the job (bad image, lost connection...) says nothing about the printer
+            return;
+        }
+        update(job.key(), status, "job");
+    }
+
+    /**
+     *  @param errorCode the status of a printer or job
+     *  @return true if the printer cannot print until someone attends to it (out of paper, cover open...)
+     */
+    static boolean isNotReady(ErrorCode errorCode) {
+        return NOT_READY.contains(errorCode);
+    }
+
+    /**
+     *  @param key the serial number of the printer
+     *  @return the latest status of the printer, or null if it has not been seen
+     */
+    Snapshot get(String key) {
+        return key == null ? null : cache.get(key);
+    }
+
+    /**
+     *  checks a job against the latest status of its printer
+     *
+     *  a failed check also queues a query of the printer, so a printer that has been attended to passes the next check
+     *
+     *  @param job the configuration of the job about to be queued
+     *  @return null if the job may print (the printer is ready, or its status is unknown or too old), otherwise the status
+     *          that keeps it from printing
+     */
+    String preflight(PrintJobConfig job) {
+        Snapshot snapshot = job.usb ? null : cache.get(job.key());
+        long now = System.currentTimeMillis();
+        if( snapshot == null || now - snapshot.checkedAt > STALE_INTERVALS * intervalMs ){
+            return null;
+        }
+        String blocked = null;
+        if( !snapshot.ready ){
+            blocked = snapshot.status;
+        }
+        else if( !fits(snapshot, job.paperName) ){
+            blocked = WRONG_PAPER_STATUS;
+        }
+        if( blocked != null ){
+            Long last = queried.get(job.key());
+            Map<String,String> printer = printers.get(job.key());
+            if( printer != null && (last == null || now - last >= RECHECK_MS) ){
+                refresh(printer, true, null);
+            }
+        }
+        return blocked;
+    }
+
+    /**
+     *  @return the latest status of every printer seen, keyed by serial number
+     */
+    JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        for( Snapshot snapshot : cache.values() ){
+            json.put(snapshot.key, snapshot.toJSON());
+        }
+        return json;
+    }
+
+    private void query(PrintJobConfig job) {
+        PrinterSessionPool.Session session = null;
+        PrinterStatus status = null;
+        long start = System.nanoTime();
+        //the query goes through the static state of the SDK like a print does, configured for this printer
+        PrinterSessionPool.SDK_LOCK.lock();
+        try{
+            session = pool.acquire(job);
+            pool.configure(session, job);
+            status = session.printer.getPrinterStatus();
+        }catch(Exception e){
+            e.printStackTrace();
+        }finally{
+            pool.release(session, status != null && status.errorCode == ErrorCode.ERROR_NONE);
+            PrinterSessionPool.SDK_LOCK.unlock();
+        }
+        metrics.record(job.key(), PrintMetrics.Phase.STATUS, System.nanoTime() - start);
+        if( status == null || (status.errorCode != ErrorCode.ERROR_NONE && !NOT_READY.contains(status.errorCode)) ){
+            //a query that could not reach the printer says nothing about its paper or cover, and must not
+            //report an unreachable printer as ready
+            Log.d(TAG, "printer " + job.key() + " could not be queried: " + (status == null ? "no status" : "" + status.errorCode));
+            return;
+        }
+        update(job.key(), status, "query");
+    }
+
+    private void update(String key, PrinterStatus status, String source) {
+        Snapshot previous = cache.get(key);
+        int width = 0;
+        int length = 0;
+        int type = 0;
+        byte[] bytes = status.statusBytes;
+        if( bytes != null && bytes.length >= STATUS_LENGTH && (bytes[0] & 0xFF) == 0x80 ){
+            width = bytes[STATUS_MEDIA_WIDTH] & 0xFF;
+            length = bytes[STATUS_MEDIA_LENGTH] & 0xFF;
+            type = bytes[STATUS_MEDIA_TYPE] & 0xFF;
+        }
+        else if( previous != null ){
+            //job results do not carry the media, keep what the last query found
+            width = previous.mediaWidthMm;
+            length = previous.mediaLengthMm;
+            type = previous.mediaType;
+        }
+        int battery = status.batteryLevel > 0 ? status.batteryLevel : (previous != null ? previous.battery : -1);
+
+        Snapshot snapshot = new Snapshot(key, "" + status.errorCode, !NOT_READY.contains(status.errorCode),
+                                         width, length, type, battery, System.currentTimeMillis(), source);
+        cache.put(key, snapshot);
+        if( snapshot.differsFrom(previous) ){
+            Log.d(TAG, "printer " + key + ": " + snapshot.status + (width > 0 ? " (" + width + "mm media)" : ""));
+            Listener listener = this.listener;
+            if( listener != null ){
+                listener.onStatusChanged(snapshot);
+            }
+        }
+    }
+
+    /**
+     *  @return true if the media last seen in the printer is the paper, or the media is unknown
+     */
+    private static boolean fits(Snapshot snapshot, String paperName) {
+        if( snapshot.mediaWidthMm <= 0 || paperName == null ){
+            return true;
+        }
+        if( snapshot.mediaWidthMm != LabelPaper.widthMm(paperName) ){
+            return false;
+        }
+        if( LabelPaper.isDieCut(paperName) ){
+            return snapshot.mediaType != MEDIA_CONTINUOUS
+                    && (snapshot.mediaLengthMm == 0 || snapshot.mediaLengthMm == LabelPaper.lengthMm(paperName));
+        }
+        return snapshot.mediaType != MEDIA_DIE_CUT;
+    }
+
+    /**
+     *  @return the configuration a query of the printer runs with: the paper it last printed on, so the pooled session is reused
+     */
+    private static PrintJobConfig configFor(Map<String,String> printer) {
+        Map<String,String> options = new HashMap<String,String>();
+        if( printer.get("lastPaper") != null ){
+            options.put("paper", printer.get("lastPaper"));
+        }
+        return PrintJobConfig.of(printer, options);
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import com.brother.ptouch.sdk.PrinterStatus;
+
+/**
+ *   PrinterTransport - the way printer command data reaches a printer
+ *
+ *   Network printers are written to directly over their raw print port ({@link SocketTransport}),
+ *   USB printers through the Brother SDK ({@link SdkTransport}). Anything listening on a raw print
+ *   port, such as a simulated printer on the development machine, can stand in for a network printer.
+ */
+interface PrinterTransport {
+
+    /**
+     *  sends command data to the printer
+     *
+     *  @param payload the command data
+     *  @param job the job the data is sent for, cancelling it aborts the transfer
+     *  @return the status of the transfer
+     */
+    PrinterStatus send(RawCommandSender.Payload payload, PrintJob job);
+
+}
@@ -0,0 +1,274 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *   PrnTemplateStore - printer command templates registered once and printed many times
+ *
+ *   A template is the raw command data of a label (e.g. a PRN file saved from P-touch Editor) with
+ *   {{field}} placeholders where the variable text goes. Printing a template only takes the field
+ *   values from JS; the command data is parsed once at registration and written out in slices
+ *   around the substituted values, without being copied. Templates are kept in app storage so they
+ *   stay registered across restarts.
+ */
+class PrnTemplateStore {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Templates]";
+
+    private static final String FILE_SUFFIX = ".prn";
+
+    //longest placeholder name looked for, longer brace pairs are treated as command data
+    private static final int MAX_FIELD_LENGTH = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     *  a parsed template: slices of command data separated by placeholders
+     */
+    static class Template {
+        final String name;
+        private final byte[] data;
+        //Holds the start and end offsets of the data around each placeholder, one more pair than there are fields
+        private final int[] starts;
+        private final int[] ends;
+        private final String[] fields;
+
+        private Template(String name, byte[] data, int[] starts, int[] ends, String[] fields) {
+            this.name = name;
+            this.data = data;
+            this.starts = starts;
+            this.ends = ends;
+            this.fields = fields;
+        }
+
+        /**
+         *  @return the names of the placeholders, in the order they first appear
+         */
+        Set<String> fieldNames() {
+            Set<String> names = new LinkedHashSet<String>();
+            Collections.addAll(names, fields);
+            return names;
+        }
+
+        /**
+         *  @return the size of the command data, placeholders included
+         */
+        int size() {
+            return data.length;
+        }
+
+        /**
+         *  fills in the placeholders of the template
+         *
+         *  @param values the text of every field, encoded as UTF-8
+         *  @return the command data to send
+         *  @throws IllegalArgumentException if a field has no value
+         */
+        RawCommandSender.Payload bind(Map<String,String> values) {
+            final byte[][] encoded = new byte[fields.length][];
+            for( int i = 0; i < fields.length; i++ ){
+                String value = values.get(fields[i]);
+                if( value == null ){
+                    throw new IllegalArgumentException("No value for field " + fields[i] + " of template " + name + ".");
+                }
+                encoded[i] = value.getBytes(UTF_8);
+            }
+            return new RawCommandSender.Payload() {
+                public void writeTo(OutputStream out) throws IOException {
+                    for( int i = 0; i < starts.length; i++ ){
+                        out.write(data, starts[i], ends[i] - starts[i]);
+                        if( i < encoded.length ){
+                            out.write(encoded[i]);
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    private final File directory;
+    private final Map<String,Template> templates = new ConcurrentHashMap<String,Template>();
+
+    /**
+     *  @param directory the directory the templates are kept in, usually under the app files dir
+     */
+    PrnTemplateStore(File directory) {
+        this.directory = directory;
+        if( !directory.exists() && !directory.mkdirs() ){
+            Log.d(TAG, "could not create template directory " + directory);
+        }
+    }
+
+    /**
+     *  registers a template, replacing any template of the same name
+     *
+     *  @param name the name of the template (letters, digits, '-' and '_')
+     *  @param data the command data, with {{field}} placeholders
+     *  @return the parsed template
+     */
+    Template register(String name, byte[] data) throws IOException {
+        checkName(name);
+        Template template = parse(name, data);
+
+        File temp = new File(directory, name + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        if( !temp.renameTo(fileFor(name)) ){
+            temp.delete();
+            throw new IOException("could not rename " + temp);
+        }
+
+        templates.put(name, template);
+        Log.d(TAG, "registered " + name + " (" + data.length + " bytes, fields " + template.fieldNames() + ")");
+        return template;
+    }
+
+    /**
+     *  @param name the name of the template
+     *  @return the template, or null if none is registered under the name
+     */
+    Template get(String name) {
+        if( name == null ){
+            return null;
+        }
+        Template template = templates.get(name);
+        if( template != null ){
+            return template;
+        }
+        try {
+            checkName(name);
+            File file = fileFor(name);
+            if( !file.exists() ){
+                return null;
+            }
+            template = parse(name, read(file));
+            templates.put(name, template);
+            return template;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (IOException e) {
+            Log.d(TAG, "could not read template " + name + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     *  @param name the name of the template
+     *  @return true if a template was removed
+     */
+    boolean remove(String name) {
+        if( name == null ){
+            return false;
+        }
+        boolean removed = templates.remove(name) != null;
+        try {
+            checkName(name);
+            removed |= fileFor(name).delete();
+        } catch (IllegalArgumentException e) {
+            //never registered
+        }
+        return removed;
+    }
+
+    /**
+     *  splits command data at its {{field}} placeholders
+     */
+    static Template parse(String name, byte[] data) {
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> ends = new ArrayList<Integer>();
+        List<String> fields = new ArrayList<String>();
+
+        int literalStart = 0;
+        int i = 0;
+        while( i < data.length - 3 ){
+            if( data[i] == '{' && data[i + 1] == '{' ){
+                int close = fieldEnd(data, i + 2);
+                if( close > 0 ){
+                    starts.add(literalStart);
+                    ends.add(i);
+                    fields.add(new String(data, i + 2, close - i - 2, UTF_8));
+                    i = close + 2;
+                    literalStart = i;
+                    continue;
+                }
+            }
+            i++;
+        }
+        starts.add(literalStart);
+        ends.add(data.length);
+
+        int[] s = new int[starts.size()];
+        int[] e = new int[ends.size()];
+        for( int j = 0; j < s.length; j++ ){
+            s[j] = starts.get(j);
+            e[j] = ends.get(j);
+        }
+        return new Template(name, data, s, e, fields.toArray(new String[fields.size()]));
+    }
+
+    /**
+     *  @return the offset of the closing braces of a placeholder name starting at {@code from}, or -1 if there is none
+     */
+    private static int fieldEnd(byte[] data, int from) {
+        int limit = Math.min(data.length - 1, from + MAX_FIELD_LENGTH);
+        for( int i = from; i < limit; i++ ){
+            byte b = data[i];
+            if( b == '}' && data[i + 1] == '}' ){
+                return i > from ? i : -1;
+            }
+            boolean valid = (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                                || b == '_' || b == '-' || b == '.';
+            if( !valid ){
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkName(String name) {
+        if( name == null || !name.matches("[A-Za-z0-9_-]{1,64}") ){
+            throw new IllegalArgumentException("Invalid template name " + name + ".");
+        }
+    }
+
+    private File fileFor(String name) {
+        return new File(directory, name + FILE_SUFFIX);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int count;
+            while( (count = in.read(buffer)) != -1 ){
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+}
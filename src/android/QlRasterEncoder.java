@@ -0,0 +1,258 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ *   QlRasterEncoder - writes label images as Brother QL raster commands, without the SDK
+ *
+ *   Produces the command stream described in the QL-700/800 series raster command reference:
+ *   invalidate, initialize, raster mode, then per page the print information (ESC i z), modes
+ *   (ESC i M / ESC i A / ESC i K), margin (ESC i d), compression (M) and one 'g' (or two 'w' for
+ *   black/red paper) command per raster line, ending with FF or, on the last page, ^Z. Lines are
+ *   compressed with TIFF PackBits and blank lines are sent as 'Z'.
+ *
+ *   Pixels are read as printed (black, or red on two-color paper) by the same luminance rules as
+ *   {@link LabelDither}, so images should already be converted to the printer colors. Instances
+ *   reuse their line buffers and are not thread-safe.
+ */
+final class QlRasterEncoder {
+
+    static final int LINE_BYTES = LabelPaper.HEAD_PINS / 8;
+
+    //number of 0x00 bytes that clear a half-received command from the printer
+    private static final int INVALIDATE_BYTES = 200;
+
+    private static final int ESC = 0x1B;
+
+    //ESC i z validity flags: media kind, width and length given, printer recovery on
+    private static final int PI_KIND = 0x02;
+    private static final int PI_WIDTH = 0x04;
+    private static final int PI_LENGTH = 0x08;
+    private static final int PI_RECOVER = 0x80;
+
+    private static final int MEDIA_CONTINUOUS = 0x0A;
+    private static final int MEDIA_DIE_CUT = 0x0B;
+
+    //ESC i M auto cut, ESC i K cut at end and two-color printing
+    private static final int MODE_AUTO_CUT = 0x40;
+    private static final int EXPANDED_CUT_AT_END = 0x08;
+    private static final int EXPANDED_TWO_COLOR = 0x01;
+
+    //feed before and after a label on continuous paper, in dots
+    private static final int CONTINUOUS_MARGIN = 35;
+
+    private static final int COMPRESSION_NONE = 0x00;
+    private static final int COMPRESSION_TIFF = 0x02;
+
+    private static final int PRINT = 0x0C;
+    private static final int PRINT_LAST = 0x1A;
+
+    private final String paperName;
+    private final boolean compress;
+    private final boolean autoCut;
+    private final boolean cutAtEnd;
+    private final boolean twoColor;
+    private final int printableDots;
+    private final int rightMargin;
+
+    private final byte[] black = new byte[LINE_BYTES];
+    private final byte[] red = new byte[LINE_BYTES];
+    //worst case PackBits output: a header byte for every 128 literal bytes, and one for a literal run at the start
+    private final byte[] packed = new byte[LINE_BYTES + LINE_BYTES / 128 + 2];
+
+    /**
+     *  @param paperName the paper the labels print on, which sets the width, media and two-color mode
+     *  @param compress true to send the lines TIFF compressed
+     *  @param autoCut true to cut after every label
+     *  @param cutAtEnd true to cut after the last label
+     */
+    QlRasterEncoder(String paperName, boolean compress, boolean autoCut, boolean cutAtEnd) {
+        this.paperName = paperName;
+        this.compress = compress;
+        this.autoCut = autoCut;
+        this.cutAtEnd = cutAtEnd;
+        this.twoColor = LabelPaper.isTwoColor(paperName);
+        this.printableDots = LabelPaper.printableDots(paperName);
+        this.rightMargin = LabelPaper.rightMarginPins(paperName);
+    }
+
+    /**
+     *  a label image, read one row at a time
+     */
+    interface Page {
+        int getWidth();
+        int getHeight();
+
+        /**
+         *  @param y the row to read
+         *  @param argb receives the ARGB pixels of the row, at least as long as the width
+         */
+        void getRow(int y, int[] argb);
+    }
+
+    /**
+     *  writes a print job of one label per page
+     *
+     *  @param out where the commands are written, typically the raw print port
+     *  @param pages the labels
+     */
+    void write(OutputStream out, Page... pages) throws IOException {
+        writeJobStart(out);
+        int[] row = new int[0];
+        for( int i = 0; i < pages.length; i++ ){
+            Page page = pages[i];
+            if( row.length < page.getWidth() ){
+                row = new int[page.getWidth()];
+            }
+            writePageStart(out, page.getHeight(), i == 0);
+            for( int y = 0; y < page.getHeight(); y++ ){
+                page.getRow(y, row);
+                writeRow(out, row, page.getWidth());
+            }
+            out.write(i == pages.length - 1 ? PRINT_LAST : PRINT);
+        }
+    }
+
+    /**
+     *  @param pages the labels
+     *  @return the print job as command data, encoded while it is written out
+     */
+    RawCommandSender.Payload payload(final Page... pages) {
+        return new RawCommandSender.Payload() {
+            public void writeTo(OutputStream out) throws IOException {
+                write(out, pages);
+            }
+        };
+    }
+
+    private void writeJobStart(OutputStream out) throws IOException {
+        out.write(new byte[INVALIDATE_BYTES]);
+        //initialize, switch to raster mode
+        out.write(new byte[]{ ESC, '@', ESC, 'i', 'a', 0x01 });
+    }
+
+    private void writePageStart(OutputStream out, int rows, boolean first) throws IOException {
+        boolean dieCut = LabelPaper.isDieCut(paperName);
+        int flags = PI_KIND | PI_WIDTH | PI_RECOVER | (dieCut ? PI_LENGTH : 0);
+        out.write(new byte[]{
+            ESC, 'i', 'z',
+            (byte) flags,
+            (byte) (dieCut ? MEDIA_DIE_CUT : MEDIA_CONTINUOUS),
+            (byte) LabelPaper.widthMm(paperName),
+            (byte) LabelPaper.lengthMm(paperName),
+            (byte) rows, (byte) (rows >> 8), (byte) (rows >> 16), (byte) (rows >> 24),
+            (byte) (first ? 0 : 1),
+            0
+        });
+        out.write(new byte[]{ ESC, 'i', 'M', (byte) (autoCut ? MODE_AUTO_CUT : 0) });
+        if( autoCut ){
+            //cut every label
+            out.write(new byte[]{ ESC, 'i', 'A', 1 });
+        }
+        int expanded = (cutAtEnd ? EXPANDED_CUT_AT_END : 0) | (twoColor ? EXPANDED_TWO_COLOR : 0);
+        out.write(new byte[]{ ESC, 'i', 'K', (byte) expanded });
+        int margin = dieCut ? 0 : CONTINUOUS_MARGIN;
+        out.write(new byte[]{ ESC, 'i', 'd', (byte) margin, (byte) (margin >> 8) });
+        out.write(new byte[]{ 'M', (byte) (compress ? COMPRESSION_TIFF : COMPRESSION_NONE) });
+    }
+
+    /**
+     *  writes one raster line; the print head sees the label from behind, so the row is mirrored onto the pins,
+     *  its first pixel landing on the last pin before the right margin
+     *
+     *  @param row the ARGB pixels of the row, pixels beyond the printable width are dropped
+     *  @param width the number of pixels in the row
+     */
+    void writeRow(OutputStream out, int[] row, int width) throws IOException {
+        Arrays.fill(black, (byte) 0);
+        if( twoColor ){
+            Arrays.fill(red, (byte) 0);
+        }
+        boolean blank = true;
+        int dots = Math.min(width, printableDots);
+        for( int x = 0; x < dots; x++ ){
+            int pixel = row[x];
+            byte[] plane;
+            if( twoColor && LabelDither.isRed(pixel) ){
+                plane = red;
+            }
+            else if( LabelDither.luminance(pixel) < LabelDither.DEFAULT_THRESHOLD ){
+                plane = black;
+            }
+            else{
+                continue;
+            }
+            int pin = LabelPaper.HEAD_PINS - rightMargin - 1 - x;
+            plane[pin >> 3] |= (byte) (0x80 >>> (pin & 7));
+            blank = false;
+        }
+
+        if( blank && compress ){
+            out.write('Z');
+            return;
+        }
+        if( twoColor ){
+            writeLine(out, 'w', 0x01, black);
+            writeLine(out, 'w', 0x02, red);
+        }
+        else{
+            writeLine(out, 'g', 0x00, black);
+        }
+    }
+
+    private void writeLine(OutputStream out, int command, int param, byte[] line) throws IOException {
+        if( compress ){
+            int length = packBits(line, packed);
+            out.write(command);
+            out.write(param);
+            out.write(length);
+            out.write(packed, 0, length);
+        }
+        else{
+            out.write(command);
+            out.write(param);
+            out.write(line.length);
+            out.write(line);
+        }
+    }
+
+    /**
+     *  compresses a line with TIFF PackBits: runs of 2-128 equal bytes become (1 - n, byte), anything else is
+     *  copied behind a (n - 1) header, at most 128 bytes at a time
+     *
+     *  @return the compressed length
+     */
+    static int packBits(byte[] in, byte[] out) {
+        int o = 0;
+        int i = 0;
+        while( i < in.length ){
+            int run = 1;
+            while( i + run < in.length && run < 128 && in[i + run] == in[i] ){
+                run++;
+            }
+            if( run > 1 ){
+                out[o++] = (byte) (1 - run);
+                out[o++] = in[i];
+                i += run;
+                continue;
+            }
+            //literal bytes until the next run of at least 2 (a run of 2 inside literals is not worth breaking for)
+            int start = i;
+            int count = 0;
+            while( i < in.length && count < 128 ){
+                if( i + 2 < in.length && in[i] == in[i + 1] && in[i] == in[i + 2] ){
+                    break;
+                }
+                i++;
+                count++;
+            }
+            out[o++] = (byte) (count - 1);
+            System.arraycopy(in, start, out, o, count);
+            o += count;
+        }
+        return o;
+    }
+
+}
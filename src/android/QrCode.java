@@ -0,0 +1,472 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ *   QrCode - encodes text as a QR code
+ *
+ *   The text is encoded as UTF-8 in byte mode, in the smallest version (1 to 40) that holds it at
+ *   the error correction level asked for. Of the eight masks the one with the lowest penalty score
+ *   is used, as the QR code specification describes.
+ */
+final class QrCode {
+
+    //modules of white space needed around the code
+    static final int QUIET_ZONE = 4;
+
+    //error correction levels, in the order of the tables below
+    private static final String LEVELS = "LMQH";
+
+    //format information bits of each error correction level
+    private static final int[] LEVEL_BITS = { 1, 0, 3, 2 };
+
+    //error correction codewords per block, by level and version (index 0 unused)
+    private static final byte[][] ECC_CODEWORDS_PER_BLOCK = {
+        { -1,  7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28, 28, 28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30 },
+        { -1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28 },
+        { -1, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26, 30, 28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30 },
+        { -1, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26, 28, 30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30 },
+    };
+
+    //error correction blocks, by level and version (index 0 unused)
+    private static final byte[][] NUM_ERROR_CORRECTION_BLOCKS = {
+        { -1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4,  4,  4,  4,  4,  6,  6,  6,  6,  7,  8,  8,  9,  9, 10, 12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25 },
+        { -1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5,  5,  8,  9,  9, 10, 10, 11, 13, 14, 16, 17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49 },
+        { -1, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8,  8, 10, 12, 16, 12, 17, 16, 18, 21, 20, 23, 23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68 },
+        { -1, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25, 25, 34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81 },
+    };
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int version;
+    private final int size;
+    private final int level;
+
+    //Holds the modules, [y][x], true for dark
+    private final boolean[][] modules;
+
+    //Holds the modules of the finder, timing, alignment, format and version patterns, which masks leave alone
+    private final boolean[][] isFunction;
+
+    private QrCode(int version, int level) {
+        this.version = version;
+        this.level = level;
+        this.size = version * 4 + 17;
+        this.modules = new boolean[size][size];
+        this.isFunction = new boolean[size][size];
+    }
+
+    /**
+     *  @param text the text to encode
+     *  @param levelName the error correction level: L, M, Q or H
+     *  @return the modules of the code, [y][x], true for dark; without the quiet zone
+     *  @throws IllegalArgumentException if the level is unknown or the text does not fit in a QR code
+     */
+    static boolean[][] encode(String text, char levelName) {
+        int level = levelOf(levelName);
+        byte[] data = bytesOf(text);
+        int version = versionFor(data, level);
+
+        //mode, character count, data, terminator and padding
+        int capacity = dataCodewords(version, level);
+        byte[] codewords = new byte[capacity];
+        BitWriter bits = new BitWriter(codewords);
+        bits.append(0x4, 4);
+        bits.append(data.length, version <= 9 ? 8 : 16);
+        for( byte b : data ){
+            bits.append(b & 0xFF, 8);
+        }
+        bits.append(0, Math.min(4, capacity * 8 - bits.length));
+        bits.append(0, (8 - bits.length % 8) % 8);
+        for( int pad = 0xEC; bits.length < capacity * 8; pad ^= 0xEC ^ 0x11 ){
+            bits.append(pad, 8);
+        }
+
+        QrCode code = new QrCode(version, level);
+        code.drawFunctionPatterns();
+        code.drawCodewords(code.addEccAndInterleave(codewords));
+
+        int bestMask = 0;
+        int bestPenalty = Integer.MAX_VALUE;
+        for( int mask = 0; mask < 8; mask++ ){
+            code.applyMask(mask);
+            code.drawFormatBits(mask);
+            int penalty = code.penalty();
+            if( penalty < bestPenalty ){
+                bestMask = mask;
+                bestPenalty = penalty;
+            }
+            //masks are their own inverse
+            code.applyMask(mask);
+        }
+        code.applyMask(bestMask);
+        code.drawFormatBits(bestMask);
+        return code.modules;
+    }
+
+    /**
+     *  appends bits to a byte array, most significant first
+     */
+    private static class BitWriter {
+        final byte[] out;
+        int length;
+
+        BitWriter(byte[] out) {
+            this.out = out;
+        }
+
+        void append(int value, int count) {
+            for( int i = count - 1; i >= 0; i-- ){
+                if( ((value >>> i) & 1) != 0 ){
+                    out[length >>> 3] |= 1 << (7 - (length & 7));
+                }
+                length++;
+            }
+        }
+    }
+
+    private void drawFunctionPatterns() {
+        for( int i = 0; i < size; i++ ){
+            setFunction(6, i, i % 2 == 0);
+            setFunction(i, 6, i % 2 == 0);
+        }
+        drawFinder(3, 3);
+        drawFinder(size - 4, 3);
+        drawFinder(3, size - 4);
+
+        int[] positions = alignmentPositions();
+        int count = positions.length;
+        for( int i = 0; i < count; i++ ){
+            for( int j = 0; j < count; j++ ){
+                //the corners taken by the finder patterns
+                if( (i == 0 && j == 0) || (i == 0 && j == count - 1) || (i == count - 1 && j == 0) ){
+                    continue;
+                }
+                for( int dy = -2; dy <= 2; dy++ ){
+                    for( int dx = -2; dx <= 2; dx++ ){
+                        setFunction(positions[i] + dx, positions[j] + dy, Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+                    }
+                }
+            }
+        }
+
+        //reserves the format areas until the mask is known
+        drawFormatBits(0);
+        drawVersionBits();
+    }
+
+    private void drawFinder(int x, int y) {
+        for( int dy = -4; dy <= 4; dy++ ){
+            for( int dx = -4; dx <= 4; dx++ ){
+                int distance = Math.max(Math.abs(dx), Math.abs(dy));
+                int xx = x + dx;
+                int yy = y + dy;
+                if( xx >= 0 && xx < size && yy >= 0 && yy < size ){
+                    setFunction(xx, yy, distance != 2 && distance != 4);
+                }
+            }
+        }
+    }
+
+    private void drawFormatBits(int mask) {
+        int data = LEVEL_BITS[level] << 3 | mask;
+        int remainder = data;
+        for( int i = 0; i < 10; i++ ){
+            remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+        }
+        int bits = (data << 10 | remainder) ^ 0x5412;
+
+        //around the top left finder
+        for( int i = 0; i <= 5; i++ ){
+            setFunction(8, i, bit(bits, i));
+        }
+        setFunction(8, 7, bit(bits, 6));
+        setFunction(8, 8, bit(bits, 7));
+        setFunction(7, 8, bit(bits, 8));
+        for( int i = 9; i < 15; i++ ){
+            setFunction(14 - i, 8, bit(bits, i));
+        }
+
+        //by the other two finders
+        for( int i = 0; i < 8; i++ ){
+            setFunction(size - 1 - i, 8, bit(bits, i));
+        }
+        for( int i = 8; i < 15; i++ ){
+            setFunction(8, size - 15 + i, bit(bits, i));
+        }
+        setFunction(8, size - 8, true);
+    }
+
+    private void drawVersionBits() {
+        if( version < 7 ){
+            return;
+        }
+        int remainder = version;
+        for( int i = 0; i < 12; i++ ){
+            remainder = (remainder << 1) ^ ((remainder >>> 11) * 0x1F25);
+        }
+        int bits = version << 12 | remainder;
+        for( int i = 0; i < 18; i++ ){
+            boolean dark = bit(bits, i);
+            int a = size - 11 + i % 3;
+            int b = i / 3;
+            setFunction(a, b, dark);
+            setFunction(b, a, dark);
+        }
+    }
+
+    /**
+     *  @return the centre coordinates of the alignment patterns, on both axes
+     */
+    private int[] alignmentPositions() {
+        if( version == 1 ){
+            return new int[0];
+        }
+        int count = version / 7 + 2;
+        int step = (version * 8 + count * 3 + 5) / (count * 4 - 4) * 2;
+        int[] positions = new int[count];
+        positions[0] = 6;
+        for( int i = count - 1, position = size - 7; i >= 1; i--, position -= step ){
+            positions[i] = position;
+        }
+        return positions;
+    }
+
+    /**
+     *  splits the data into blocks, appends the error correction codewords of each and interleaves them
+     */
+    private byte[] addEccAndInterleave(byte[] data) {
+        int blocks = NUM_ERROR_CORRECTION_BLOCKS[level][version];
+        int eccLength = ECC_CODEWORDS_PER_BLOCK[level][version];
+        int raw = rawDataModules(version) / 8;
+        int shortBlocks = blocks - raw % blocks;
+        int shortLength = raw / blocks;
+
+        byte[][] split = new byte[blocks][];
+        byte[] divisor = reedSolomonDivisor(eccLength);
+        for( int i = 0, k = 0; i < blocks; i++ ){
+            byte[] block = Arrays.copyOfRange(data, k, k + shortLength - eccLength + (i < shortBlocks ? 0 : 1));
+            k += block.length;
+            byte[] ecc = reedSolomonRemainder(block, divisor);
+            split[i] = Arrays.copyOf(block, shortLength + 1);
+            System.arraycopy(ecc, 0, split[i], shortLength + 1 - eccLength, eccLength);
+        }
+
+        byte[] result = new byte[raw];
+        for( int i = 0, k = 0; i < shortLength + 1; i++ ){
+            for( int j = 0; j < blocks; j++ ){
+                //short blocks have no codeword at the position the long blocks have their extra data codeword
+                if( i != shortLength - eccLength || j >= shortBlocks ){
+                    result[k++] = split[j][i];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     *  places the codewords in the zigzag order of the specification, skipping the function patterns
+     */
+    private void drawCodewords(byte[] data) {
+        int i = 0;
+        for( int right = size - 1; right >= 1; right -= 2 ){
+            if( right == 6 ){
+                right = 5;
+            }
+            for( int vertical = 0; vertical < size; vertical++ ){
+                for( int j = 0; j < 2; j++ ){
+                    int x = right - j;
+                    boolean upward = ((right + 1) & 2) == 0;
+                    int y = upward ? size - 1 - vertical : vertical;
+                    if( !isFunction[y][x] && i < data.length * 8 ){
+                        modules[y][x] = bit(data[i >>> 3], 7 - (i & 7));
+                        i++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void applyMask(int mask) {
+        for( int y = 0; y < size; y++ ){
+            for( int x = 0; x < size; x++ ){
+                boolean invert;
+                switch( mask ){
+                    case 0:  invert = (x + y) % 2 == 0; break;
+                    case 1:  invert = y % 2 == 0; break;
+                    case 2:  invert = x % 3 == 0; break;
+                    case 3:  invert = (x + y) % 3 == 0; break;
+                    case 4:  invert = (x / 3 + y / 2) % 2 == 0; break;
+                    case 5:  invert = x * y % 2 + x * y % 3 == 0; break;
+                    case 6:  invert = (x * y % 2 + x * y % 3) % 2 == 0; break;
+                    default: invert = ((x + y) % 2 + x * y % 3) % 2 == 0; break;
+                }
+                if( invert && !isFunction[y][x] ){
+                    modules[y][x] = !modules[y][x];
+                }
+            }
+        }
+    }
+
+    /**
+     *  @return the penalty score of the current modules: runs, 2x2 blocks, finder lookalikes and dark/light balance
+     */
+    private int penalty() {
+        int result = 0;
+        for( int pass = 0; pass < 2; pass++ ){
+            boolean rows = pass == 0;
+            for( int a = 0; a < size; a++ ){
+                int run = 0;
+                boolean previous = false;
+                for( int b = 0; b < size; b++ ){
+                    boolean dark = rows ? modules[a][b] : modules[b][a];
+                    if( b > 0 && dark == previous ){
+                        run++;
+                    }
+                    else{
+                        if( run >= 5 ){
+                            result += run - 2;
+                        }
+                        run = 1;
+                        previous = dark;
+                    }
+                }
+                if( run >= 5 ){
+                    result += run - 2;
+                }
+                //dark-light-dark-dark-dark-light-dark with four light modules on one side
+                for( int b = 0; b + 11 <= size; b++ ){
+                    int pattern = 0;
+                    for( int k = 0; k < 11; k++ ){
+                        pattern = pattern << 1 | ((rows ? modules[a][b + k] : modules[b + k][a]) ? 1 : 0);
+                    }
+                    if( pattern == 0x5D0 || pattern == 0x05D ){
+                        result += 40;
+                    }
+                }
+            }
+        }
+        for( int y = 0; y < size - 1; y++ ){
+            for( int x = 0; x < size - 1; x++ ){
+                boolean dark = modules[y][x];
+                if( dark == modules[y][x + 1] && dark == modules[y + 1][x] && dark == modules[y + 1][x + 1] ){
+                    result += 3;
+                }
+            }
+        }
+        int dark = 0;
+        for( boolean[] row : modules ){
+            for( boolean module : row ){
+                if( module ){
+                    dark++;
+                }
+            }
+        }
+        int total = size * size;
+        int k = (Math.abs(dark * 20 - total * 10) + total - 1) / total - 1;
+        result += k * 10;
+        return result;
+    }
+
+    private void setFunction(int x, int y, boolean dark) {
+        modules[y][x] = dark;
+        isFunction[y][x] = true;
+    }
+
+    /**
+     *  checks a text fits in a QR code without encoding it, e.g. before a label is queued
+     *
+     *  @param text the text to encode
+     *  @param levelName the error correction level: L, M, Q or H
+     *  @throws IllegalArgumentException if the level is unknown or the text does not fit in a QR code
+     */
+    static void check(String text, char levelName) {
+        versionFor(bytesOf(text), levelOf(levelName));
+    }
+
+    private static int levelOf(char levelName) {
+        int level = LEVELS.indexOf(Character.toUpperCase(levelName));
+        if( level < 0 ){
+            throw new IllegalArgumentException("Unknown QR error correction level " + levelName + ".");
+        }
+        return level;
+    }
+
+    private static byte[] bytesOf(String text) {
+        return (text == null ? "" : text).getBytes(UTF8);
+    }
+
+    /**
+     *  @return the smallest version holding the data in byte mode at the level given
+     */
+    private static int versionFor(byte[] data, int level) {
+        for( int version = 1; version <= 40; version++ ){
+            int countBits = version <= 9 ? 8 : 16;
+            if( data.length < (1 << countBits) && 4 + countBits + data.length * 8 <= dataCodewords(version, level) * 8 ){
+                return version;
+            }
+        }
+        throw new IllegalArgumentException("Too much text for a QR code at level " + LEVELS.charAt(level) + ": " + data.length + " bytes.");
+    }
+
+    private static boolean bit(int value, int index) {
+        return ((value >>> index) & 1) != 0;
+    }
+
+    private static int rawDataModules(int version) {
+        int result = (16 * version + 128) * version + 64;
+        if( version >= 2 ){
+            int alignments = version / 7 + 2;
+            result -= (25 * alignments - 10) * alignments - 55;
+            if( version >= 7 ){
+                result -= 36;
+            }
+        }
+        return result;
+    }
+
+    private static int dataCodewords(int version, int level) {
+        return rawDataModules(version) / 8 - ECC_CODEWORDS_PER_BLOCK[level][version] * NUM_ERROR_CORRECTION_BLOCKS[level][version];
+    }
+
+    private static byte[] reedSolomonDivisor(int degree) {
+        byte[] result = new byte[degree];
+        result[degree - 1] = 1;
+        int root = 1;
+        for( int i = 0; i < degree; i++ ){
+            for( int j = 0; j < degree; j++ ){
+                result[j] = (byte)multiply(result[j] & 0xFF, root);
+                if( j + 1 < degree ){
+                    result[j] ^= result[j + 1];
+                }
+            }
+            root = multiply(root, 0x02);
+        }
+        return result;
+    }
+
+    private static byte[] reedSolomonRemainder(byte[] data, byte[] divisor) {
+        byte[] result = new byte[divisor.length];
+        for( byte b : data ){
+            int factor = (b ^ result[0]) & 0xFF;
+            System.arraycopy(result, 1, result, 0, result.length - 1);
+            result[result.length - 1] = 0;
+            for( int i = 0; i < result.length; i++ ){
+                result[i] ^= multiply(divisor[i] & 0xFF, factor);
+            }
+        }
+        return result;
+    }
+
+    //multiplication in GF(2^8) modulo x^8 + x^4 + x^3 + x^2 + 1
+    private static int multiply(int x, int y) {
+        int z = 0;
+        for( int i = 7; i >= 0; i-- ){
+            z = (z << 1) ^ ((z >>> 7) * 0x11D);
+            z ^= ((y >>> i) & 1) * x;
+        }
+        return z;
+    }
+
+}
@@ -0,0 +1,454 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *   RasterCache - size bounded cache of print-ready label images
+ *
+ *   Entries live in a memory tier (least recently used bitmaps, bounded by bytes) backed by a disk
+ *   tier of PNG files (bounded by bytes, oldest files evicted first). A disk hit is promoted back to
+ *   memory. Disk writes happen on a background thread so they never delay the job that produced
+ *   the image.
+ *
+ *   Keys are built by {@link #keyFor(String, String, String, String)} and carry the paper name, so a
+ *   cached image can be reprinted from its key alone.
+ *
+ *   Images that must outlive the cache (labels waiting in the print spool) are pinned: they are kept
+ *   in a separate directory, usually under the app files dir which the system does not clear, until
+ *   every pin on them is released.
+ */
+class RasterCache {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Cache]";
+
+    static final long DEFAULT_MEMORY_BYTES = 16 * 1024 * 1024;
+    static final long DEFAULT_DISK_BYTES = 64 * 1024 * 1024;
+
+    private static final String FILE_SUFFIX = ".png";
+
+    //Holds the memory tier in least recently used order
+    private final LinkedHashMap<String,Bitmap> memory = new LinkedHashMap<String,Bitmap>(16, 0.75f, true);
+
+    private final File directory;
+    private final File pinnedDirectory;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private long memoryBytes;
+    private long diskBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong memoryEvictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    //Holds the number of pins on every pinned image, an image is often spooled more than once; guarded by itself
+    private final Map<String,Integer> pins = new HashMap<String,Integer>();
+
+    private final ExecutorService diskWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BrotherPrinter-cache");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     *  @param directory the directory holding the disk tier, usually under the app cache dir
+     *  @param pinnedDirectory the directory holding the pinned images, usually under the app files dir
+     */
+    RasterCache(File directory, File pinnedDirectory) {
+        this(directory, pinnedDirectory, DEFAULT_MEMORY_BYTES, DEFAULT_DISK_BYTES);
+    }
+
+    RasterCache(File directory, File pinnedDirectory, long maxMemoryBytes, long maxDiskBytes) {
+        this.directory = directory;
+        this.pinnedDirectory = pinnedDirectory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        if( !directory.exists() && !directory.mkdirs() ){
+            Log.d(TAG, "could not create cache directory " + directory);
+        }
+        if( !pinnedDirectory.exists() && !pinnedDirectory.mkdirs() ){
+            Log.d(TAG, "could not create cache directory " + pinnedDirectory);
+        }
+        File[] files = directory.listFiles();
+        if( files != null ){
+            for( File file : files ){
+                diskBytes += file.length();
+            }
+        }
+    }
+
+    /**
+     *  builds the key of a print-ready image
+     *
+     *  @param contentHash the hash of the source image
+     *  @param paperName the paper the image was prepared for
+     *  @param modelName the printer model the image was prepared for
+     *  @param settings any other settings that change the output (e.g. the dithering algorithm)
+     *  @return a key which is also safe to use as a file name
+     */
+    static String keyFor(String contentHash, String paperName, String modelName, String settings) {
+        return contentHash + "_" + sanitize(paperName) + "_" + sanitize(modelName) + "_" + sanitize(settings);
+    }
+
+    /**
+     *  @param key a key, e.g. received from JS
+     *  @return true if the key has the format built by {@link #keyFor(String, String, String, String)}, so it cannot
+     *          name a file outside the cache
+     */
+    static boolean isValidKey(String key) {
+        return key != null && key.matches("[A-Za-z0-9_-]{1,200}");
+    }
+
+    /**
+     *  @param key a key built by {@link #keyFor(String, String, String, String)}
+     *  @return the paper name the image was prepared for
+     */
+    static String paperNameOf(String key) {
+        String[] parts = key.split("_");
+        return parts.length > 1 ? parts[1] : null;
+    }
+
+    /**
+     *  @param key the key of the image
+     *  @return the cached image, or null if it is in neither tier
+     */
+    Bitmap get(String key) {
+        if( !isValidKey(key) ){
+            return null;
+        }
+        synchronized (memory) {
+            Bitmap bitmap = memory.get(key);
+            if( bitmap != null ){
+                memoryHits.incrementAndGet();
+                return bitmap;
+            }
+        }
+
+        File pinnedFile = pinnedFileFor(key);
+        if( pinnedFile.exists() ){
+            Bitmap bitmap = BitmapFactory.decodeFile(pinnedFile.getPath());
+            if( bitmap != null ){
+                diskHits.incrementAndGet();
+                putMemory(key, bitmap);
+                return bitmap;
+            }
+        }
+
+        File file = fileFor(key);
+        if( file.exists() ){
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+            if( bitmap != null ){
+                diskHits.incrementAndGet();
+                //keeps frequently reprinted files at the young end of the disk tier
+                file.setLastModified(System.currentTimeMillis());
+                putMemory(key, bitmap);
+                return bitmap;
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     *  @param key the key of the image
+     *  @return true if the image is held in either tier, without counting as a hit or miss
+     */
+    boolean contains(String key) {
+        if( !isValidKey(key) ){
+            return false;
+        }
+        synchronized (memory) {
+            if( memory.containsKey(key) ){
+                return true;
+            }
+        }
+        return pinnedFileFor(key).exists() || fileFor(key).exists();
+    }
+
+    /**
+     *  adds an image to the memory tier and schedules it to be written to the disk tier
+     *
+     *  @param key the key of the image
+     *  @param bitmap the print-ready image; it must not be recycled while cached
+     */
+    void put(final String key, final Bitmap bitmap) {
+        putMemory(key, bitmap);
+        diskWriter.execute(new Runnable() {
+            public void run() {
+                writeToDisk(key, bitmap);
+            }
+        });
+    }
+
+    /**
+     *  writes a pinned image to the pinned directory now, rather than in the background
+     *
+     *  @param key the key of an image pinned with {@link #pin(String)}, held in either tier
+     *  @return true if the image is in the pinned directory
+     */
+    boolean persist(final String key) {
+        Bitmap held;
+        synchronized (memory) {
+            held = memory.get(key);
+        }
+        if( held == null && fileFor(key).exists() ){
+            held = BitmapFactory.decodeFile(fileFor(key).getPath());
+        }
+        final Bitmap bitmap = held;
+        if( bitmap != null ){
+            //on the disk writer, so it does not race a background write or an unpin of the same image
+            try {
+                diskWriter.submit(new Runnable() {
+                    public void run() {
+                        if( isPinned(key) ){
+                            write(pinnedFileFor(key), bitmap);
+                        }
+                    }
+                }).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.d(TAG, "could not write " + key + ": " + e.toString());
+            }
+        }
+        return pinnedFileFor(key).exists();
+    }
+
+    /**
+     *  keeps an image until it is unpinned as many times as it was pinned, whatever the size of the cache;
+     *  an image pinned for the first time is only kept once written with {@link #persist(String)}
+     *
+     *  @param key the key of the image
+     */
+    void pin(String key) {
+        synchronized (pins) {
+            Integer count = pins.get(key);
+            pins.put(key, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     *  releases one pin on an image; the image goes back to the disk tier once the last pin is released
+     *
+     *  @param key the key of an image pinned with {@link #pin(String)}
+     */
+    void unpin(final String key) {
+        synchronized (pins) {
+            Integer count = pins.get(key);
+            if( count == null ){
+                return;
+            }
+            if( count > 1 ){
+                pins.put(key, count - 1);
+                return;
+            }
+            pins.remove(key);
+        }
+        diskWriter.execute(new Runnable() {
+            public void run() {
+                if( !isPinned(key) ){
+                    unpinFile(key);
+                }
+            }
+        });
+    }
+
+    /**
+     *  deletes the pinned images no longer pinned, e.g. those of jobs that completed just before the app was
+     *  closed; to be called once the pins of the previous session have been restored
+     */
+    void dropUnpinned() {
+        diskWriter.execute(new Runnable() {
+            public void run() {
+                File[] files = pinnedDirectory.listFiles();
+                for( int i = 0; files != null && i < files.length; i++ ){
+                    String name = files[i].getName();
+                    if( !name.endsWith(FILE_SUFFIX) || !isPinned(name.substring(0, name.length() - FILE_SUFFIX.length())) ){
+                        files[i].delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     *  @return the hit/miss and eviction counters and the size of both tiers
+     */
+    JSONObject getStats() throws JSONException {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        JSONObject stats = new JSONObject();
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRate", total == 0 ? 0d : (double) hits / total);
+        stats.put("memoryEvictions", memoryEvictions.get());
+        stats.put("diskEvictions", diskEvictions.get());
+        synchronized (memory) {
+            stats.put("memoryEntries", memory.size());
+            stats.put("memoryBytes", memoryBytes);
+        }
+        synchronized (this) {
+            stats.put("diskBytes", diskBytes);
+        }
+        stats.put("maxMemoryBytes", maxMemoryBytes);
+        stats.put("maxDiskBytes", maxDiskBytes);
+        synchronized (pins) {
+            stats.put("pinned", pins.size());
+        }
+        return stats;
+    }
+
+    /**
+     *  drops the memory tier, the disk tier is kept for the next session
+     */
+    void clearMemory() {
+        synchronized (memory) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+    }
+
+    private void putMemory(String key, Bitmap bitmap) {
+        synchronized (memory) {
+            Bitmap previous = memory.put(key, bitmap);
+            memoryBytes += bitmap.getByteCount();
+            if( previous != null ){
+                memoryBytes -= previous.getByteCount();
+            }
+            //evicted bitmaps are not recycled, a job may still be printing them
+            Iterator<Map.Entry<String,Bitmap>> it = memory.entrySet().iterator();
+            while( memoryBytes > maxMemoryBytes && it.hasNext() ){
+                memoryBytes -= it.next().getValue().getByteCount();
+                it.remove();
+                memoryEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void writeToDisk(String key, Bitmap bitmap) {
+        File file = fileFor(key);
+        if( file.exists() || pinnedFileFor(key).exists() ){
+            return;
+        }
+        if( write(file, bitmap) ){
+            synchronized (this) {
+                diskBytes += file.length();
+                trimDisk();
+            }
+        }
+    }
+
+    /**
+     *  moves an image no longer pinned to the disk tier, where it can be reprinted until it is evicted
+     */
+    private void unpinFile(String key) {
+        File pinnedFile = pinnedFileFor(key);
+        File file = fileFor(key);
+        if( !pinnedFile.exists() ){
+            return;
+        }
+        long length = pinnedFile.length();
+        if( !file.exists() && pinnedFile.renameTo(file) ){
+            synchronized (this) {
+                diskBytes += length;
+                trimDisk();
+            }
+        }
+        else{
+            pinnedFile.delete();
+        }
+    }
+
+    private static boolean write(File file, Bitmap bitmap) {
+        if( file.exists() ){
+            return true;
+        }
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            } finally {
+                out.close();
+            }
+            if( !temp.renameTo(file) ){
+                throw new IOException("could not rename " + temp);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "Temp file action failed: " + e.toString());
+            temp.delete();
+            return false;
+        }
+    }
+
+    private boolean isPinned(String key) {
+        synchronized (pins) {
+            return pins.containsKey(key);
+        }
+    }
+
+    private void trimDisk() {
+        if( diskBytes <= maxDiskBytes ){
+            return;
+        }
+        File[] files = directory.listFiles();
+        if( files == null ){
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for( int i = 0; i < files.length && diskBytes > maxDiskBytes; i++ ){
+            long length = files[i].length();
+            if( files[i].delete() ){
+                diskBytes -= length;
+                diskEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, key + FILE_SUFFIX);
+    }
+
+    private File pinnedFileFor(String key) {
+        return new File(pinnedDirectory, key + FILE_SUFFIX);
+    }
+
+    private static String sanitize(String value) {
+        return value == null ? "" : value.replaceAll("[^A-Za-z0-9-]", "");
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ *   RawCommandSender - sends printer command data (PRN files, raster commands, PJL...) as is
+ *
+ *   Network printers receive the data straight over their raw print port, without the SDK and
+ *   without a temp file. The SDK only accepts files for USB printers, so the data is written to a
+ *   temp file there, byte for byte. See {@link PrinterTransport}.
+ */
+class RawCommandSender {
+
+    /**
+     *  command data that can be written out without being copied into a single buffer first
+     */
+    interface Payload {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     *  @param data the command data
+     *  @return a payload writing the data provided
+     */
+    static Payload of(final byte[] data) {
+        return new Payload() {
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(data);
+            }
+        };
+    }
+
+    /**
+     *  @param job the configuration of the job; "port:n" sends to another raw print port than 9100, e.g. of a
+     *             simulated printer
+     *  @param tempDir the directory temp files are written to for USB printers
+     *  @return the transport that reaches the printer of the job
+     */
+    static PrinterTransport transportFor(PrintJobConfig job, File tempDir) {
+        return transportFor(job, tempDir, false);
+    }
+
+    /**
+     *  @param job the configuration of the job, see {@link #transportFor(PrintJobConfig, File)}
+     *  @param tempDir the directory temp files are written to for USB printers
+     *  @param raster true if the data is a QL raster job, after which network printers are asked for their status
+     *  @return the transport that reaches the printer of the job
+     */
+    static PrinterTransport transportFor(PrintJobConfig job, File tempDir, boolean raster) {
+        if( job.usb ){
+            return new SdkTransport(tempDir);
+        }
+        int port = PrinterDiscovery.RAW_PORT;
+        if( job.options.get("port") != null ){
+            port = Integer.parseInt(job.options.get("port"));
+        }
+        return new SocketTransport(job.ipAddress, port, raster);
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import com.brother.ptouch.sdk.PrinterInfo.ErrorCode;
+import com.brother.ptouch.sdk.PrinterStatus;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ *   SdkTransport - sends command data through the Brother SDK session of the job
+ *
+ *   The SDK only accepts command data as files, so the data is written to a temp file, byte for
+ *   byte, and handed to printFile.
+ */
+class SdkTransport implements PrinterTransport {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter SdkTransport]";
+
+    private final File tempDir;
+
+    /**
+     *  @param tempDir the directory the temp files are written to
+     */
+    SdkTransport(File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    /**
+     *  @param job the job the data is sent for, whose printer session is used
+     */
+    public PrinterStatus send(RawCommandSender.Payload payload, PrintJob job) {
+        File temp = null;
+        try {
+            temp = File.createTempFile("raw", ".prn", tempDir);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 16 * 1024);
+            try {
+                payload.writeTo(out);
+            } finally {
+                out.close();
+            }
+            job.lockSdk();
+            try {
+                return job.printer(job.config).printFile(temp.getPath());
+            } finally {
+                job.unlockSdk();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Temp file action failed: " + e.toString());
+            PrinterStatus status = new PrinterStatus();
+            status.errorCode = ErrorCode.ERROR_INTERNAL_ERROR;
+            return status;
+        } finally {
+            if( temp != null ){
+                temp.delete();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "sdk";
+    }
+
+}
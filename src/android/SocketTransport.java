@@ -0,0 +1,201 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.util.Log;
+
+import com.brother.ptouch.sdk.PrinterInfo.ErrorCode;
+import com.brother.ptouch.sdk.PrinterStatus;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ *   SocketTransport - sends command data over the raw print port of a network printer
+ *
+ *   Every transfer opens its own connection, which the printer treats as one print job; the data is
+ *   written as it is produced, without the SDK and without a temp file. A QL raster job is followed
+ *   by a status request (ESC i S), so a job the printer could not print (out of paper, cover open...)
+ *   is reported as failed rather than as sent.
+ */
+class SocketTransport implements PrinterTransport {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter Socket]";
+
+    static final int CONNECT_TIMEOUT_MS = 3000;
+    static final int WRITE_TIMEOUT_MS = 30000;
+
+    //ESC i S, answered by the QL printers with a 32 byte status once the job before it is printed
+    private static final byte[] STATUS_REQUEST = { 0x1B, 'i', 'S' };
+
+    //layout of the status: error information 1 and 2, and the status type
+    static final int STATUS_LENGTH = 32;
+    private static final int STATUS_ERROR_1 = 8;
+    private static final int STATUS_ERROR_2 = 9;
+    private static final int STATUS_TYPE = 18;
+
+    //status types of a reply to a status request and of an error notification
+    private static final int TYPE_REPLY = 0x00;
+    private static final int TYPE_ERROR = 0x02;
+
+    private final String host;
+    private final int port;
+    private final boolean readStatus;
+
+    /**
+     *  @param host the address of the printer
+     *  @param port the raw print port, {@link PrinterDiscovery#RAW_PORT} for real printers
+     *  @param readStatus true if the data is a QL raster job, after which the status of the printer is read back
+     */
+    SocketTransport(String host, int port, boolean readStatus) {
+        this.host = host;
+        this.port = port;
+        this.readStatus = readStatus;
+    }
+
+    /**
+     *  @param job the job the data is sent for, cancelling it closes the connection; may be null
+     */
+    public PrinterStatus send(RawCommandSender.Payload payload, PrintJob job) {
+        PrinterStatus status = new PrinterStatus();
+        final Socket socket = new Socket();
+        if( job != null ){
+            job.setCancelAction(new Runnable() {
+                public void run() {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        //the transfer fails either way
+                    }
+                }
+            });
+        }
+        try {
+            socket.setSoTimeout(WRITE_TIMEOUT_MS);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            payload.writeTo(out);
+            if( readStatus ){
+                out.write(STATUS_REQUEST);
+            }
+            out.flush();
+            socket.shutdownOutput();
+            status.errorCode = readStatus ? readStatus(socket.getInputStream(), status) : ErrorCode.ERROR_NONE;
+        } catch (ConnectException e) {
+            Log.d(TAG, "could not connect to " + host + ": " + e.toString());
+            status.errorCode = ErrorCode.ERROR_CONNECT_SOCKET_FAILED;
+        } catch (SocketTimeoutException e) {
+            if( !socket.isConnected() ){
+                Log.d(TAG, "timed out connecting to " + host + ": " + e.toString());
+                status.errorCode = ErrorCode.ERROR_CONNECT_SOCKET_FAILED;
+            }
+            else{
+                //the data may have reached the printer, it just stopped answering
+                Log.d(TAG, "timed out sending to " + host + ": " + e.toString());
+                status.errorCode = ErrorCode.ERROR_COMMUNICATION_ERROR;
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "sending to " + host + " failed: " + e.toString());
+            status.errorCode = ErrorCode.ERROR_COMMUNICATION_ERROR;
+        } finally {
+            if( job != null ){
+                job.setCancelAction(null);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //nothing to release
+            }
+        }
+        return status;
+    }
+
+    /**
+     *  reads the statuses the printer sends until the reply to the status request, or an error
+     *
+     *  @param status receives the status read, in its status bytes
+     *  @return the error reported by the printer, ERROR_NONE if there is none
+     */
+    private ErrorCode readStatus(InputStream in, PrinterStatus status) throws IOException {
+        byte[] reply = status.statusBytes;
+        while( true ){
+            int read = 0;
+            while( read < STATUS_LENGTH ){
+                int n = in.read(reply, read, STATUS_LENGTH - read);
+                if( n < 0 ){
+                    Log.d(TAG, host + " closed the connection without a status");
+                    return ErrorCode.ERROR_COMMUNICATION_ERROR;
+                }
+                read += n;
+            }
+            ErrorCode error = errorOf(reply);
+            int type = reply[STATUS_TYPE] & 0xFF;
+            if( error != ErrorCode.ERROR_NONE || type == TYPE_REPLY || type == TYPE_ERROR ){
+                return error;
+            }
+            //e.g. printing completed or a phase change, the reply follows
+        }
+    }
+
+    /**
+     *  @param reply a status as sent by a QL printer
+     *  @return the error given by the error information bytes of the status, ERROR_NONE if there is none
+     */
+    static ErrorCode errorOf(byte[] reply) {
+        int error1 = reply[STATUS_ERROR_1] & 0xFF;
+        int error2 = reply[STATUS_ERROR_2] & 0xFF;
+        if( (error1 & 0x03) != 0 ){
+            //no media, end of media
+            return ErrorCode.ERROR_PAPER_EMPTY;
+        }
+        if( (error1 & 0x04) != 0 ){
+            //cutter jam
+            return ErrorCode.ERROR_PAPER_JAM;
+        }
+        if( (error2 & 0x10) != 0 ){
+            return ErrorCode.ERROR_COVER_OPEN;
+        }
+        if( (error2 & 0x01) != 0 ){
+            //replace media
+            return ErrorCode.ERROR_WRONG_LABEL;
+        }
+        if( (error2 & 0x40) != 0 ){
+            //media cannot be fed
+            return ErrorCode.ERROR_FEED_OR_CASSETTE_EMPTY;
+        }
+        if( (error2 & 0x20) != 0 ){
+            //cancelled on the printer
+            return ErrorCode.ERROR_CANCEL;
+        }
+        if( (error1 & 0x10) != 0 ){
+            //printer in use
+            return ErrorCode.ERROR_BUSY;
+        }
+        if( (error2 & 0x0A) != 0 ){
+            //expansion or communication buffer full
+            return ErrorCode.ERROR_BUFFER_FULL;
+        }
+        if( (error2 & 0x04) != 0 ){
+            return ErrorCode.ERROR_COMMUNICATION_ERROR;
+        }
+        if( (error1 & 0x40) != 0 ){
+            return ErrorCode.ERROR_HIGH_VOLTAGE_ADAPTER;
+        }
+        if( (error1 & 0xA0) != 0 || (error2 & 0x80) != 0 ){
+            //printer turned off, fan motor or system error
+            return ErrorCode.ERROR_SYSTEM_ERROR;
+        }
+        return ErrorCode.ERROR_NONE;
+    }
+
+    @Override
+    public String toString() {
+        return "socket " + host + ":" + port;
+    }
+
+}
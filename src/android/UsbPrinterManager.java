@@ -0,0 +1,243 @@
+package com.threescreens.cordova.plugin.brotherPrinter;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.os.Build;
+import android.util.Log;
+
+import com.brother.ptouch.sdk.Printer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *   UsbPrinterManager - tracks the USB attached printer and the permission to use it
+ *
+ *   A single receiver, registered once, listens for the permission result and for printers being
+ *   attached or detached. Requests for access are answered straight away while the permission is
+ *   held; otherwise they wait for the permission broadcast (permission is requested once, however
+ *   many requests are waiting) without holding a thread. The device is looked up once and kept
+ *   until it is detached.
+ */
+class UsbPrinterManager {
+
+    //Holds the token to make it easy to grep logcat
+    private static final String TAG = "[BrotherPrinter USB]";
+
+    static final String ACTION_USB_PERMISSION = "com.threescreens.cordova.plugin.brotherPrinter.USB_PERMISSION";
+
+    /**
+     *  receives the outcome of a request for access to the USB printer, on the thread delivering it
+     */
+    interface AccessCallback {
+        void onGranted();
+        void onDenied(String message);
+    }
+
+    private final Context context;
+    private final UsbManager usbManager;
+
+    //Holds the intent the permission result is broadcast with, created on the first permission request; guarded by this
+    private PendingIntent permissionIntent;
+
+    //Holds the requests waiting for the permission broadcast
+    private final List<AccessCallback> waiting = new ArrayList<AccessCallback>();
+
+    //Holds the attached printer, looked up on first use; guarded by this
+    private UsbDevice device;
+    private boolean permissionRequested;
+    private boolean registered;
+
+    //notified when the printer is detached, e.g. to drop the session configured for it
+    private volatile Runnable onDetached;
+
+    private final BroadcastReceiver receiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if( ACTION_USB_PERMISSION.equals(action) ){
+                onPermissionResult(intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false));
+            }
+            else if( UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action) ){
+                onDeviceDetached((UsbDevice) intent.getParcelableExtra(UsbManager.EXTRA_DEVICE));
+            }
+            else if( UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(action) ){
+                onDeviceAttached();
+            }
+        }
+    };
+
+    /**
+     *  @param context the application context
+     */
+    UsbPrinterManager(Context context) {
+        this.context = context;
+        this.usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+    }
+
+    /**
+     *  @return the system USB manager, which the SDK needs to open the printer
+     */
+    UsbManager getUsbManager() {
+        return usbManager;
+    }
+
+    /**
+     *  @param onDetached run when the printer is detached
+     */
+    void setOnDetached(Runnable onDetached) {
+        this.onDetached = onDetached;
+    }
+
+    /**
+     *  registers the receiver for the permission result and attach/detach events, if it is not registered already
+     */
+    synchronized void start() {
+        if( registered ){
+            return;
+        }
+        IntentFilter filter = new IntentFilter(ACTION_USB_PERMISSION);
+        filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+        filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+        if (Build.VERSION.SDK_INT >= 34) {
+            //the permission result is broadcast by the app itself and the attach/detach events by the system
+            context.registerReceiver(receiver, filter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            context.registerReceiver(receiver, filter);
+        }
+        registered = true;
+    }
+
+    /**
+     *  asks for access to the attached printer
+     *
+     *  @param callback notified once access is granted or denied; straight away, on the calling thread, when the outcome is already known
+     */
+    void requestAccess(AccessCallback callback) {
+        start();
+
+        boolean granted;
+        synchronized (this) {
+            UsbDevice usbDevice = findDevice();
+            if( usbDevice == null ){
+                granted = false;
+            }
+            else if( usbManager.hasPermission(usbDevice) ){
+                granted = true;
+            }
+            else{
+                waiting.add(callback);
+                if( !permissionRequested ){
+                    permissionRequested = true;
+                    usbManager.requestPermission(usbDevice, permissionIntent());
+                }
+                return;
+            }
+        }
+
+        if( granted ){
+            callback.onGranted();
+        }
+        else{
+            Log.d(TAG, "USB device not found");
+            callback.onDenied("No USB printer is attached.");
+        }
+    }
+
+    /**
+     *  unregisters the receiver and fails any request still waiting for permission
+     */
+    void shutdown() {
+        List<AccessCallback> pending;
+        synchronized (this) {
+            if( registered ){
+                context.unregisterReceiver(receiver);
+                registered = false;
+            }
+            pending = drain();
+        }
+        for( AccessCallback callback : pending ){
+            callback.onDenied("The plugin was shut down before USB permission was granted.");
+        }
+    }
+
+    private void onPermissionResult(boolean granted) {
+        List<AccessCallback> pending;
+        synchronized (this) {
+            pending = drain();
+        }
+        Log.d(TAG, granted ? "USB permission granted" : "USB permission rejected");
+        for( AccessCallback callback : pending ){
+            if( granted ){
+                callback.onGranted();
+            }
+            else{
+                callback.onDenied("Permission to use the USB printer was not granted.");
+            }
+        }
+    }
+
+    private void onDeviceDetached(UsbDevice detached) {
+        List<AccessCallback> pending;
+        synchronized (this) {
+            if( device == null || (detached != null && !device.getDeviceName().equals(detached.getDeviceName())) ){
+                return;
+            }
+            device = null;
+            pending = drain();
+        }
+        Log.d(TAG, "USB printer detached");
+        Runnable callback = onDetached;
+        if( callback != null ){
+            callback.run();
+        }
+        for( AccessCallback request : pending ){
+            request.onDenied("The USB printer was detached.");
+        }
+    }
+
+    private synchronized void onDeviceAttached() {
+        //looked up again on the next request; attaching is not broadcast to receivers on every Android version,
+        //which is why a missing device is also looked up on every request
+        device = null;
+        Log.d(TAG, "USB device attached");
+    }
+
+    /**
+     *  the intent must be mutable for the system to add the result to it, and mutable intents must be explicit
+     */
+    private PendingIntent permissionIntent() {
+        if( permissionIntent == null ){
+            Intent intent = new Intent(ACTION_USB_PERMISSION);
+            intent.setPackage(context.getPackageName());
+            int flags = Build.VERSION.SDK_INT >= 31 ? PendingIntent.FLAG_MUTABLE : 0;
+            permissionIntent = PendingIntent.getBroadcast(context, 0, intent, flags);
+        }
+        return permissionIntent;
+    }
+
+    private UsbDevice findDevice() {
+        if( device == null ){
+            PrinterSessionPool.SDK_LOCK.lock();
+            try{
+                device = new Printer().getUsbDevice(usbManager);
+            }finally{
+                PrinterSessionPool.SDK_LOCK.unlock();
+            }
+        }
+        return device;
+    }
+
+    private List<AccessCallback> drain() {
+        List<AccessCallback> pending = new ArrayList<AccessCallback>(waiting);
+        waiting.clear();
+        permissionRequested = false;
+        return pending;
+    }
+
+}
@@ -1,20 +1,64 @@
 var BrotherPrinter = function () {}
+
+// command data is sent as text, or as an ArrayBuffer (which cordova passes to the plugin as base64)
+var rawPayloadArgs = function (data) {
+    if (data instanceof ArrayBuffer) {
+        return [data, "encoding:binary"]
+    }
+    if (ArrayBuffer.isView(data)) {
+        return [data.buffer.slice(data.byteOffset, data.byteOffset + data.byteLength), "encoding:binary"]
+    }
+    return [data]
+}
+
+// every print job carries an id, so it can be cancelled with cancelJob; the id is returned by the print call
+var jobCounter = 0
+var jobArgs = function (args, options) {
+    var id = (options && options.job) || ('job-' + Date.now().toString(36) + '-' + (jobCounter++))
+    args.push("job:" + id)
+    if( options && options.group !== undefined ){
+      args.push("group:" + options.group);
+    }
+    if( options && options.preflight !== undefined ){
+      args.push("preflight:" + options.preflight);
+    }
+    if( options && options.spool !== undefined ){
+      args.push("spool:" + options.spool);
+    }
+    if( options && options.timeout !== undefined ){
+      args.push("timeout:" + options.timeout);
+    }
+    if( options && options.retries !== undefined ){
+      args.push("retries:" + options.retries);
+    }
+    if( options && options.engine !== undefined ){
+      args.push("engine:" + options.engine);
+    }
+    if( options && options.compress !== undefined ){
+      args.push("compress:" + options.compress);
+    }
+    return id
+}
 BrotherPrinter.prototype = {
-    findNetworkPrinters: function (callback, scope) {
+    findNetworkPrinters: function (callback, scope, options) {
         var callbackFn = function () {
             var args = typeof arguments[0] == 'boolean' ? arguments : arguments[0]
             callback.apply(scope || window, args)
         }
-        cordova.exec(callbackFn, null, 'BrotherPrinter', 'findNetworkPrinters', [])
+        cordova.exec(callbackFn, null, 'BrotherPrinter', 'findNetworkPrinters', options ? [options] : [])
     },
-    setSessionPrinter: function (data, callback) {
+    setSessionPrinter: function (data, callback, paper) {
         if (!data || !data.length) {
             console.log('No data passed in. Expects a string representing the serial number.')
             return
         }
-        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'setSessionPrinter', [data])
+        var args = [data];
+        if( paper !== undefined ){
+          args.push(paper);
+        }
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'setSessionPrinter', args)
     },
-    printPdf: function( options, callback ){
+    printPdf: function( options, callback, progress ){
 
         if( !options || options.file === undefined ){
           console.log("No path for the pdf was specified");
@@ -28,8 +72,29 @@ BrotherPrinter.prototype = {
         if( options.paper !== undefined ){
           args.push("paper:" + options.paper);
         }
+        if( options.dither !== undefined ){
+          args.push("dither:" + options.dither);
+        }
+        if( options.lookahead !== undefined ){
+          args.push("lookahead:" + options.lookahead);
+        }
+        if( options.render !== undefined ){
+          args.push("render:" + options.render);
+        }
+        if( progress ){
+          args.push("progress:true");
+        }
+        var id = jobArgs(args, options);
 
-        cordova.exec(callback, function(err){ console.log('error: '+err)}, 'BrotherPrinter', 'printPdf', args);
+        var callbackFn = function (result) {
+            if (typeof result === 'object') {
+                progress(result)
+                return
+            }
+            if (callback) callback(result)
+        }
+        cordova.exec(callbackFn, function(err){ console.log('error: '+err)}, 'BrotherPrinter', 'printPdf', args);
+        return id;
     },
     printBitmapImage: function (options, callback) {
 
@@ -45,23 +110,275 @@ BrotherPrinter.prototype = {
         if( options.paper !== undefined ){
           args.push("paper:" + options.paper);
         }
+        if( options.dither !== undefined ){
+          args.push("dither:" + options.dither);
+        }
+        if( options.threshold !== undefined ){
+          args.push("threshold:" + options.threshold);
+        }
+        if( options.detailed ){
+          args.push("result:detailed");
+        }
+        var id = jobArgs(args, options);
 
         cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'printViaSDK', args)
+        return id
+    },
+    reprint: function (options, callback) {
+
+        if (!options || !options.cacheKey) {
+            console.log('No cache key passed in. Expects the cacheKey of a detailed printBitmapImage result.')
+            return
+        }
+
+        var args = [options.cacheKey];
+        if( options.printer !== undefined ){
+          args.push("printer:" + options.printer);
+        }
+        var id = jobArgs(args, options);
+
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'reprint', args)
+        return id
+    },
+    printBatch: function (options, callback, progress) {
+
+        if (!options || !options.items || !options.items.length) {
+            console.log('No items passed in. Expects an array of { image: base64 } or { file: path, page: n } objects.')
+            return
+        }
+
+        var args = [options.items];
+        if( options.printer !== undefined ){
+          args.push("printer:" + options.printer);
+        }
+        if( options.paper !== undefined ){
+          args.push("paper:" + options.paper);
+        }
+        if( options.dither !== undefined ){
+          args.push("dither:" + options.dither);
+        }
+        if( options.threshold !== undefined ){
+          args.push("threshold:" + options.threshold);
+        }
+        var id = jobArgs(args, options);
+
+        var callbackFn = function (result) {
+            if (!result.done) {
+                if (progress) progress(result)
+                return
+            }
+            if (callback) callback(result)
+        }
+        cordova.exec(callbackFn, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'printBatch', args)
+        return id
+    },
+    beginImage: function (callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'beginImage', [])
+    },
+    appendImageChunk: function (id, chunk, callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'appendImageChunk', [id, chunk])
+    },
+    commitImage: function (id, options, callback) {
+
+        var args = [id];
+        if( options && options.printer !== undefined ){
+          args.push("printer:" + options.printer);
+        }
+        if( options && options.paper !== undefined ){
+          args.push("paper:" + options.paper);
+        }
+        if( options && options.dither !== undefined ){
+          args.push("dither:" + options.dither);
+        }
+        if( options && options.threshold !== undefined ){
+          args.push("threshold:" + options.threshold);
+        }
+        var jobId = jobArgs(args, options);
+
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'commitImage', args)
+        return jobId
+    },
+    abortImage: function (id, callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'abortImage', [id])
+    },
+    printImageChunked: function (options, callback) {
+
+        if (!options || options.image === undefined) {
+            console.log('No data passed in. Expects a bitmap (base64).')
+            return
+        }
 
+        var self = this
+        var chunkSize = options.chunkSize || 256 * 1024
+        var job = {}
+        for (var key in options) {
+            job[key] = options[key]
+        }
+        job.job = options.job || ('job-' + Date.now().toString(36) + '-' + (jobCounter++))
+        self.beginImage(function (id) {
+            var offset = 0
+            var next = function () {
+                if (offset >= options.image.length) {
+                    self.commitImage(id, job, callback)
+                    return
+                }
+                var chunk = options.image.substr(offset, chunkSize)
+                offset += chunkSize
+                self.appendImageChunk(id, chunk, next)
+            }
+            next()
+        })
+        return job.job
     },
-    printViaSDK: function (data, callback) {
+    printViaSDK: function (data, callback, options) {
         if (!data || !data.length) {
             console.log('No data passed in. Expects a bitmap.')
             return
         }
-        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'printViaSDK', [data])
+        var args = [data];
+        var id = jobArgs(args, options);
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'printViaSDK', args)
+        return id
     },
     sendUSBConfig: function (data, callback) {
-        if (!data || !data.length) {
-            console.log('No data passed in. Expects print payload string.')
+        if (!data || !(data.length || data.byteLength)) {
+            console.log('No data passed in. Expects print payload string or ArrayBuffer.')
+            return
+        }
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'sendUSBConfig', rawPayloadArgs(data))
+    },
+    sendRawCommands: function (data, options, callback) {
+        if (!data || !(data.length || data.byteLength)) {
+            console.log('No data passed in. Expects print payload string or ArrayBuffer.')
+            return
+        }
+        var args = rawPayloadArgs(data);
+        if( options && options.printer !== undefined ){
+          args.push("printer:" + options.printer);
+        }
+        if( options && options.port !== undefined ){
+          args.push("port:" + options.port);
+        }
+        var id = jobArgs(args, options);
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'sendRawCommands', args)
+        return id
+    },
+    registerTemplate: function (name, data, callback) {
+        if (!name || !data || !(data.length || data.byteLength)) {
+            console.log('Expects a template name and a print payload string or ArrayBuffer.')
+            return
+        }
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'registerTemplate', [name].concat(rawPayloadArgs(data)))
+    },
+    printTemplate: function (name, fields, options, callback) {
+        var args = [name, fields || {}];
+        if( options && options.printer !== undefined ){
+          args.push("printer:" + options.printer);
+        }
+        if( options && options.port !== undefined ){
+          args.push("port:" + options.port);
+        }
+        var id = jobArgs(args, options);
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'printTemplate', args)
+        return id
+    },
+    removeTemplate: function (name, callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'removeTemplate', [name])
+    },
+    registerLayout: function (name, layout, callback) {
+        if (!name || !layout) {
+            console.log('Expects a layout name and a layout object.')
+            return
+        }
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'registerLayout', [name, layout])
+    },
+    printLayout: function (name, records, options, callback, progress) {
+
+        if (!records || !records.length) {
+            console.log('No records passed in. Expects an array of { field: value } objects.')
             return
         }
-        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'sendUSBConfig', [data])
+
+        var args = [name, records];
+        if( options && options.printer !== undefined ){
+          args.push("printer:" + options.printer);
+        }
+        var id = jobArgs(args, options);
+
+        var callbackFn = function (result) {
+            if (!result.done) {
+                if (progress) progress(result)
+                return
+            }
+            if (callback) callback(result)
+        }
+        cordova.exec(callbackFn, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'printLayout', args)
+        return id
+    },
+    removeLayout: function (name, callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'removeLayout', [name])
+    },
+    cancelJob: function (id, callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'cancelJob', [id])
+    },
+    getJobStats: function (callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'getJobStats', [])
+    },
+    getMetrics: function (callback, options) {
+        var args = [];
+        if( options && options.interval !== undefined ){
+          args.push("interval:" + options.interval);
+        }
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'getMetrics', args)
+    },
+    registerPrinterGroup: function (name, serials, options, callback) {
+        if (!name || !serials || !serials.length) {
+            console.log('Expects a group name and an array of printer serial numbers.')
+            return
+        }
+        var args = [name, serials];
+        if( options && options.paper !== undefined ){
+          args.push("paper:" + options.paper);
+        }
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'registerPrinterGroup', args)
+    },
+    removePrinterGroup: function (name, callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'removePrinterGroup', [name])
+    },
+    getPrinterGroupStats: function (callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'getPrinterGroupStats', [])
+    },
+    watchPrinterStatus: function (callback, options) {
+        var args = [];
+        if( options && options.interval !== undefined ){
+          args.push("interval:" + options.interval);
+        }
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'watchPrinterStatus', args)
+    },
+    getPrinterStatus: function (options, callback) {
+        var args = [];
+        if( options && options.printer !== undefined ){
+          args.push("printer:" + options.printer);
+        }
+        if( options && options.refresh ){
+          args.push("refresh:true");
+        }
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'getPrinterStatus', args)
+    },
+    watchSpool: function (callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'watchSpool', [])
+    },
+    getSpoolStats: function (callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'getSpoolStats', [])
+    },
+    getQueueStatus: function (callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'getQueueStatus', [])
+    },
+    getImageCacheStats: function (callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'getImageCacheStats', [])
+    },
+    getSessionPoolStats: function (callback) {
+        cordova.exec(callback, function(err){console.log('error: '+err)}, 'BrotherPrinter', 'getSessionPoolStats', [])
     }
 }
 var plugin = new BrotherPrinter()